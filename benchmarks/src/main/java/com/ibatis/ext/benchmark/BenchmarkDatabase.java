@@ -0,0 +1,81 @@
+package com.ibatis.ext.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import com.ibatis.common.resources.Resources;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapClientBuilder;
+
+/**
+ * 基准测试使用的内存数据库：h2的mysql模式，t_user表中预置ROWS行数据。
+ * sqlMapClient按benchmark/sql-map-config.xml创建，overrides中的配置覆盖benchmark/ext.properties
+ * @author fanwt7236@163.com
+ */
+public class BenchmarkDatabase {
+
+	public static final int ROWS = 1000;
+
+	private static final String CONFIG = "benchmark/sql-map-config.xml";
+	private static final String PROPERTIES = "benchmark/ext.properties";
+
+	public static SqlMapClient newClient() throws IOException, SQLException {
+		return newClient(new Properties());
+	}
+
+	public static SqlMapClient newClient(Properties overrides) throws IOException, SQLException {
+		Properties props = Resources.getResourceAsProperties(PROPERTIES);
+		props.putAll(overrides);
+		reset(props.getProperty("url"));
+		Reader reader = Resources.getResourceAsReader(CONFIG);
+		try {
+			return SqlMapClientBuilder.buildSqlMapClient(reader, props);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * 重建benchmark/ext.properties中配置的数据库的t_user表
+	 */
+	public static void reset() throws IOException, SQLException {
+		reset(Resources.getResourceAsProperties(PROPERTIES).getProperty("url"));
+	}
+
+	/**
+	 * 重建t_user表并插入ROWS行数据
+	 */
+	public static void reset(String url) throws SQLException {
+		Connection conn = DriverManager.getConnection(url, "sa", "");
+		try {
+			Statement st = conn.createStatement();
+			try {
+				st.execute("drop table if exists t_user");
+				st.execute("create table t_user(id bigint auto_increment primary key, name varchar(32), age int)");
+				st.execute("create index idx_user_age on t_user(age)");
+			} finally {
+				st.close();
+			}
+			PreparedStatement ps = conn.prepareStatement("insert into t_user(name, age) values(?, ?)");
+			try {
+				for (int i = 1; i <= ROWS; i++) {
+					ps.setString(1, "user" + i);
+					ps.setInt(2, i % 100);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			} finally {
+				ps.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+}
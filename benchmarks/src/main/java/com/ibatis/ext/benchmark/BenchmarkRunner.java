@@ -0,0 +1,34 @@
+package com.ibatis.ext.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试的入口：参数与jmh的命令行相同，默认加上gc profiler，在吞吐量之外输出每次调用分配的字节数(gc.alloc.rate.norm)
+ * <pre>
+ * java -jar target/benchmarks.jar                         运行所有基准测试
+ * java -jar target/benchmarks.jar PageSqlBuilder -rf json 只运行匹配的基准测试，结果写入jmh-result.json
+ * </pre>
+ * @author fanwt7236@163.com
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getProfilers().isEmpty()) {
+			builder.addProfiler(GCProfiler.class);
+		}
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+
+}
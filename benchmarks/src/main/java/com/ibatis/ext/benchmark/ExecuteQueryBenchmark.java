@@ -0,0 +1,95 @@
+package com.ibatis.ext.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * SqlExecutorExt.executeQuery：同一条语句不分页、分页(count + 分页sql)以及跳过count的分页查询。
+ * statementCacheSize为0时每次查询都重新prepare，大于0时复用物理连接上缓存的statement
+ * @author fanwt7236@163.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecuteQueryBenchmark {
+
+	@Param({ "0", "32" })
+	public int statementCacheSize;
+
+	private SqlMapClient client;
+	private Map<String, Object> param;
+
+	@Setup
+	public void setup() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("statementCacheSize", String.valueOf(this.statementCacheSize));
+		this.client = BenchmarkDatabase.newClient(props);
+		this.param = new HashMap<String, Object>();
+		//约一半的行满足条件
+		this.param.put("minAge", 50);
+	}
+
+	@TearDown
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public List query() throws Exception {
+		return this.client.queryForList("user.selectListUser", this.param);
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public List pagedQuery() throws Exception {
+		Page page = new Page();
+		page.setPageNum(3);
+		page.setPageSize(20);
+		PageSection.put(page);
+		try {
+			return this.client.queryForList("user.selectListUser", this.param);
+		} finally {
+			PageSection.clear();
+		}
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public List pagedQuerySkipCount() throws Exception {
+		Page page = new Page();
+		page.setPageNum(3);
+		page.setPageSize(20);
+		page.setSkipCount(true);
+		PageSection.put(page);
+		try {
+			return this.client.queryForList("user.selectListUser", this.param);
+		} finally {
+			PageSection.clear();
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.ibatis.ext.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+/**
+ * 进程内的redis替身：只实现RedisCacheController用到的hash和sorted set命令，数据保存在HashMap中，
+ * 用于在没有redis服务的环境中测量缓存的序列化和RedisTemplate的开销。
+ * 所有命令在同一把锁下执行，不模拟网络延迟
+ * @author fanwt7236@163.com
+ */
+public class InMemoryRedis {
+
+	private final Map<ByteBuffer, Map<ByteBuffer, byte[]>> hashes = new HashMap<ByteBuffer, Map<ByteBuffer, byte[]>>();
+	private final Map<ByteBuffer, Map<ByteBuffer, Double>> sortedSets = new HashMap<ByteBuffer, Map<ByteBuffer, Double>>();
+
+	/**
+	 * 使用该替身的RedisTemplate
+	 */
+	public RedisTemplate<String, byte[]> newTemplate() {
+		RedisTemplate<String, byte[]> template = new RedisTemplate<String, byte[]>();
+		template.setConnectionFactory(newConnectionFactory());
+		template.afterPropertiesSet();
+		return template;
+	}
+
+	public RedisConnectionFactory newConnectionFactory() {
+		final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(RedisConnection.class.getClassLoader(),
+				new Class<?>[] { RedisConnection.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return command(method, args);
+					}
+				});
+		return (RedisConnectionFactory) Proxy.newProxyInstance(RedisConnectionFactory.class.getClassLoader(),
+				new Class<?>[] { RedisConnectionFactory.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getConnection".equals(method.getName())) {
+							return connection;
+						}
+						return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private synchronized Object command(Method method, Object[] args) {
+		String name = method.getName();
+		if ("hGet".equals(name)) {
+			Map<ByteBuffer, byte[]> hash = this.hashes.get(key(args[0]));
+			return hash == null ? null : hash.get(key(args[1]));
+		}
+		if ("hSet".equals(name)) {
+			Map<ByteBuffer, byte[]> hash = this.hashes.get(key(args[0]));
+			if (hash == null) {
+				hash = new HashMap<ByteBuffer, byte[]>();
+				this.hashes.put(key(args[0]), hash);
+			}
+			return hash.put(key(args[1]), (byte[]) args[2]) == null;
+		}
+		if ("hDel".equals(name)) {
+			Map<ByteBuffer, byte[]> hash = this.hashes.get(key(args[0]));
+			long removed = 0;
+			for (byte[] field : (byte[][]) args[1]) {
+				if (hash != null && hash.remove(key(field)) != null) {
+					removed++;
+				}
+			}
+			return removed;
+		}
+		if ("zIncrBy".equals(name)) {
+			Map<ByteBuffer, Double> set = sortedSet(args[0]);
+			Double score = set.get(key(args[2]));
+			score = (score == null ? 0 : score) + (Double) args[1];
+			set.put(key(args[2]), score);
+			return score;
+		}
+		if ("zCard".equals(name)) {
+			return (long) sortedSet(args[0]).size();
+		}
+		if ("zRem".equals(name)) {
+			Map<ByteBuffer, Double> set = sortedSet(args[0]);
+			long removed = 0;
+			for (byte[] member : (byte[][]) args[1]) {
+				if (set.remove(key(member)) != null) {
+					removed++;
+				}
+			}
+			return removed;
+		}
+		if ("zRevRangeByScore".equals(name) && args.length == 5) {
+			return zRevRangeByScore(sortedSet(args[0]), (Double) args[1], (Double) args[2], (Long) args[3], (Long) args[4]);
+		}
+		if ("del".equals(name)) {
+			long removed = 0;
+			for (byte[] key : (byte[][]) args[0]) {
+				removed += (this.hashes.remove(key(key)) != null ? 1 : 0) + (this.sortedSets.remove(key(key)) != null ? 1 : 0);
+			}
+			return removed;
+		}
+		return defaultValue(method.getReturnType());
+	}
+
+	private static Set<byte[]> zRevRangeByScore(Map<ByteBuffer, Double> set, double min, double max, long offset, long count) {
+		List<Map.Entry<ByteBuffer, Double>> entries = new ArrayList<Map.Entry<ByteBuffer, Double>>(set.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<ByteBuffer, Double>>() {
+			public int compare(Map.Entry<ByteBuffer, Double> a, Map.Entry<ByteBuffer, Double> b) {
+				return Double.compare(b.getValue(), a.getValue());
+			}
+		});
+		Set<byte[]> result = new LinkedHashSet<byte[]>();
+		long skipped = 0;
+		for (Map.Entry<ByteBuffer, Double> entry : entries) {
+			if (entry.getValue() < min || entry.getValue() > max) {
+				continue;
+			}
+			if (skipped++ < offset) {
+				continue;
+			}
+			if (result.size() >= count) {
+				break;
+			}
+			result.add(entry.getKey().array());
+		}
+		return result;
+	}
+
+	private Map<ByteBuffer, Double> sortedSet(Object key) {
+		Map<ByteBuffer, Double> set = this.sortedSets.get(key(key));
+		if (set == null) {
+			set = new HashMap<ByteBuffer, Double>();
+			this.sortedSets.put(key(key), set);
+		}
+		return set;
+	}
+
+	private static ByteBuffer key(Object bytes) {
+		return ByteBuffer.wrap((byte[]) bytes);
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == Boolean.TYPE) {
+			return Boolean.FALSE;
+		}
+		if (type == Long.TYPE || type == Integer.TYPE) {
+			return type == Long.TYPE ? (Object) 0L : (Object) 0;
+		}
+		return null;
+	}
+
+}
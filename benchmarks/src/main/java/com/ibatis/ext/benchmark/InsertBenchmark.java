@@ -0,0 +1,65 @@
+package com.ibatis.ext.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * SqlMapExecutorDelegateExt.insert：带有selectKey的insert，
+ * useGeneratedKeys为false时单独执行selectKey，为true时从同一个statement的getGeneratedKeys()读取主键
+ * @author fanwt7236@163.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean useGeneratedKeys;
+
+	private SqlMapClient client;
+
+	@Setup
+	public void setup() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("useGeneratedKeys", String.valueOf(this.useGeneratedKeys));
+		this.client = BenchmarkDatabase.newClient(props);
+	}
+
+	/**
+	 * 每轮重建表，避免表持续增长影响后面的轮次
+	 */
+	@Setup(Level.Iteration)
+	public void reset() throws Exception {
+		BenchmarkDatabase.reset();
+	}
+
+	@Benchmark
+	public Object insert() throws Exception {
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", "benchmark");
+		user.put("age", 30);
+		this.client.insert("user.insertUser", user);
+		return user.get("id");
+	}
+
+}
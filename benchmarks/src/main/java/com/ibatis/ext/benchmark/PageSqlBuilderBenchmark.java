@@ -0,0 +1,68 @@
+package com.ibatis.ext.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.dialect.MySqlPageSqlBuilder;
+
+/**
+ * MySqlPageSqlBuilder构造分页sql：拼接偏移量的buildSql、使用占位符的buildPreparedSql，
+ * 分别使用简单查询、带order by的查询以及带子查询和page排序字段的查询
+ * @author fanwt7236@163.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageSqlBuilderBenchmark {
+
+	@Param({ "simple", "orderBy", "subQuery" })
+	public String sql;
+
+	private final MySqlPageSqlBuilder builder = new MySqlPageSqlBuilder();
+	private String source;
+	private Page page;
+
+	@Setup
+	public void setup() {
+		this.page = new Page();
+		this.page.setPageNum(5);
+		this.page.setPageSize(20);
+		if ("simple".equals(this.sql)) {
+			this.source = "select id, name, age from t_user where age >= ?";
+		} else if ("orderBy".equals(this.sql)) {
+			this.source = "select u.id, u.name, u.age from t_user u where u.age >= ? order by u.name, u.id";
+		} else {
+			this.source = "select u.id, u.name, (select count(*) from t_order o where o.user_id = u.id) orders from t_user u "
+					+ "where u.age >= ? and u.id in (select user_id from t_order where amount > ?)";
+			this.page.setSortField("u.age,u.id");
+			this.page.setSortType("desc");
+		}
+	}
+
+	@Benchmark
+	public String buildSql() {
+		return this.builder.buildSql(this.source, this.page);
+	}
+
+	@Benchmark
+	public PageSql buildPreparedSql() {
+		return this.builder.buildPreparedSql(this.source, this.page);
+	}
+
+}
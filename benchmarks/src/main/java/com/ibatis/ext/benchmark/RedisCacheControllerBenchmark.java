@@ -0,0 +1,75 @@
+package com.ibatis.ext.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibatis.ext.cache.redis.RedisCacheController;
+import com.ibatis.ext.cache.redis.RedisTemplateBuilder;
+import com.ibatis.sqlmap.engine.cache.CacheModel;
+
+/**
+ * RedisCacheController的putObject/getObject：结果的java序列化、key的生成以及RedisTemplate的调用，
+ * redis使用进程内的InMemoryRedis代替，结果是rows行的Map组成的list
+ * @author fanwt7236@163.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisCacheControllerBenchmark {
+
+	@Param({ "1", "20" })
+	public int rows;
+
+	private RedisCacheController controller;
+	private CacheModel cacheModel;
+	private List<Map<String, Object>> value;
+	private final String key = "user.selectListUser|-1|1234567|minAge=50";
+
+	@Setup
+	public void setup() {
+		new RedisTemplateBuilder().setRedisTemplate(new InMemoryRedis().newTemplate());
+		this.controller = new RedisCacheController();
+		this.controller.setProperties(new Properties());
+		this.cacheModel = new CacheModel();
+		this.cacheModel.setId("user.cache");
+		this.value = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < this.rows; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("ID", (long) i);
+			row.put("NAME", "user" + i);
+			row.put("AGE", i % 100);
+			this.value.add(row);
+		}
+		this.controller.putObject(this.cacheModel, this.key, this.value);
+	}
+
+	@Benchmark
+	public void putObject() {
+		this.controller.putObject(this.cacheModel, this.key, this.value);
+	}
+
+	@Benchmark
+	public Object getObject() {
+		return this.controller.getObject(this.cacheModel, this.key);
+	}
+
+}
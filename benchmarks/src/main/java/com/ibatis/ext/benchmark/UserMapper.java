@@ -0,0 +1,19 @@
+package com.ibatis.ext.benchmark;
+
+import java.util.List;
+
+import com.ibatis.ext.proxy.annotation.Param;
+
+/**
+ * benchmark/mapper.xml对应的mapper接口，sqlMap的namespace为接口的全名
+ * @author fanwt7236@163.com
+ */
+public interface UserMapper {
+
+	User getUser(long id);
+
+	List<User> selectListUser(@Param("minAge") int minAge, @Param("name") String name);
+
+	Object insertUser(User user);
+
+}
@@ -0,0 +1,91 @@
+package com.ibatis.ext.proxy;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibatis.ext.benchmark.BenchmarkDatabase;
+import com.ibatis.ext.benchmark.User;
+import com.ibatis.ext.benchmark.UserMapper;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * ProxyFactory.invoke的分派开销：mapper接口的方法调用经过查找MappedStatement、解析返回值类型、组装参数后调用sqlMapClient。
+ * sqlMapClient的执行方法被替换为直接返回固定结果，不访问数据库，direct*为直接调用sqlMapClient的基准。
+ * ProxyFactory不是public的，因此放在同一个包中
+ * @author fanwt7236@163.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyFactoryBenchmark {
+
+	private SqlMapClient client;
+	private UserMapper mapper;
+	private User user;
+
+	@Setup
+	public void setup() throws Exception {
+		SqlMapClientImpl client = (SqlMapClientImpl) BenchmarkDatabase.newClient();
+		final User row = new User();
+		final List<Object> rows = new ArrayList<Object>();
+		rows.add(row);
+		this.client = new SqlMapClientImpl(client.getDelegate()) {
+			@Override
+			public Object queryForObject(String id, Object parameterObject) throws SQLException {
+				return row;
+			}
+
+			@Override
+			@SuppressWarnings("rawtypes")
+			public List queryForList(String id, Object parameterObject) throws SQLException {
+				return rows;
+			}
+
+			@Override
+			public Object insert(String id, Object parameterObject) throws SQLException {
+				return 1;
+			}
+		};
+		this.mapper = ProxyFactory.newProxy(UserMapper.class, this.client);
+		this.user = new User();
+		this.user.setName("benchmark");
+	}
+
+	@Benchmark
+	public Object proxyQueryForObject() {
+		return this.mapper.getUser(1L);
+	}
+
+	@Benchmark
+	public Object proxyQueryForListWithParams() {
+		return this.mapper.selectListUser(50, "user");
+	}
+
+	@Benchmark
+	public Object proxyInsert() {
+		return this.mapper.insertUser(this.user);
+	}
+
+	@Benchmark
+	public Object directQueryForObject() throws SQLException {
+		return this.client.queryForObject(UserMapper.class.getName() + ".getUser", 1L);
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.ibatis.ext.loadtest;
+
+/**
+ * 记录延迟分布的直方图：按2的幂分段，每段64个桶，百分位的相对误差不超过1/64。
+ * 内存占用固定，不保存每个样本，不是线程安全的，每个线程使用自己的实例，结束后合并
+ * @author fanwt7236@163.com
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final long[] counts = new long[64 * SUB_BUCKETS];
+	private long count;
+	private long max;
+
+	/**
+	 * @param nanos 一次操作的耗时(纳秒)
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		this.counts[index(nanos)]++;
+		this.count++;
+		if (nanos > this.max) {
+			this.max = nanos;
+		}
+	}
+
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.count += other.count;
+		this.max = Math.max(this.max, other.max);
+	}
+
+	/**
+	 * @param percentile 0到1之间，例如0.99
+	 * @return 该百分位的耗时(纳秒)，没有样本时返回0
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (this.count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile * this.count));
+		long cumulative = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			cumulative += this.counts[i];
+			if (cumulative >= target) {
+				return Math.min(highestValue(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * 小于64的值每个值一个桶；之后每个2的幂的区间平分为64个桶
+	 */
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * 桶中的最大值
+	 */
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
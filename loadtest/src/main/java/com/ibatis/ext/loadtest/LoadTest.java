@@ -0,0 +1,378 @@
+package com.ibatis.ext.loadtest;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ibatis.ext.loadtest.audit.AuditMapper;
+import com.ibatis.ext.loadtest.user.User;
+import com.ibatis.ext.loadtest.user.UserMapper;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+
+/**
+ * 多线程的压力测试：threads个线程在h2内存库上通过Scanner生成的mapper按比例执行分页查询、insert、带缓存的查询
+ * 以及通过DataSourcesTransactionManager同时写入两个库的事务，预热warmup秒后统计duration秒。
+ * 结果以每行一个json对象的形式输出到标准输出(日志在标准错误中)：每种操作一行，最后一行为汇总，
+ * 包含吞吐量(次/秒)及p50/p99/p999/max延迟(微秒)，汇总中还有事务的一致性检查、结束后的堆内存和存活线程数，
+ * 用于发现并发下的锁竞争、ThreadLocal泄漏等问题。
+ * 参数为key=value，默认值见DEFAULTS，例如:
+ * <pre>
+ * java -jar target/loadtest.jar threads=64 duration=60 mix=list:50,get:30,insert:10,transaction:10 out=result.jsonl
+ * </pre>
+ * @author fanwt7236@163.com
+ */
+public class LoadTest {
+
+	private static final String CONTEXT = "loadtest/applicationContext.xml";
+
+	private static final String[][] DEFAULTS = {
+			{ "threads", "32" },
+			//预热和统计的秒数
+			{ "warmup", "5" },
+			{ "duration", "30" },
+			//各操作的权重
+			{ "mix", "list:40,get:40,insert:10,transaction:10" },
+			//t_user表预置的行数，分页查询的页号在行数范围内随机
+			{ "rows", "10000" },
+			{ "pageSize", "20" },
+			//带缓存的查询只读取前hotRows行，缓存大小为1000
+			{ "hotRows", "500" },
+			//每个库的连接池大小
+			{ "poolSize", "64" },
+			//结果同时写入的文件，为空时只输出到标准输出
+			{ "out", "" } };
+
+	private static final String[] OPERATIONS = { "list", "get", "insert", "transaction" };
+	private static final int LIST = 0;
+	private static final int GET = 1;
+	private static final int INSERT = 2;
+	private static final int TRANSACTION = 3;
+
+	private final Properties config;
+	private final int[] weights = new int[OPERATIONS.length];
+	private int totalWeight;
+	private final int rows;
+	private final int pageSize;
+	private final int hotRows;
+
+	private UserMapper userMapper;
+	private AuditMapper auditMapper;
+	private TransactionTemplate transactionTemplate;
+
+	private volatile boolean measuring;
+	private volatile boolean stopped;
+	//所有阶段中提交的事务数，用于检查审计库的行数
+	private final AtomicLong committed = new AtomicLong();
+
+	public LoadTest(Properties config) {
+		this.config = config;
+		for (String item : config.getProperty("mix").split(",")) {
+			String[] pair = item.trim().split(":");
+			int operation = indexOf(pair[0].trim());
+			this.weights[operation] = Integer.parseInt(pair[1].trim());
+			this.totalWeight += this.weights[operation];
+		}
+		if (this.totalWeight <= 0) {
+			throw new IllegalArgumentException("mix中至少有一个操作的权重大于0");
+		}
+		this.rows = Integer.parseInt(config.getProperty("rows"));
+		this.pageSize = Integer.parseInt(config.getProperty("pageSize"));
+		this.hotRows = Math.min(this.rows, Integer.parseInt(config.getProperty("hotRows")));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties config = new Properties();
+		for (String[] entry : DEFAULTS) {
+			config.setProperty(entry[0], entry[1]);
+		}
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i <= 0) {
+				throw new IllegalArgumentException("参数的格式为key=value: " + arg);
+			}
+			config.setProperty(arg.substring(0, i).trim(), arg.substring(i + 1).trim());
+		}
+		new LoadTest(config).run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		//参数放在父容器中，供applicationContext.xml中的占位符使用
+		GenericApplicationContext parent = new GenericApplicationContext();
+		parent.getBeanFactory().registerSingleton("loadTestProperties", this.config);
+		parent.refresh();
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(new String[] { CONTEXT }, parent);
+		try {
+			createTables(context.getBean("userDataSource", DataSource.class), context.getBean("auditDataSource", DataSource.class));
+			this.userMapper = context.getBean(UserMapper.class);
+			this.auditMapper = context.getBean(AuditMapper.class);
+			this.transactionTemplate = context.getBean(TransactionTemplate.class);
+			int threads = Integer.parseInt(this.config.getProperty("threads"));
+			Worker[] workers = new Worker[threads];
+			CountDownLatch done = new CountDownLatch(threads);
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new Worker(done);
+				Thread thread = new Thread(workers[i], "loadtest-" + (i + 1));
+				thread.setDaemon(true);
+				thread.start();
+			}
+			Thread.sleep(Long.parseLong(this.config.getProperty("warmup")) * 1000L);
+			for (Worker worker : workers) {
+				worker.reset();
+			}
+			this.measuring = true;
+			long start = System.nanoTime();
+			Thread.sleep(Long.parseLong(this.config.getProperty("duration")) * 1000L);
+			this.measuring = false;
+			long elapsed = System.nanoTime() - start;
+			this.stopped = true;
+			done.await();
+			report(workers, elapsed, threads);
+		} finally {
+			context.close();
+			parent.close();
+		}
+	}
+
+	/**
+	 * 按权重随机选择操作并执行
+	 */
+	private void execute(int operation, ThreadLocalRandom random) throws Exception {
+		switch (operation) {
+		case LIST:
+			Page page = new Page();
+			page.setPageNum(1 + random.nextInt(Math.max(1, this.rows / 2 / this.pageSize)));
+			page.setPageSize(this.pageSize);
+			PageSection.put(page);
+			try {
+				this.userMapper.selectListUser(random.nextInt(50));
+			} finally {
+				PageSection.clear();
+			}
+			break;
+		case GET:
+			this.userMapper.getUser(1 + random.nextInt(this.hotRows));
+			break;
+		case INSERT:
+			this.userMapper.insertUser(newUser(random));
+			break;
+		case TRANSACTION:
+			final User user = newUser(random);
+			this.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					userMapper.insertUser(user);
+					auditMapper.insertAudit(user.getId(), "create");
+				}
+			});
+			this.committed.incrementAndGet();
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	private int nextOperation(ThreadLocalRandom random) {
+		int r = random.nextInt(this.totalWeight);
+		for (int i = 0; i < this.weights.length; i++) {
+			r -= this.weights[i];
+			if (r < 0) {
+				return i;
+			}
+		}
+		return this.weights.length - 1;
+	}
+
+	private static User newUser(ThreadLocalRandom random) {
+		User user = new User();
+		user.setName("load" + random.nextInt(1000000));
+		user.setAge(random.nextInt(100));
+		return user;
+	}
+
+	private void createTables(DataSource userDataSource, DataSource auditDataSource) throws SQLException {
+		Connection conn = userDataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			try {
+				st.execute("drop table if exists t_user");
+				st.execute("create table t_user(id bigint auto_increment primary key, name varchar(32), age int)");
+				st.execute("create index idx_user_age on t_user(age)");
+			} finally {
+				st.close();
+			}
+			PreparedStatement ps = conn.prepareStatement("insert into t_user(name, age) values(?, ?)");
+			try {
+				for (int i = 1; i <= this.rows; i++) {
+					ps.setString(1, "user" + i);
+					ps.setInt(2, i % 100);
+					ps.addBatch();
+					if (i % 1000 == 0) {
+						ps.executeBatch();
+					}
+				}
+				ps.executeBatch();
+			} finally {
+				ps.close();
+			}
+		} finally {
+			conn.close();
+		}
+		conn = auditDataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			try {
+				st.execute("drop table if exists t_audit");
+				st.execute("create table t_audit(id bigint auto_increment primary key, user_id bigint, action varchar(16))");
+			} finally {
+				st.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	private void report(Worker[] workers, long elapsedNanos, int threads) throws IOException {
+		double seconds = elapsedNanos / 1e9;
+		List<String> lines = new ArrayList<String>();
+		LatencyHistogram total = new LatencyHistogram();
+		long totalErrors = 0;
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			if (this.weights[op] == 0) {
+				continue;
+			}
+			LatencyHistogram histogram = new LatencyHistogram();
+			long errors = 0;
+			for (Worker worker : workers) {
+				histogram.merge(worker.histograms[op]);
+				errors += worker.errors[op];
+			}
+			total.merge(histogram);
+			totalErrors += errors;
+			lines.add("{\"type\":\"operation\",\"operation\":\"" + OPERATIONS[op] + "\"," + metrics(histogram, errors, seconds) + "}");
+		}
+		//事务全部提交时审计库的行数等于提交的事务数
+		boolean consistent = this.auditMapper.countAudit() == this.committed.get();
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long heapUsed = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+		lines.add("{\"type\":\"summary\",\"threads\":" + threads + ",\"duration_s\":" + format(seconds) + "," + metrics(total, totalErrors, seconds)
+				+ ",\"consistent\":" + consistent + ",\"heap_used_mb\":" + heapUsed + ",\"live_threads\":" + Thread.activeCount() + "}");
+		String out = this.config.getProperty("out");
+		PrintWriter file = out.length() == 0 ? null : new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+		try {
+			for (String line : lines) {
+				System.out.println(line);
+				if (file != null) {
+					file.println(line);
+				}
+			}
+		} finally {
+			if (file != null) {
+				file.close();
+			}
+		}
+	}
+
+	private static String metrics(LatencyHistogram histogram, long errors, double seconds) {
+		return "\"count\":" + histogram.getCount() + ",\"errors\":" + errors + ",\"throughput\":" + format(histogram.getCount() / seconds)
+				+ ",\"p50_us\":" + micros(histogram.getValueAtPercentile(0.5)) + ",\"p99_us\":" + micros(histogram.getValueAtPercentile(0.99))
+				+ ",\"p999_us\":" + micros(histogram.getValueAtPercentile(0.999)) + ",\"max_us\":" + micros(histogram.getMax());
+	}
+
+	private static String micros(long nanos) {
+		return format(nanos / 1000.0);
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static int indexOf(String operation) {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (OPERATIONS[i].equals(operation)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("未知的操作: " + operation);
+	}
+
+	/**
+	 * 压测线程，统计数据只由自己写入，结束后由主线程读取
+	 */
+	private class Worker implements Runnable {
+		final CountDownLatch done;
+		volatile LatencyHistogram[] histograms = newHistograms();
+		volatile long[] errors = new long[OPERATIONS.length];
+		//预热结束时由主线程设置，工作线程在下一次操作前清空统计
+		volatile boolean reset;
+
+		Worker(CountDownLatch done) {
+			this.done = done;
+		}
+
+		void reset() {
+			this.reset = true;
+		}
+
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			try {
+				while (!stopped) {
+					if (this.reset) {
+						this.histograms = newHistograms();
+						this.errors = new long[OPERATIONS.length];
+						this.reset = false;
+					}
+					int operation = nextOperation(random);
+					boolean measured = measuring;
+					long start = System.nanoTime();
+					try {
+						execute(operation, random);
+						if (measured) {
+							this.histograms[operation].record(System.nanoTime() - start);
+						}
+					} catch (Exception e) {
+						if (measured) {
+							if (this.errors[operation]++ == 0) {
+								System.err.println(OPERATIONS[operation] + "失败: " + e);
+							}
+						}
+					}
+				}
+			} finally {
+				this.done.countDown();
+			}
+		}
+
+		private LatencyHistogram[] newHistograms() {
+			LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+			for (int i = 0; i < histograms.length; i++) {
+				histograms[i] = new LatencyHistogram();
+			}
+			return histograms;
+		}
+	}
+
+}
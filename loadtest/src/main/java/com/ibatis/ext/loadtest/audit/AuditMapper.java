@@ -0,0 +1,15 @@
+package com.ibatis.ext.loadtest.audit;
+
+import com.ibatis.ext.proxy.annotation.Param;
+
+/**
+ * 审计库的mapper，由Scanner扫描生成
+ * @author fanwt7236@163.com
+ */
+public interface AuditMapper {
+
+	int insertAudit(@Param("userId") long userId, @Param("action") String action);
+
+	long countAudit();
+
+}
@@ -0,0 +1,41 @@
+package com.ibatis.ext.loadtest.user;
+
+import java.io.Serializable;
+
+/**
+ * t_user表对应的实体
+ * @author fanwt7236@163.com
+ */
+public class User implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private Long id;
+	private String name;
+	private Integer age;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Integer getAge() {
+		return age;
+	}
+
+	public void setAge(Integer age) {
+		this.age = age;
+	}
+
+}
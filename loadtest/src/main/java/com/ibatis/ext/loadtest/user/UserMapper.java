@@ -0,0 +1,19 @@
+package com.ibatis.ext.loadtest.user;
+
+import java.util.List;
+
+/**
+ * 用户库的mapper，由Scanner扫描生成，sqlMap的namespace为接口的全名
+ * @author fanwt7236@163.com
+ */
+public interface UserMapper {
+
+	/** 分页查询，page通过PageSection传入 */
+	List<User> selectListUser(int minAge);
+
+	/** 带有LRU缓存的查询 */
+	User getUser(long id);
+
+	Object insertUser(User user);
+
+}
@@ -0,0 +1,269 @@
+package com.ibatis.ext;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.ext.routing.ReadWriteRouting;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * SqlMapClient的异步门面：queryForListAsync等方法在专用的线程池中执行并返回CompletableFuture，
+ * 一次请求中互不依赖的多个查询可以同时执行。
+ * 同时执行的语句数不超过threads(默认为连接池的最大连接数)，等待执行的语句数不超过queueSize，超出时future以RejectedExecutionException失败；
+ * java21及以上默认每个语句使用一个虚拟线程(仍受threads限制)，否则使用固定大小的线程池。
+ * 调用时PageSection中的page和ReadWriteRouting.forcePrimary()的状态会带到执行线程，page在future完成后才会回填总记录数等信息；
+ * 语句在执行线程自己的session中执行，不在调用方的事务中
+ * @author fanwt7236@163.com
+ */
+public class AsyncSqlMapClient {
+
+	private static final Log log = LogFactory.getLog(AsyncSqlMapClient.class);
+
+	private static final int DEFAULT_THREADS = 10;
+	//连接池最大连接数的getter：ibatis SimpleDataSource、HikariCP、dbcp2、dbcp/druid/tomcat-jdbc
+	private static final String[] POOL_SIZE_GETTERS = { "getPoolMaximumActiveConnections", "getMaximumPoolSize", "getMaxTotal", "getMaxActive" };
+
+	private final SqlMapClient client;
+	private final int threads;
+	private final int queueSize;
+	//虚拟线程时为每个任务一个线程的executor，否则为固定大小的线程池
+	private final ExecutorService executor;
+	//虚拟线程时限制同时执行的语句数
+	private final Semaphore permits;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * 线程数为连接池的最大连接数，java21及以上使用虚拟线程
+	 */
+	public AsyncSqlMapClient(SqlMapClient client) {
+		this(client, poolSize(client.getDataSource()), 1000, true);
+	}
+
+	/**
+	 * @param client
+	 * @param threads 同时执行的语句数
+	 * @param queueSize 等待执行的语句数上限
+	 * @param virtualThreads 是否在支持时使用虚拟线程
+	 */
+	public AsyncSqlMapClient(SqlMapClient client, int threads, int queueSize, boolean virtualThreads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads必须大于0");
+		}
+		this.client = client;
+		this.threads = threads;
+		this.queueSize = queueSize;
+		ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+		if (virtual != null) {
+			this.executor = virtual;
+			this.permits = new Semaphore(threads);
+		} else {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "ibatis-ext-async-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			this.executor = executor;
+			this.permits = null;
+		}
+	}
+
+	/**
+	 * 通过反射调用Executors.newVirtualThreadPerTaskExecutor()，java21以下返回null
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			log.warn("无法创建虚拟线程，使用线程池: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * 从连接池读取最大连接数，无法读取时返回10
+	 */
+	static int poolSize(DataSource dataSource) {
+		if (dataSource != null) {
+			for (String getter : POOL_SIZE_GETTERS) {
+				try {
+					Object size = dataSource.getClass().getMethod(getter).invoke(dataSource);
+					if (size instanceof Number && ((Number) size).intValue() > 0) {
+						return ((Number) size).intValue();
+					}
+				} catch (Exception e) {
+					// 没有该方法，尝试下一个
+				}
+			}
+		}
+		return DEFAULT_THREADS;
+	}
+
+	public CompletableFuture<Object> queryForObjectAsync(final String id, final Object parameterObject) {
+		return submit(new Statement<Object>() {
+			public Object execute() throws SQLException {
+				return client.queryForObject(id, parameterObject);
+			}
+		});
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<List> queryForListAsync(final String id, final Object parameterObject) {
+		return submit(new Statement<List>() {
+			public List execute() throws SQLException {
+				return client.queryForList(id, parameterObject);
+			}
+		});
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<List> queryForListAsync(final String id, final Object parameterObject, final int skip, final int max) {
+		return submit(new Statement<List>() {
+			public List execute() throws SQLException {
+				return client.queryForList(id, parameterObject, skip, max);
+			}
+		});
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<Map> queryForMapAsync(final String id, final Object parameterObject, final String keyProp) {
+		return submit(new Statement<Map>() {
+			public Map execute() throws SQLException {
+				return client.queryForMap(id, parameterObject, keyProp);
+			}
+		});
+	}
+
+	public CompletableFuture<Object> insertAsync(final String id, final Object parameterObject) {
+		return submit(new Statement<Object>() {
+			public Object execute() throws SQLException {
+				return client.insert(id, parameterObject);
+			}
+		});
+	}
+
+	public CompletableFuture<Integer> updateAsync(final String id, final Object parameterObject) {
+		return submit(new Statement<Integer>() {
+			public Integer execute() throws SQLException {
+				return client.update(id, parameterObject);
+			}
+		});
+	}
+
+	public CompletableFuture<Integer> deleteAsync(final String id, final Object parameterObject) {
+		return submit(new Statement<Integer>() {
+			public Integer execute() throws SQLException {
+				return client.delete(id, parameterObject);
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(final Statement<T> statement) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		//在调用方线程中读取，执行线程中恢复
+		final Page page = PageSection.get();
+		final boolean forcePrimary = ReadWriteRouting.isForcePrimary();
+		if (this.permits != null && this.pending.incrementAndGet() > this.threads + this.queueSize) {
+			this.pending.decrementAndGet();
+			future.completeExceptionally(new RejectedExecutionException("等待执行的异步语句超过了" + this.queueSize));
+			return future;
+		}
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					if (permits != null) {
+						permits.acquire();
+					}
+				} catch (InterruptedException e) {
+					pending.decrementAndGet();
+					future.completeExceptionally(e);
+					return;
+				}
+				if (page != null) {
+					PageSection.put(page);
+				}
+				if (forcePrimary) {
+					ReadWriteRouting.forcePrimary();
+				}
+				T result = null;
+				Throwable error = null;
+				try {
+					result = statement.execute();
+				} catch (Throwable t) {
+					error = t;
+				} finally {
+					if (forcePrimary) {
+						ReadWriteRouting.clearForcePrimary();
+					}
+					PageSection.clear();
+					if (permits != null) {
+						permits.release();
+						pending.decrementAndGet();
+					}
+				}
+				//thenApply等依赖的操作会在complete时同步执行，此时page、forcePrimary和许可都已经还原
+				if (error != null) {
+					future.completeExceptionally(error);
+				} else {
+					future.complete(result);
+				}
+			}
+		};
+		try {
+			this.executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			if (this.permits != null) {
+				this.pending.decrementAndGet();
+			}
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/** 同时执行的语句数上限 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/** 是否使用虚拟线程 */
+	public boolean isVirtualThreads() {
+		return permits != null;
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private interface Statement<T> {
+
+		T execute() throws SQLException;
+
+	}
+
+}
@@ -0,0 +1,339 @@
+package com.ibatis.ext;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+
+/**
+ * 语句的并发数限制：statementId匹配某个分组的语句同时执行的数量不超过该分组的限制，
+ * 避免耗时的报表查询占满连接池，使其他的查询等不到连接。
+ * 超出限制时立即失败，或在有界的队列中等待queueTimeout毫秒，仍没有空闲时失败，失败时抛出LimitExceededException；
+ * 开启adaptive时限制从max开始(启动时不会因限制过小而失败)，按平均耗时调整：平均耗时超过最低平均耗时的latencyTolerance倍时减小为原来的3/4(不小于min)，
+ * 否则在并发数达到限制时加1(不超过max)。同一线程中的嵌套调用不重复计数。
+ * 配置项(group为分组名，按名称顺序匹配，语句使用第一个匹配的分组):
+ * concurrencyLimit.group.regEx 分组的statementId的正则表达式
+ * concurrencyLimit.group.max 同时执行的语句数上限，默认10
+ * concurrencyLimit.group.perStatement 为true时每个statement单独计数，默认分组内的语句共同计数
+ * concurrencyLimit.group.queueSize 等待执行的语句数上限，默认0(超出限制时立即失败)
+ * concurrencyLimit.group.queueTimeout 等待的毫秒数，默认1000
+ * concurrencyLimit.group.adaptive 是否按耗时调整限制，默认false
+ * concurrencyLimit.group.min 调整后的下限，默认1
+ * concurrencyLimit.group.latencyTolerance 平均耗时超过最低平均耗时的多少倍时减小限制，默认2
+ * @author fanwt7236@163.com
+ */
+public class ConcurrencyLimiter {
+
+	private static final Log log = LogFactory.getLog(ConcurrencyLimiter.class);
+
+	private static final String PREFIX = "concurrencyLimit.";
+	private static final String REGEX = ".regEx";
+	//调整限制至少需要的样本数
+	private static final int MIN_SAMPLES = 10;
+
+	private final List<Group> groups = new ArrayList<Group>();
+	//每个statementId使用的限制，ConcurrentHashMap不能存放null，不限制的语句用该对象代替
+	private static final Limit NONE = new Limit("", 0, 0, 0, 0, false, 0);
+	private final ConcurrentHashMap<String, Limit> statements = new ConcurrentHashMap<String, Limit>();
+
+	public ConcurrencyLimiter(Properties props) {
+		for (String name : groupNames(props)) {
+			String prefix = PREFIX + name + ".";
+			int max = Integer.parseInt(props.getProperty(prefix + "max", "10"));
+			if (max <= 0) {
+				throw new IllegalArgumentException(prefix + "max必须大于0");
+			}
+			Group group = new Group();
+			group.name = name;
+			group.regEx = Pattern.compile(props.getProperty(prefix + "regEx").trim());
+			group.max = max;
+			group.min = Math.min(max, Math.max(1, Integer.parseInt(props.getProperty(prefix + "min", "1"))));
+			group.perStatement = Boolean.parseBoolean(props.getProperty(prefix + "perStatement", "false"));
+			group.queueSize = Integer.parseInt(props.getProperty(prefix + "queueSize", "0"));
+			group.queueTimeout = Long.parseLong(props.getProperty(prefix + "queueTimeout", "1000"));
+			group.adaptive = Boolean.parseBoolean(props.getProperty(prefix + "adaptive", "false"));
+			group.latencyTolerance = Double.parseDouble(props.getProperty(prefix + "latencyTolerance", "2"));
+			if (!group.perStatement) {
+				group.shared = group.newLimit(name);
+			}
+			this.groups.add(group);
+		}
+	}
+
+	public static boolean isEnabled(Properties props) {
+		return !groupNames(props).isEmpty();
+	}
+
+	private static TreeSet<String> groupNames(Properties props) {
+		TreeSet<String> names = new TreeSet<String>();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(PREFIX) && key.endsWith(REGEX) && key.length() > PREFIX.length() + REGEX.length()
+					&& props.getProperty(key).trim().length() > 0) {
+				names.add(key.substring(PREFIX.length(), key.length() - REGEX.length()));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * statementId使用的限制
+	 * @return 不限制的语句返回null
+	 */
+	public Limit getLimit(String statementId) {
+		Limit limit = this.statements.get(statementId);
+		if (limit == null) {
+			limit = NONE;
+			for (Group group : this.groups) {
+				if (group.regEx.matcher(statementId).matches()) {
+					limit = group.perStatement ? group.newLimit(statementId) : group.shared;
+					break;
+				}
+			}
+			Limit existing = this.statements.putIfAbsent(statementId, limit);
+			if (existing != null) {
+				limit = existing;
+			}
+		}
+		return limit == NONE ? null : limit;
+	}
+
+	/**
+	 * 分组的配置
+	 */
+	private static class Group {
+		String name;
+		Pattern regEx;
+		int max;
+		int min;
+		boolean perStatement;
+		int queueSize;
+		long queueTimeout;
+		boolean adaptive;
+		double latencyTolerance;
+		//分组内共同计数时的限制
+		Limit shared;
+
+		Limit newLimit(String name) {
+			return new Limit(name, this.min, this.max, this.queueSize, this.queueTimeout, this.adaptive, this.latencyTolerance);
+		}
+	}
+
+	/**
+	 * 一个分组或statement的并发数限制
+	 */
+	public static class Limit {
+		private final String name;
+		private final int min;
+		private final int max;
+		private final int queueSize;
+		private final long queueTimeout;
+		private final boolean adaptive;
+		private final double latencyTolerance;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition available = this.lock.newCondition();
+		private volatile int limit;
+		private int inFlight;
+		private int waiting;
+		//当前线程的嵌套深度和开始执行的时间
+		private final ThreadLocal<long[]> held = new ThreadLocal<long[]>();
+
+		//调整限制的统计窗口
+		private long windowNanos;
+		private int windowSamples;
+		private boolean windowSaturated;
+		private double baselineNanos;
+
+		private final AtomicLong executions = new AtomicLong();
+		private final AtomicLong queued = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+
+		Limit(String name, int min, int max, int queueSize, long queueTimeout, boolean adaptive, double latencyTolerance) {
+			this.name = name;
+			this.min = min;
+			this.max = max;
+			this.queueSize = queueSize;
+			this.queueTimeout = queueTimeout;
+			this.adaptive = adaptive;
+			this.latencyTolerance = latencyTolerance;
+			//自适应时也从上限开始，刚启动时不会因限制过小而拒绝；耗时明显上升时再逐步减小
+			this.limit = max;
+		}
+
+		/**
+		 * 获取执行许可，必须在finally中调用release()
+		 * @throws LimitExceededException 超出限制且队列已满或等待超时
+		 */
+		public void acquire(String statementId) throws SQLException {
+			long[] held = this.held.get();
+			if (held != null && held[0] > 0) {
+				held[0]++;
+				return;
+			}
+			this.lock.lock();
+			try {
+				if (this.inFlight >= this.limit) {
+					this.windowSaturated = true;
+					if (this.waiting >= this.queueSize) {
+						this.rejected.incrementAndGet();
+						throw new LimitExceededException("语句[" + statementId + "]超出了并发数限制" + this.name + "=" + this.limit);
+					}
+					this.queued.incrementAndGet();
+					this.waiting++;
+					try {
+						long nanos = TimeUnit.MILLISECONDS.toNanos(this.queueTimeout);
+						while (this.inFlight >= this.limit) {
+							if (nanos <= 0) {
+								this.rejected.incrementAndGet();
+								throw new LimitExceededException("语句[" + statementId + "]等待" + this.queueTimeout + "ms后仍超出并发数限制" + this.name + "=" + this.limit);
+							}
+							nanos = this.available.awaitNanos(nanos);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("等待执行语句[" + statementId + "]时被中断", e);
+					} finally {
+						this.waiting--;
+					}
+				}
+				this.inFlight++;
+			} finally {
+				this.lock.unlock();
+			}
+			this.executions.incrementAndGet();
+			if (held == null) {
+				held = new long[2];
+				this.held.set(held);
+			}
+			held[0] = 1;
+			held[1] = System.nanoTime();
+		}
+
+		/**
+		 * 释放acquire()获取的许可
+		 */
+		public void release() {
+			long[] held = this.held.get();
+			if (held == null || held[0] <= 0 || --held[0] > 0) {
+				return;
+			}
+			long nanos = System.nanoTime() - held[1];
+			this.lock.lock();
+			try {
+				this.inFlight--;
+				if (this.adaptive) {
+					adapt(nanos);
+				}
+				if (this.inFlight < this.limit) {
+					this.available.signal();
+				}
+			} finally {
+				this.lock.unlock();
+			}
+		}
+
+		/**
+		 * 每个窗口(至少limit个样本)结束时按平均耗时调整限制
+		 */
+		private void adapt(long nanos) {
+			this.windowNanos += nanos;
+			this.windowSamples++;
+			if (this.windowSamples < Math.max(this.limit, MIN_SAMPLES)) {
+				return;
+			}
+			double average = (double) this.windowNanos / this.windowSamples;
+			int limit = this.limit;
+			if (this.baselineNanos == 0 || average < this.baselineNanos) {
+				this.baselineNanos = average;
+			} else {
+				//数据量增长时最低耗时也会缓慢上升
+				this.baselineNanos += (average - this.baselineNanos) * 0.01;
+			}
+			if (average > this.baselineNanos * this.latencyTolerance) {
+				limit = Math.max(this.min, limit * 3 / 4);
+			} else if (this.windowSaturated) {
+				limit = Math.min(this.max, limit + 1);
+			}
+			if (limit != this.limit) {
+				if (log.isDebugEnabled()) {
+					log.debug("并发数限制" + this.name + "调整为" + limit + "，平均耗时" + (long) (average / 1000) + "us");
+				}
+				if (limit > this.limit) {
+					this.available.signalAll();
+				}
+				this.limit = limit;
+			}
+			this.windowNanos = 0;
+			this.windowSamples = 0;
+			this.windowSaturated = false;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** 当前的并发数限制 */
+		public int getLimit() {
+			return limit;
+		}
+
+		/** 正在执行的语句数 */
+		public int getInFlight() {
+			this.lock.lock();
+			try {
+				return this.inFlight;
+			} finally {
+				this.lock.unlock();
+			}
+		}
+
+		/** 正在等待的语句数 */
+		public int getWaiting() {
+			this.lock.lock();
+			try {
+				return this.waiting;
+			} finally {
+				this.lock.unlock();
+			}
+		}
+
+		/** 获取到许可的次数 */
+		public long getExecutions() {
+			return executions.get();
+		}
+
+		/** 进入等待的次数 */
+		public long getQueued() {
+			return queued.get();
+		}
+
+		/** 因超出限制而失败的次数 */
+		public long getRejected() {
+			return rejected.get();
+		}
+	}
+
+	/**
+	 * 超出并发数限制时抛出，调用方可以据此降级
+	 */
+	public static class LimitExceededException extends SQLException {
+
+		private static final long serialVersionUID = 1L;
+
+		public LimitExceededException(String reason) {
+			super(reason);
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.ibatis.ext;
+
+import com.ibatis.sqlmap.engine.scope.SessionScope;
+import com.ibatis.sqlmap.engine.scope.StatementScope;
+
+/**
+ * 需要读取自动生成主键的insert的StatementScope，SqlExecutorExt以RETURN_GENERATED_KEYS方式执行，
+ * 并把getGeneratedKeys()的结果写回到这里，批处理时每行一个StatementScope
+ * @author fanwt7236@163.com
+ */
+class GeneratedKeyStatementScope extends StatementScope {
+
+	private Object generatedKey;
+
+	GeneratedKeyStatementScope(SessionScope sessionScope) {
+		super(sessionScope);
+	}
+
+	Object getGeneratedKey() {
+		return generatedKey;
+	}
+
+	void setGeneratedKey(Object generatedKey) {
+		this.generatedKey = generatedKey;
+	}
+
+}
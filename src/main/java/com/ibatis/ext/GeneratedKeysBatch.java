@@ -0,0 +1,116 @@
+package com.ibatis.ext;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibatis.sqlmap.engine.execution.BatchException;
+import com.ibatis.sqlmap.engine.execution.BatchResult;
+
+/**
+ * 读取自动生成主键的批处理，与ibatis的批处理相同，sql相同的连续多行共用一个PreparedStatement，
+ * 区别是PreparedStatement以RETURN_GENERATED_KEYS方式创建，不放入session的缓存，
+ * executeBatch之后按顺序把getGeneratedKeys()的每一行写回到对应行的GeneratedKeyStatementScope
+ * @author fanwt7236@163.com
+ */
+class GeneratedKeysBatch {
+
+	private String currentSql;
+	private List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+	private List<BatchResult> results = new ArrayList<BatchResult>();
+	//每个PreparedStatement中各行的StatementScope
+	private List<List<GeneratedKeyStatementScope>> scopes = new ArrayList<List<GeneratedKeyStatementScope>>();
+
+	void addBatch(GeneratedKeyStatementScope statementScope, Connection conn, String sql, Object[] parameters) throws SQLException {
+		PreparedStatement ps;
+		if (this.currentSql != null && this.currentSql.equals(sql)) {
+			ps = this.statements.get(this.statements.size() - 1);
+		} else {
+			ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			if (statementScope.getStatement().getTimeout() != null) {
+				ps.setQueryTimeout(statementScope.getStatement().getTimeout().intValue());
+			}
+			this.currentSql = sql;
+			this.statements.add(ps);
+			this.results.add(new BatchResult(statementScope.getStatement().getId(), sql));
+			this.scopes.add(new ArrayList<GeneratedKeyStatementScope>());
+		}
+		statementScope.getParameterMap().setParameters(statementScope, ps, parameters);
+		ps.addBatch();
+		this.scopes.get(this.scopes.size() - 1).add(statementScope);
+	}
+
+	int executeBatch() throws SQLException {
+		int totalRowCount = 0;
+		List<BatchResult> results;
+		try {
+			results = executeBatchDetailed();
+		} catch (BatchException e) {
+			throw e.getBatchUpdateException();
+		}
+		for (BatchResult result : results) {
+			for (int rowCount : result.getUpdateCounts()) {
+				if (rowCount == Statement.EXECUTE_FAILED) {
+					throw new SQLException("The batched statement failed to execute.");
+				}
+				if (rowCount != Statement.SUCCESS_NO_INFO) {
+					totalRowCount += rowCount;
+				}
+			}
+		}
+		return totalRowCount;
+	}
+
+	List<BatchResult> executeBatchDetailed() throws SQLException, BatchException {
+		List<BatchResult> answer = new ArrayList<BatchResult>();
+		for (int i = 0; i < this.statements.size(); i++) {
+			BatchResult result = this.results.get(i);
+			PreparedStatement ps = this.statements.get(i);
+			try {
+				result.setUpdateCounts(ps.executeBatch());
+			} catch (BatchUpdateException e) {
+				throw new BatchException("Sub batch number " + (i + 1) + " failed.", e, answer, result.getStatementId(), result.getSql());
+			}
+			readGeneratedKeys(ps, this.scopes.get(i));
+			answer.add(result);
+		}
+		return answer;
+	}
+
+	/**
+	 * 驱动返回的主键少于行数(如部分行没有生成主键)时，剩余行的主键为null
+	 */
+	private static void readGeneratedKeys(PreparedStatement ps, List<GeneratedKeyStatementScope> scopes) throws SQLException {
+		ResultSet rs = ps.getGeneratedKeys();
+		try {
+			for (GeneratedKeyStatementScope scope : scopes) {
+				if (!rs.next()) {
+					break;
+				}
+				scope.setGeneratedKey(rs.getObject(1));
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
+	void cleanup() {
+		for (PreparedStatement ps : this.statements) {
+			try {
+				ps.close();
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+		this.currentSql = null;
+		this.statements.clear();
+		this.results.clear();
+		this.scopes.clear();
+	}
+
+}
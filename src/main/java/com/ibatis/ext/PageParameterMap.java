@@ -0,0 +1,105 @@
+package com.ibatis.ext;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import com.ibatis.sqlmap.engine.cache.CacheKey;
+import com.ibatis.sqlmap.engine.exchange.DataExchange;
+import com.ibatis.sqlmap.engine.mapping.parameter.ParameterMap;
+import com.ibatis.sqlmap.engine.mapping.parameter.ParameterMapping;
+import com.ibatis.sqlmap.engine.scope.StatementScope;
+
+/**
+ * 对原有ParameterMap的包装，在原有参数绑定完成后，将追加在parameters末尾的分页参数依次绑定到后续的占位符上
+ * @author fanwt7236@163.com
+ */
+class PageParameterMap extends ParameterMap {
+
+	private ParameterMap target;
+
+	PageParameterMap(ParameterMap target) {
+		super(target.getDelegate());
+		this.target = target;
+	}
+
+	@Override
+	public void setParameters(StatementScope statementScope, PreparedStatement ps, Object[] parameters) throws SQLException {
+		this.target.setParameters(statementScope, ps, parameters);
+		ParameterMapping[] mappings = this.target.getParameterMappings();
+		for (int i = mappings == null ? 0 : mappings.length; i < parameters.length; i++) {
+			ps.setObject(i + 1, parameters[i]);
+		}
+	}
+
+	@Override
+	public String getId() {
+		return this.target.getId();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getParameterClass() {
+		return this.target.getParameterClass();
+	}
+
+	@Override
+	public DataExchange getDataExchange() {
+		return this.target.getDataExchange();
+	}
+
+	@Override
+	public ParameterMapping[] getParameterMappings() {
+		return this.target.getParameterMappings();
+	}
+
+	@Override
+	public int getParameterIndex(String propertyName) {
+		return this.target.getParameterIndex(propertyName);
+	}
+
+	@Override
+	public int getParameterCount() {
+		return this.target.getParameterCount();
+	}
+
+	@Override
+	public Object[] getParameterObjectValues(StatementScope statementScope, Object parameterObject) {
+		return this.target.getParameterObjectValues(statementScope, parameterObject);
+	}
+
+	@Override
+	public CacheKey getCacheKey(StatementScope statementScope, Object parameterObject) {
+		return this.target.getCacheKey(statementScope, parameterObject);
+	}
+
+	@Override
+	public void refreshParameterObjectValues(StatementScope statementScope, Object parameterObject, Object[] values) {
+		this.target.refreshParameterObjectValues(statementScope, parameterObject, values);
+	}
+
+	@Override
+	public String getResource() {
+		return this.target.getResource();
+	}
+
+	/**
+	 * 将分页参数追加到原有参数之后。
+	 * 没有参数映射的statement，ibatis传入的parameters可能是[null]，只保留与参数映射对应的部分，
+	 * 否则分页参数会绑定到不存在的占位符上
+	 * @param parameterMap
+	 * @param parameters
+	 * @param pageParameters
+	 * @return
+	 */
+	static Object[] append(ParameterMap parameterMap, Object[] parameters, Object[] pageParameters) {
+		ParameterMapping[] mappings = parameterMap == null ? null : parameterMap.getParameterMappings();
+		int length = parameters == null ? 0 : Math.min(parameters.length, mappings == null ? 0 : mappings.length);
+		Object[] all = new Object[length + pageParameters.length];
+		if (length > 0) {
+			System.arraycopy(parameters, 0, all, 0, length);
+		}
+		System.arraycopy(pageParameters, 0, all, length, pageParameters.length);
+		return all;
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.ibatis.ext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.PageSqlTemplate;
+import com.ibatis.ext.paging.dialect.AbstractPageSqlBuilder;
+
+/**
+ * 每个MappedStatement的分页计划：statementId是否匹配分页/延迟关联的正则表达式只在第一次查询时判断，
+ * 动态sql每种sql文本对应的count语句及绑定参数的分页sql模板也只生成一次，之后的分页查询不再进行正则匹配和sql分析，
+ * 翻页时只重新计算偏移量的参数。
+ * 缓存使用ConcurrentHashMap，读取不加锁，超过上限时整体清空
+ * @author fanwt7236@163.com
+ */
+class PagePlan {
+
+	//一个动态sql的statement最多缓存的sql文本个数
+	private static final int MAX_SQLS = 64;
+	//sql文本随偏移量变化、无法使用模板的分页方式
+	private static final PageSqlTemplate UNSUPPORTED = new PageSqlTemplate(null, null, null, null);
+
+	private final boolean pageable;
+	private final boolean deferredJoin;
+	private final Map<String, String> countSqls = new ConcurrentHashMap<String, String>();
+	private final Map<TemplateKey, PageSqlTemplate> templates = new ConcurrentHashMap<TemplateKey, PageSqlTemplate>();
+
+	PagePlan(boolean pageable, boolean deferredJoin) {
+		this.pageable = pageable;
+		this.deferredJoin = deferredJoin;
+	}
+
+	/** statementId是否匹配pagingRegEx */
+	boolean isPageable() {
+		return pageable;
+	}
+
+	/** statementId是否匹配pagingDeferredJoinRegEx */
+	boolean isDeferredJoin() {
+		return deferredJoin;
+	}
+
+	String getCountSql(String sql) {
+		return this.countSqls.get(sql);
+	}
+
+	void putCountSql(String sql, String countSql) {
+		if (this.countSqls.size() >= MAX_SQLS) {
+			this.countSqls.clear();
+		}
+		this.countSqls.put(sql, countSql);
+	}
+
+	/**
+	 * 与builder.buildPreparedSql(sql, page)相同，sql文本从缓存的模板中获取
+	 */
+	PageSql buildPreparedSql(AbstractPageSqlBuilder builder, String sql, Page page) {
+		long offset = AbstractPageSqlBuilder.offset(page);
+		TemplateKey key = new TemplateKey(builder, sql, page, offset == 0);
+		PageSqlTemplate template = this.templates.get(key);
+		if (template == null) {
+			template = builder.buildPreparedTemplate(sql, page);
+			if (template == null) {
+				template = UNSUPPORTED;
+			}
+			if (this.templates.size() >= MAX_SQLS) {
+				this.templates.clear();
+			}
+			this.templates.put(key, template);
+		}
+		return template == UNSUPPORTED ? builder.buildPreparedSql(sql, page) : template.bind(offset);
+	}
+
+	/**
+	 * 决定分页sql文本的因素：构造器、原sql、排序、windowCount、行数、延迟关联的主键及是否第一页
+	 */
+	private static class TemplateKey {
+		private final AbstractPageSqlBuilder builder;
+		private final String sql;
+		private final String sortField;
+		private final String sortType;
+		private final String deferredJoinKey;
+		private final boolean windowCount;
+		private final int limit;
+		private final boolean first;
+		private final int hashCode;
+
+		TemplateKey(AbstractPageSqlBuilder builder, String sql, Page page, boolean first) {
+			this.builder = builder;
+			this.sql = sql;
+			this.sortField = page.getSortField();
+			this.sortType = page.getSortType();
+			this.deferredJoinKey = page.getDeferredJoinKey();
+			this.windowCount = page.isWindowCount() && !page.isSkipCount();
+			this.limit = AbstractPageSqlBuilder.limit(page);
+			this.first = first;
+			int hash = builder.hashCode() * 31 + sql.hashCode();
+			hash = hash * 31 + (this.sortField == null ? 0 : this.sortField.hashCode());
+			hash = hash * 31 + (this.sortType == null ? 0 : this.sortType.hashCode());
+			hash = hash * 31 + (this.deferredJoinKey == null ? 0 : this.deferredJoinKey.hashCode());
+			this.hashCode = ((hash * 31 + this.limit) * 31 + (this.windowCount ? 1 : 0)) * 31 + (first ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TemplateKey)) {
+				return false;
+			}
+			TemplateKey other = (TemplateKey) obj;
+			return this.hashCode == other.hashCode && this.limit == other.limit && this.windowCount == other.windowCount && this.first == other.first
+					&& this.builder.equals(other.builder) && this.sql.equals(other.sql) && equal(this.sortField, other.sortField)
+					&& equal(this.sortType, other.sortType) && equal(this.deferredJoinKey, other.deferredJoinKey);
+		}
+
+		private static boolean equal(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+}
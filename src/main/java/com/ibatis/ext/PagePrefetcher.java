@@ -0,0 +1,314 @@
+package com.ibatis.ext;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.cache.CacheKey;
+
+/**
+ * 分页查询的下一页预取：page.prefetch为true时，返回第N页后在有界的线程池中异步查询第N+1页，
+ * 结果在有存活时间的LRU缓存中保存，随后对第N+1页的请求直接从内存返回。
+ * 线程数和队列长度都有上限，队列满时放弃预取，最多占用pagingPrefetchThreads个数据库连接。
+ * 预取使用参数对象的副本，只支持不可变的参数(数字、字符串等)以及值都不可变的Map，其他参数对象不预取。
+ * 配置项:
+ * pagingPrefetchThreads 预取的线程数，默认2
+ * pagingPrefetchQueueSize 等待预取的任务数上限，默认16
+ * pagingPrefetchCacheSize 缓存的最大页数，默认100
+ * pagingPrefetchTtl 预取结果的存活时间(秒)，默认10
+ * @author fanwt7236@163.com
+ */
+public class PagePrefetcher {
+
+	private static final Log log = LogFactory.getLog(PagePrefetcher.class);
+
+	//snapshot()无法复制参数对象时的返回值
+	static final Object UNSUPPORTED = new Object();
+
+	private final ThreadPoolExecutor executor;
+	private final int cacheSize;
+	private final long ttl;
+	private final Map<Object, Entry> cache;
+	//正在预取的页，避免同一页被重复提交
+	private final Set<Object> inFlight = Collections.synchronizedSet(new HashSet<Object>());
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public PagePrefetcher(Properties props) {
+		int threads = Integer.parseInt(props.getProperty("pagingPrefetchThreads", "2"));
+		int queueSize = Integer.parseInt(props.getProperty("pagingPrefetchQueueSize", "16"));
+		this.cacheSize = Integer.parseInt(props.getProperty("pagingPrefetchCacheSize", "100"));
+		this.ttl = Long.parseLong(props.getProperty("pagingPrefetchTtl", "10")) * 1000L;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ibatis-ext-prefetch-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+		this.cache = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+				return size() > PagePrefetcher.this.cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * 读取预取的结果，命中时将总记录数等分页信息回填到page中
+	 * @param statementKey statementId、sql及参数值组成的key
+	 * @param page
+	 * @return 未命中或已过期时返回null
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public List get(Object statementKey, Page page) {
+		Object key = pageKey(statementKey, page, pageNum(page));
+		Entry entry;
+		synchronized (this.cache) {
+			entry = this.cache.get(key);
+			if (entry != null && entry.expireTime < System.currentTimeMillis()) {
+				this.cache.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		copyResult(entry.page, page);
+		//调用方可能修改返回的list
+		return new ArrayList(entry.list);
+	}
+
+	/**
+	 * 存在下一页时提交下一页的预取任务，队列已满或参数对象不能安全复制时放弃
+	 * @param client
+	 * @param statementId
+	 * @param parameterObject
+	 * @param statementKey 由参数对象当前的值计算的key
+	 * @param page 本页查询完成后的page
+	 */
+	public void prefetch(final SqlMapClient client, final String statementId, Object parameterObject, Object statementKey, Page page) {
+		int pageNum = pageNum(page);
+		boolean hasNext = page.getHasNext() != null ? page.getHasNext() : page.getTotalPage() != null && pageNum < page.getTotalPage();
+		if (!hasNext) {
+			return;
+		}
+		final Object parameter = snapshot(parameterObject);
+		if (parameter == UNSUPPORTED) {
+			this.skipped.incrementAndGet();
+			return;
+		}
+		final Page next = new Page();
+		next.setPageNum(pageNum + 1);
+		next.setPageSize(page.getPageSize());
+		next.setSortField(page.getSortField());
+		next.setSortType(page.getSortType());
+		next.setSkipCount(page.isSkipCount());
+		next.setWindowCount(page.isWindowCount());
+		next.setEstimateTotalRows(page.isEstimateTotalRows());
+		next.setDeferredJoin(page.isDeferredJoin());
+		next.setDeferredJoinKey(page.getDeferredJoinKey());
+		final Object key = pageKey(statementKey, next, next.getPageNum());
+		synchronized (this.cache) {
+			if (this.cache.containsKey(key)) {
+				return;
+			}
+		}
+		if (!this.inFlight.add(key)) {
+			return;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				@SuppressWarnings("rawtypes")
+				public void run() {
+					try {
+						PageSection.put(next);
+						List list = client.queryForList(statementId, parameter);
+						synchronized (cache) {
+							cache.put(key, new Entry(list, next, System.currentTimeMillis() + ttl));
+						}
+						completed.incrementAndGet();
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						log.warn("预取" + statementId + "第" + next.getPageNum() + "页失败: " + e.getMessage());
+					} finally {
+						PageSection.clear();
+						inFlight.remove(key);
+					}
+				}
+			});
+			this.submitted.incrementAndGet();
+		} catch (RejectedExecutionException e) {
+			this.inFlight.remove(key);
+			this.rejected.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 预取在其他线程中稍后执行，调用方可能在返回后修改参数对象(如复用同一个map查询其他条件)，
+	 * 此时查到的行会被缓存到按原来的值计算的key下。不可变的参数直接使用，值都不可变的Map复制一份，
+	 * 其他参数对象(javabean、含有集合的Map等)无法安全复制，返回UNSUPPORTED
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static Object snapshot(Object parameter) {
+		if (isImmutable(parameter)) {
+			return parameter;
+		}
+		if (!(parameter instanceof Map)) {
+			return UNSUPPORTED;
+		}
+		Map map = (Map) parameter;
+		for (Object value : map.values()) {
+			if (!isImmutable(value)) {
+				return UNSUPPORTED;
+			}
+		}
+		return new HashMap(map);
+	}
+
+	private static boolean isImmutable(Object value) {
+		return value == null || value instanceof String || value instanceof Boolean || value instanceof Character || value instanceof Enum
+				|| value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof Double
+				|| value instanceof Float || value instanceof BigDecimal || value instanceof BigInteger;
+	}
+
+	private static int pageNum(Page page) {
+		return page.getPageNum() != null ? page.getPageNum() : page.getOffset() == null ? 1 : (int) (page.getOffset() / page.getPageSize()) + 1;
+	}
+
+	/**
+	 * 同一查询的同一页：statementKey + 页码 + 影响分页结果的page参数
+	 */
+	private static Object pageKey(Object statementKey, Page page, int pageNum) {
+		CacheKey key = new CacheKey();
+		key.update(statementKey);
+		key.update(pageNum);
+		key.update(page.getPageSize());
+		key.update(String.valueOf(page.getSortField()));
+		key.update(String.valueOf(page.getSortType()));
+		key.update(String.valueOf(page.isSkipCount()));
+		key.update(String.valueOf(page.isWindowCount()));
+		key.update(String.valueOf(page.isEstimateTotalRows()));
+		key.update(String.valueOf(page.isDeferredJoin()));
+		return key;
+	}
+
+	private static void copyResult(Page from, Page to) {
+		to.setPageNum(from.getPageNum());
+		to.setOffset(from.getOffset());
+		to.setTotalRows(from.getTotalRows());
+		to.setTotalRowsExact(from.getTotalRowsExact());
+		to.setTotalPage(from.getTotalPage());
+		to.setStartRow(from.getStartRow());
+		to.setEndRow(from.getEndRow());
+		to.setLastPage(from.getLastPage());
+		to.setNextPage(from.getNextPage());
+		to.setHasNext(from.getHasNext());
+	}
+
+	public void flush() {
+		synchronized (this.cache) {
+			this.cache.clear();
+		}
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/** 命中预取结果的次数 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** 开启了预取但未命中的次数 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** 提交的预取任务数 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/** 队列已满而放弃的预取任务数 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/** 参数对象无法安全复制而放弃的预取数 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/** 正在执行的预取任务数 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/** 等待执行的预取任务数 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	public int getCachedPages() {
+		synchronized (this.cache) {
+			return this.cache.size();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class Entry {
+		List list;
+		Page page;
+		long expireTime;
+
+		Entry(List list, Page page, long expireTime) {
+			this.list = list;
+			this.page = page;
+			this.expireTime = expireTime;
+		}
+	}
+
+}
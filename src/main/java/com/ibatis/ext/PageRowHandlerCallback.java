@@ -0,0 +1,84 @@
+package com.ibatis.ext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.ibatis.sqlmap.engine.mapping.statement.RowHandlerCallback;
+import com.ibatis.sqlmap.engine.scope.StatementScope;
+
+/**
+ * 对原有RowHandlerCallback的包装，结果仍交给原callback处理，同时记录分页需要的信息:
+ * 键集分页时读取本页最后一行的排序字段值作为下一页的游标；
+ * 跳过count查询时sql会多查一行，这一行不交给原callback，只用来判断是否存在下一页；
+ * sql中带有count(*) over()时，从第一行读取总记录数
+ * @author fanwt7236@163.com
+ */
+class PageRowHandlerCallback extends RowHandlerCallback {
+
+	private RowHandlerCallback target;
+	private int pageSize;
+	private String[] cursorColumns;
+	private boolean trimExtraRow;
+	private String totalColumn;
+	private int rows;
+	private boolean hasNext;
+	private Object[] cursor;
+	private Long totalRows;
+
+	PageRowHandlerCallback(StatementScope statementScope, RowHandlerCallback target, int pageSize, String[] cursorColumns, boolean trimExtraRow, String totalColumn) {
+		super(statementScope.getResultMap(), null, target.getRowHandler());
+		this.target = target;
+		this.pageSize = pageSize;
+		this.cursorColumns = cursorColumns;
+		this.trimExtraRow = trimExtraRow;
+		this.totalColumn = totalColumn;
+	}
+
+	@Override
+	public void handleResultObject(StatementScope statementScope, Object[] results, ResultSet rs) throws SQLException {
+		if (this.trimExtraRow && this.rows >= this.pageSize) {
+			this.hasNext = true;
+			return;
+		}
+		if (this.totalColumn != null && this.rows == 0) {
+			this.totalRows = readTotalRows(rs);
+		}
+		this.target.handleResultObject(statementScope, results, rs);
+		this.rows++;
+		//只有满页时才存在下一页，此时最后一行就是第pageSize行
+		if (this.cursorColumns != null && this.rows == this.pageSize) {
+			this.cursor = new Object[this.cursorColumns.length];
+			for (int i = 0; i < this.cursorColumns.length; i++) {
+				this.cursor[i] = rs.getObject(this.cursorColumns[i]);
+			}
+		}
+	}
+
+	/**
+	 * 自定义的分页sql构造器可能没有生成总记录数列，此时返回null，由调用方执行count查询
+	 */
+	private Long readTotalRows(ResultSet rs) {
+		try {
+			return rs.getLong(this.totalColumn);
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	public Object[] getCursor() {
+		return cursor;
+	}
+
+	public Long getTotalRows() {
+		return totalRows;
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.ibatis.ext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
+
+/**
+ * 相同查询的合并(single-flight)：statementId匹配coalesceRegEx的查询，同一时刻sql和参数值都相同的多个请求只有第一个访问数据库，
+ * 其余的请求等待并共享它的结果(或异常)，避免缓存失效时大量相同的查询同时打到数据库。
+ * 只合并正在执行的查询，不缓存结果。与ibatis的readOnly=false的cacheModel相同，等待的请求得到的是结果序列化后再反序列化的副本，
+ * 调用方修改结果不会影响其他请求；结果无法序列化时等待的请求自己执行查询。
+ * 确认结果只读时可以开启coalesceReadOnly，等待的请求只复制list，list中的对象是共享的，省去序列化的开销
+ * 配置项:
+ * coalesceRegEx 需要合并的statementId的正则表达式，不配置时不开启
+ * coalesceReadOnly 是否共享结果中的对象，默认false
+ * @author fanwt7236@163.com
+ */
+public class QueryCoalescer {
+
+	//Call.await()在结果无法序列化时的返回值
+	private static final Object NOT_SERIALIZABLE = new Object();
+
+	private final Pattern statementRegEx;
+	private final boolean readOnly;
+	//每个MappedStatement是否匹配coalesceRegEx
+	private final Map<MappedStatement, Boolean> statements = new ConcurrentHashMap<MappedStatement, Boolean>();
+	private final ConcurrentHashMap<Object, Call> inFlight = new ConcurrentHashMap<Object, Call>();
+	private final AtomicLong executions = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	public QueryCoalescer(String statementRegEx) {
+		this(statementRegEx, false);
+	}
+
+	/**
+	 * @param readOnly 为true时等待的请求共享结果中的对象，调用方不能修改
+	 */
+	public QueryCoalescer(String statementRegEx, boolean readOnly) {
+		this.statementRegEx = Pattern.compile(statementRegEx);
+		this.readOnly = readOnly;
+	}
+
+	public boolean isCoalesced(MappedStatement statement) {
+		Boolean matched = this.statements.get(statement);
+		if (matched == null) {
+			matched = this.statementRegEx.matcher(statement.getId()).matches();
+			this.statements.put(statement, matched);
+		}
+		return matched;
+	}
+
+	/**
+	 * 执行查询，已有相同key的查询正在执行时等待其结果
+	 * @param key statementId、sql及参数值组成的key
+	 * @param query 实际的查询
+	 * @return 查询结果，等待其他线程的查询时返回结果的副本
+	 */
+	public Object execute(Object key, Query query) throws SQLException {
+		Call call = new Call();
+		Call running = this.inFlight.putIfAbsent(key, call);
+		if (running != null) {
+			Object result = running.await(this.readOnly);
+			if (result != NOT_SERIALIZABLE) {
+				this.coalesced.incrementAndGet();
+				return result;
+			}
+			this.executions.incrementAndGet();
+			return query.execute();
+		}
+		this.executions.incrementAndGet();
+		try {
+			Object result = query.execute();
+			call.result = result;
+			return result;
+		} catch (SQLException e) {
+			call.error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			call.error = e;
+			throw e;
+		} catch (Error e) {
+			call.error = e;
+			throw e;
+		} finally {
+			this.inFlight.remove(key, call);
+			call.done.countDown();
+		}
+	}
+
+	/** 实际访问数据库的查询次数 */
+	public long getExecutions() {
+		return executions.get();
+	}
+
+	/** 合并到其他查询、没有访问数据库的请求数 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/** 正在执行的查询数 */
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	public interface Query {
+
+		Object execute() throws SQLException;
+
+	}
+
+	private static class Call {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Object result;
+		volatile Throwable error;
+		//结果序列化后的字节，第一个等待的请求序列化后其余请求直接反序列化
+		private byte[] serialized;
+		private boolean notSerializable;
+
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		Object await(boolean readOnly) throws SQLException {
+			try {
+				this.done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("等待合并的查询时被中断", e);
+			}
+			if (this.error == null) {
+				if (readOnly || this.result == null) {
+					return this.result instanceof List ? new ArrayList((List) this.result) : this.result;
+				}
+				return copy();
+			}
+			//异常在执行查询的线程中产生，这里包装一层保留当前线程的调用栈
+			if (this.error instanceof SQLException) {
+				SQLException e = (SQLException) this.error;
+				throw new SQLException(e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+			}
+			throw new SQLException("合并的查询执行失败: " + this.error, this.error);
+		}
+
+		private Object copy() throws SQLException {
+			byte[] bytes;
+			synchronized (this) {
+				if (this.serialized == null && !this.notSerializable) {
+					try {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						ObjectOutputStream oos = new ObjectOutputStream(out);
+						oos.writeObject(this.result);
+						oos.close();
+						this.serialized = out.toByteArray();
+					} catch (NotSerializableException e) {
+						this.notSerializable = true;
+					} catch (IOException e) {
+						throw new SQLException("复制合并的查询结果失败: " + e, e);
+					}
+				}
+				if (this.notSerializable) {
+					return NOT_SERIALIZABLE;
+				}
+				bytes = this.serialized;
+			}
+			try {
+				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+				try {
+					return ois.readObject();
+				} finally {
+					ois.close();
+				}
+			} catch (Exception e) {
+				throw new SQLException("复制合并的查询结果失败: " + e, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.ibatis.ext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.ibatis.sqlmap.engine.mapping.statement.RowHandlerCallback;
+import com.ibatis.sqlmap.engine.scope.StatementScope;
+
+/**
+ * 记录查询返回的行数，结果仍交给原callback处理
+ * @author fanwt7236@163.com
+ */
+class RowCountingCallback extends RowHandlerCallback {
+
+	private RowHandlerCallback target;
+	private int rows;
+
+	RowCountingCallback(StatementScope statementScope, RowHandlerCallback target) {
+		super(statementScope.getResultMap(), null, target.getRowHandler());
+		this.target = target;
+	}
+
+	@Override
+	public void handleResultObject(StatementScope statementScope, Object[] results, ResultSet rs) throws SQLException {
+		this.target.handleResultObject(statementScope, results, rs);
+		this.rows++;
+	}
+
+	int getRows() {
+		return rows;
+	}
+
+}
@@ -6,22 +6,43 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
 
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.metrics.MetricsRegistry;
+import com.ibatis.ext.metrics.SlowQueryLog;
+import com.ibatis.ext.metrics.StatementMetrics;
+import com.ibatis.ext.paging.CountSqlOptimizer;
+import com.ibatis.ext.paging.ICountCache;
 import com.ibatis.ext.paging.IPageSqlBuilder;
 import com.ibatis.ext.paging.Page;
 import com.ibatis.ext.paging.PageSection;
-import com.ibatis.ext.paging.dialect.MySqlPageSqlBuilder;
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.dialect.AbstractPageSqlBuilder;
+import com.ibatis.ext.paging.dialect.DeferredJoinPageSqlBuilder;
+import com.ibatis.ext.paging.dialect.PageSqlBuilderResolver;
+import com.ibatis.ext.routing.ShardTransaction;
+import com.ibatis.sqlmap.engine.cache.CacheKey;
 import com.ibatis.sqlmap.engine.config.SqlMapConfiguration;
+import com.ibatis.sqlmap.engine.execution.BatchException;
 import com.ibatis.sqlmap.engine.execution.DefaultSqlExecutor;
 import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
 import com.ibatis.sqlmap.engine.impl.SqlMapExecutorDelegate;
+import com.ibatis.sqlmap.engine.mapping.parameter.ParameterMap;
+import com.ibatis.sqlmap.engine.mapping.result.ResultMap;
 import com.ibatis.sqlmap.engine.mapping.result.ResultObjectFactoryUtil;
 import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
 import com.ibatis.sqlmap.engine.mapping.statement.RowHandlerCallback;
 import com.ibatis.sqlmap.engine.scope.ErrorContext;
 import com.ibatis.sqlmap.engine.scope.SessionScope;
 import com.ibatis.sqlmap.engine.scope.StatementScope;
+import com.ibatis.sqlmap.engine.transaction.Transaction;
 
 /**
  * 扩展了基本的SqlExecutor,实现了自动真分页查询的功能
@@ -30,41 +51,523 @@ import com.ibatis.sqlmap.engine.scope.StatementScope;
  */
 public class SqlExecutorExt extends DefaultSqlExecutor {
 	
-	//一个分页sql构造器，默认是mysql的，也可以在sql-map-config文件中去配置
-	private IPageSqlBuilder pageSqlBuilder = new MySqlPageSqlBuilder();
+	private static final Log log = LogFactory.getLog(SqlExecutorExt.class);
+	
+	//分页sql构造器，可以通过pagingBuilderClass指定，未指定时根据连接的数据库类型自动选择
+	private IPageSqlBuilder pageSqlBuilder;
+	private PageSqlBuilderResolver pageSqlBuilderResolver = new PageSqlBuilderResolver();
 	//分页sql，statementId的正则表达式，只有匹配的statementId才可能会分页
-	private String pageSqlRegEx = "selectList(.*)";
+	private Pattern pageSqlRegEx = Pattern.compile("selectList(.*)");
+	//使用延迟关联分页的statementId的正则表达式，也可以通过page.setDeferredJoin(true)对单次查询开启
+	private Pattern deferredJoinRegEx = Pattern.compile("selectList(.*)Deferred");
+	//分页的偏移量和页大小是否以占位符的方式绑定，这样同一条语句的所有页共用一个PreparedStatement
+	private boolean bindPageParameters = true;
+	//分页总记录数缓存，默认不开启，配置了pagingCountCacheClass时才会使用
+	private ICountCache countCache;
+	//count语句优化器，可以通过pagingCountOptimize=false关闭，关闭后使用select count(*) from (sql) temp的方式
+	private CountSqlOptimizer countSqlOptimizer = new CountSqlOptimizer();
+	//page.estimateTotalRows为true时，估算的行数小于该值则仍执行准确的count查询
+	private long estimateThreshold = 100000;
+	//流式查询时mysql以外的数据库使用的fetchSize
+	private int streamFetchSize = 1000;
+	//StreamIterator执行查询的线程池，以及调用方多少毫秒没有读取时放弃查询
+	private ExecutorService streamExecutor;
+	private long streamIdleTimeout = 60000;
+	//每个statement的执行指标，metricsEnabled=true时开启
+	private MetricsRegistry metricsRegistry;
+	//慢查询日志，配置了slowQueryThreshold时开启
+	private SlowQueryLog slowQueryLog;
+	//下一页预取，pagingPrefetchThreads为0时不开启
+	private PagePrefetcher pagePrefetcher;
+	//跨session的PreparedStatement缓存，为null时不开启
+	private StatementCache statementCache;
+	//每个MappedStatement的分页计划
+	private final Map<MappedStatement, PagePlan> pagePlans = new ConcurrentHashMap<MappedStatement, PagePlan>();
+	//CacheKey不能接受null值，用该对象代替值为null的参数
+	private static final Object NULL_PARAMETER = new Object();
+	private static final String COUNT = "count";
 	
 	@Override
 	public void executeQuery(StatementScope statementScope, Connection conn, String sql, Object[] parameters, int skipResults, int maxResults, RowHandlerCallback callback) throws SQLException {
+		sql = shardSql(statementScope, sql);
+		if (callback.getRowHandler() instanceof StreamingRowHandler) {
+			executeStreamQuery(statementScope, conn, sql, parameters, skipResults, maxResults, callback);
+			return;
+		}
+		Page page = PageSection.get();
+		PagePlan plan = page == null ? null : pagePlan(statementScope.getStatement());
+		if (plan == null || !plan.isPageable()) {
+			query(statementScope, conn, sql, parameters, skipResults, maxResults, callback);
+			return;
+		}
+		IPageSqlBuilder pageSqlBuilder = pageSqlBuilder(conn);
+		//键集分页本身就是按索引定位，不需要延迟关联
+		if ((page.isDeferredJoin() || plan.isDeferredJoin()) && !page.isKeyset() && pageSqlBuilder instanceof AbstractPageSqlBuilder) {
+			pageSqlBuilder = new DeferredJoinPageSqlBuilder((AbstractPageSqlBuilder) pageSqlBuilder);
+		}
+		//多查询的一行由AbstractPageSqlBuilder.limit(page)加上，自定义的构造器只会查询pageSize行，无法判断是否存在下一页
+		if ((page.isSkipCount() || page.isKeyset()) && !(pageSqlBuilder instanceof AbstractPageSqlBuilder)) {
+			throw new IllegalStateException("skipCount及键集分页需要继承AbstractPageSqlBuilder的分页sql构造器");
+		}
+		boolean windowCount = isWindowCount(page);
+		if (!page.isSkipCount() && !windowCount) {
+			setPageParameter(statementScope, conn, sql, parameters, skipResults, maxResults, callback, page);
+		}
+		PageRowHandlerCallback pageCallback;
+		if (page.isKeyset()) {
+			PageSql pageSql = ((AbstractPageSqlBuilder) pageSqlBuilder).buildKeysetSql(sql, page);
+			pageCallback = executePageQuery(statementScope, conn, pageSql, parameters, skipResults, maxResults, callback, page);
+		} else if (this.bindPageParameters && pageSqlBuilder instanceof AbstractPageSqlBuilder) {
+			//自定义的分页sql构造器只实现了buildSql，使用拼接的方式
+			PageSql pageSql = plan.buildPreparedSql((AbstractPageSqlBuilder) pageSqlBuilder, sql, page);
+			pageCallback = executePageQuery(statementScope, conn, pageSql, parameters, skipResults, maxResults, callback, page);
+		} else if (page.isSkipCount() || windowCount) {
+			//多查询的一行需要由PageRowHandlerCallback去掉，总记录数也需要由PageRowHandlerCallback读取
+			PageSql pageSql = new PageSql(pageSqlBuilder.buildSql(sql, page), new Object[0]);
+			pageCallback = executePageQuery(statementScope, conn, pageSql, parameters, skipResults, maxResults, callback, page);
+		} else {
+			query(statementScope, conn, pageSqlBuilder.buildSql(sql, page), parameters, skipResults, maxResults, callback);
+			return;
+		}
+		if (page.isKeyset()) {
+			page.setNextCursor(pageCallback.getCursor());
+		}
+		if (page.isSkipCount()) {
+			setHasNext(page, pageCallback);
+		}
+		if (windowCount) {
+			setWindowTotalRows(statementScope, conn, sql, parameters, skipResults, maxResults, callback, page, pageCallback);
+		}
+	}
+
+	/**
+	 * 在分片上执行时，把逻辑表名改写为分片的物理表名
+	 */
+	private static String shardSql(StatementScope statementScope, String sql) {
+		Transaction trans = statementScope.getSession().getTransaction();
+		return trans instanceof ShardTransaction ? ((ShardTransaction) trans).rewrite(sql) : sql;
+	}
+
+	/**
+	 * 是否由分页sql中的count(*) over()得到总记录数，键集分页时count(*) over()只能统计游标之后的行，仍需要单独的count查询
+	 */
+	private static boolean isWindowCount(Page page) {
+		return page.isWindowCount() && !page.isSkipCount() && !page.isKeyset();
+	}
+
+	/**
+	 * 从count(*) over()的结果中设置总记录数。本页没有数据时无法得到总记录数，
+	 * 偏移量为0说明总记录数就是0，否则(页码超出范围)仍执行count查询
+	 */
+	private void setWindowTotalRows(StatementScope statementScope, Connection conn, String sql, Object[] parameters, int skipResults, int maxResults, RowHandlerCallback callback, Page page, PageRowHandlerCallback pageCallback) throws SQLException {
+		Long totalRows = pageCallback.getTotalRows();
+		if (totalRows == null && pageCallback.getRows() == 0 && (page.getOffset() == null || page.getOffset() == 0)) {
+			totalRows = 0L;
+		}
+		if (totalRows == null) {
+			setPageParameter(statementScope, conn, sql, parameters, skipResults, maxResults, callback, page);
+			return;
+		}
+		if (this.countCache != null) {
+			this.countCache.putTotalRows(countCacheKey(statementScope, sql, parameters), totalRows);
+		}
+		setTotalRows(page, totalRows, true);
+	}
+
+	/**
+	 * 流式查询：只读、只能向前的结果集，statement不放入session的缓存，读取完毕后立即关闭，
+	 * 每读取一行就交给callback处理，不会在内存中积累完整的结果
+	 */
+	private void executeStreamQuery(StatementScope statementScope, Connection conn, String sql, Object[] parameters, int skipResults, int maxResults, RowHandlerCallback callback) throws SQLException {
+		ErrorContext errorContext = statementScope.getErrorContext();
+		errorContext.setActivity("executing stream query");
+		errorContext.setObjectId(sql);
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		int rows = 0;
+		boolean error = true;
+		setupResultObjectFactory(statementScope);
 		try {
-			Page page = PageSection.get();
-			String id = statementScope.getStatement().getId();
-			String methodName = id.substring(id.lastIndexOf('.') + 1);
-			if (methodName.matches(this.pageSqlRegEx) && page != null) {
-				setPageParameter(statementScope, conn, sql, parameters, skipResults, maxResults, callback, page);
-				sql = this.pageSqlBuilder.buildSql(sql, page);
+			errorContext.setMoreInfo("Check the SQL Statement (preparation failed).");
+			ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			setStatementTimeout(statementScope.getStatement(), ps);
+			ps.setFetchSize(streamFetchSize(conn));
+			errorContext.setMoreInfo("Check the parameters (set parameters failed).");
+			statementScope.getParameterMap().setParameters(statementScope, ps, parameters);
+			errorContext.setMoreInfo("Check the statement (query failed).");
+			rs = ps.executeQuery();
+			errorContext.setMoreInfo("Check the results (failed to retrieve results).");
+			statementScope.setResultSet(rs);
+			ResultMap resultMap = statementScope.getResultMap();
+			boolean skipped = true;
+			for (int i = 0; i < skipResults && skipped; i++) {
+				skipped = rs.next();
+			}
+			for (; skipped && (maxResults == NO_MAXIMUM_RESULTS || rows < maxResults) && rs.next(); rows++) {
+				Object[] columnValues = resultMap.resolveSubMap(statementScope, rs).getResults(statementScope, rs);
+				callback.handleResultObject(statementScope, columnValues, rs);
 			}
+			error = false;
 		} finally {
+			if (isMonitored()) {
+				record(statementScope, "stream query", sql, parameters, System.nanoTime() - start, rows, error);
+			}
+			statementScope.setResultSet(null);
+			try {
+				closeResultSet(rs);
+			} finally {
+				if (ps != null) {
+					try {
+						ps.close();
+					} catch (SQLException e) {
+						// ignore
+					}
+				}
+				ResultObjectFactoryUtil.cleanupResultObjectFactory();
+			}
+		}
+	}
+
+	/**
+	 * mysql驱动只有fetchSize为Integer.MIN_VALUE时才会逐行读取，否则会把结果全部读入内存
+	 */
+	private int streamFetchSize(Connection conn) throws SQLException {
+		String productName = conn.getMetaData().getDatabaseProductName();
+		if (productName != null && (productName.toLowerCase().contains("mysql") || productName.toLowerCase().contains("mariadb"))) {
+			return Integer.MIN_VALUE;
+		}
+		return this.streamFetchSize;
+	}
+
+	/**
+	 * GeneratedKeyStatementScope的insert以RETURN_GENERATED_KEYS方式执行，在同一个statement上读取自动生成的主键，
+	 * 省去selectKey的查询。这样的PreparedStatement不放入session的缓存，执行后立即关闭
+	 */
+	@Override
+	public int executeUpdate(StatementScope statementScope, Connection conn, String sql, Object[] parameters) throws SQLException {
+		sql = shardSql(statementScope, sql);
+		if (!isMonitored()) {
+			return doExecuteUpdate(statementScope, conn, sql, parameters);
+		}
+		long start = System.nanoTime();
+		int rows = 0;
+		boolean error = true;
+		try {
+			rows = doExecuteUpdate(statementScope, conn, sql, parameters);
+			error = false;
+			return rows;
+		} finally {
+			record(statementScope, "update", sql, parameters, System.nanoTime() - start, rows, error);
+		}
+	}
+
+	private int doExecuteUpdate(StatementScope statementScope, Connection conn, String sql, Object[] parameters) throws SQLException {
+		if (!(statementScope instanceof GeneratedKeyStatementScope)) {
+			return super.executeUpdate(statementScope, statementConnection(conn), sql, parameters);
+		}
+		ErrorContext errorContext = statementScope.getErrorContext();
+		errorContext.setActivity("executing update");
+		errorContext.setObjectId(sql);
+		PreparedStatement ps = null;
+		setupResultObjectFactory(statementScope);
+		try {
+			errorContext.setMoreInfo("Check the SQL Statement (preparation failed).");
+			ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			setStatementTimeout(statementScope.getStatement(), ps);
+			errorContext.setMoreInfo("Check the parameters (set parameters failed).");
+			statementScope.getParameterMap().setParameters(statementScope, ps, parameters);
+			errorContext.setMoreInfo("Check the statement (update failed).");
+			ps.execute();
+			int rows = ps.getUpdateCount();
+			errorContext.setMoreInfo("Check the generated keys.");
+			ResultSet rs = ps.getGeneratedKeys();
+			try {
+				if (rs.next()) {
+					((GeneratedKeyStatementScope) statementScope).setGeneratedKey(rs.getObject(1));
+				}
+			} finally {
+				closeResultSet(rs);
+			}
+			return rows;
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+			ResultObjectFactoryUtil.cleanupResultObjectFactory();
+		}
+	}
+
+	@Override
+	public void addBatch(StatementScope statementScope, Connection conn, String sql, Object[] parameters) throws SQLException {
+		if (!(statementScope instanceof GeneratedKeyStatementScope)) {
+			super.addBatch(statementScope, conn, sql, parameters);
+			return;
+		}
+		SessionScope sessionScope = statementScope.getSession();
+		if (sessionScope.getBatch() != null && !(sessionScope.getBatch() instanceof GeneratedKeysBatch)) {
+			throw new SQLException("读取自动生成主键的批处理不能与普通的批处理混用");
+		}
+		GeneratedKeysBatch batch = (GeneratedKeysBatch) sessionScope.getBatch();
+		if (batch == null) {
+			batch = new GeneratedKeysBatch();
+			sessionScope.setBatch(batch);
+		}
+		batch.addBatch((GeneratedKeyStatementScope) statementScope, conn, sql, parameters);
+	}
+
+	@Override
+	public int executeBatch(SessionScope sessionScope) throws SQLException {
+		if (!(sessionScope.getBatch() instanceof GeneratedKeysBatch)) {
+			return super.executeBatch(sessionScope);
+		}
+		GeneratedKeysBatch batch = (GeneratedKeysBatch) sessionScope.getBatch();
+		try {
+			return batch.executeBatch();
+		} finally {
+			batch.cleanup();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List executeBatchDetailed(SessionScope sessionScope) throws SQLException, BatchException {
+		if (!(sessionScope.getBatch() instanceof GeneratedKeysBatch)) {
+			return super.executeBatchDetailed(sessionScope);
+		}
+		GeneratedKeysBatch batch = (GeneratedKeysBatch) sessionScope.getBatch();
+		try {
+			return batch.executeBatchDetailed();
+		} finally {
+			batch.cleanup();
+		}
+	}
+
+	@Override
+	public void cleanup(SessionScope sessionScope) {
+		if (!(sessionScope.getBatch() instanceof GeneratedKeysBatch)) {
+			super.cleanup(sessionScope);
+			return;
+		}
+		((GeneratedKeysBatch) sessionScope.getBatch()).cleanup();
+		sessionScope.setBatch(null);
+	}
+
+	/**
+	 * statementId是否匹配pagingRegEx
+	 */
+	boolean isPageable(MappedStatement statement) {
+		return pagePlan(statement).isPageable();
+	}
+
+	private boolean isMonitored() {
+		return this.metricsRegistry != null || this.slowQueryLog != null;
+	}
+
+	/**
+	 * 记录一次执行的指标，超过阈值时写入慢查询日志
+	 * @param type query、count、update等，count记录在count查询的指标中
+	 */
+	private void record(StatementScope statementScope, String type, String sql, Object[] parameters, long nanos, long rows, boolean error) {
+		MappedStatement statement = statementScope.getStatement();
+		if (this.metricsRegistry != null) {
+			StatementMetrics statementMetrics = this.metricsRegistry.get(statement);
+			(COUNT.equals(type) ? statementMetrics.getCount() : statementMetrics.getExecution()).record(nanos, rows, error);
+		}
+		if (this.slowQueryLog != null) {
+			this.slowQueryLog.record(statement, type, sql, parameters, nanos, rows, error, PageSection.get());
+		}
+	}
+
+	private PagePlan pagePlan(MappedStatement statement) {
+		PagePlan plan = this.pagePlans.get(statement);
+		if (plan == null) {
+			String id = statement.getId();
+			String methodName = id.substring(id.lastIndexOf('.') + 1);
+			plan = new PagePlan(this.pageSqlRegEx.matcher(methodName).matches(), this.deferredJoinRegEx.matcher(methodName).matches());
+			this.pagePlans.put(statement, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * 执行查询，开启了指标或慢查询日志时记录耗时和返回的行数
+	 */
+	private void query(StatementScope statementScope, Connection conn, String sql, Object[] parameters, int skipResults, int maxResults, RowHandlerCallback callback) throws SQLException {
+		conn = statementConnection(conn);
+		if (callback instanceof PageRowHandlerCallback && SyntheticColumns.isExposed(statementScope.getResultMap(), sql)) {
+			//分页sql追加的列不能进入自动结果映射
+			conn = SyntheticColumns.hide(conn);
+		}
+		if (!isMonitored()) {
 			super.executeQuery(statementScope, conn, sql, parameters, skipResults, maxResults, callback);
+			return;
 		}
+		//分页的callback本身记录了行数
+		RowCountingCallback countingCallback = callback instanceof PageRowHandlerCallback ? null : new RowCountingCallback(statementScope, callback);
+		long start = System.nanoTime();
+		boolean error = true;
+		try {
+			super.executeQuery(statementScope, conn, sql, parameters, skipResults, maxResults, countingCallback == null ? callback : countingCallback);
+			error = false;
+		} finally {
+			int rows = countingCallback == null ? ((PageRowHandlerCallback) callback).getRows() : countingCallback.getRows();
+			record(statementScope, "query", sql, parameters, System.nanoTime() - start, rows, error);
+		}
+	}
+
+	/**
+	 * 执行带有追加参数的分页sql，追加的参数值绑定在原有参数之后
+	 */
+	private PageRowHandlerCallback executePageQuery(StatementScope statementScope, Connection conn, PageSql pageSql, Object[] parameters, int skipResults, int maxResults, RowHandlerCallback callback, Page page) throws SQLException {
+		PageRowHandlerCallback pageCallback = new PageRowHandlerCallback(statementScope, callback, page.getPageSize(), pageSql.getCursorColumns(), page.isSkipCount(),
+				isWindowCount(page) ? AbstractPageSqlBuilder.TOTAL_COLUMN : null);
+		ParameterMap parameterMap = statementScope.getParameterMap();
+		statementScope.setParameterMap(new PageParameterMap(parameterMap));
+		try {
+			query(statementScope, conn, pageSql.getSql(), PageParameterMap.append(parameterMap, parameters, pageSql.getParameters()), skipResults, maxResults, pageCallback);
+		} finally {
+			statementScope.setParameterMap(parameterMap);
+		}
+		return pageCallback;
 	}
 
 	private void setPageParameter(StatementScope statementScope, Connection conn, String sql, Object[] parameters, int skipResults, int maxResults, RowHandlerCallback callback, Page page) throws SQLException {
-		sql = "select count(*) from (" + sql + ") temp";
+		Object countKey = null;
+		Long totalRows = null;
+		if (this.countCache != null) {
+			countKey = countCacheKey(statementScope, sql, parameters);
+			totalRows = this.countCache.getTotalRows(countKey);
+		}
+		if (totalRows == null && page.isEstimateTotalRows()) {
+			//估算值不放入总记录数缓存
+			Long estimate = estimateRows(statementScope, conn, sql, parameters);
+			if (estimate != null && estimate >= this.estimateThreshold) {
+				setTotalRows(page, estimate, false);
+				return;
+			}
+		}
+		if (totalRows == null) {
+			PagePlan plan = pagePlan(statementScope.getStatement());
+			String countSql = plan.getCountSql(sql);
+			if (countSql == null) {
+				countSql = this.countSqlOptimizer == null ? CountSqlOptimizer.wrap(sql) : this.countSqlOptimizer.buildCountSql(sql, conn);
+				plan.putCountSql(sql, countSql);
+			}
+			totalRows = queryTotalRows(statementScope, conn, countSql, parameters);
+			if (countKey != null) {
+				this.countCache.putTotalRows(countKey, totalRows);
+			}
+		}
+		setTotalRows(page, totalRows, true);
+	}
+
+	/**
+	 * 配置的分页sql构造器，没有配置时按数据库类型选择。spring、连接池每次返回新的包装连接，
+	 * 按解开后的物理连接缓存识别结果，不必每次查询都读取DatabaseMetaData
+	 */
+	private IPageSqlBuilder pageSqlBuilder(Connection conn) {
+		return this.pageSqlBuilder != null ? this.pageSqlBuilder : this.pageSqlBuilderResolver.resolve(StatementCache.physical(conn));
+	}
+
+	/**
+	 * 由当前数据库的分页sql构造器估算sql返回的行数，不能估算或估算失败时返回null
+	 */
+	private Long estimateRows(final StatementScope statementScope, Connection conn, String sql, final Object[] parameters) {
+		IPageSqlBuilder pageSqlBuilder = pageSqlBuilder(conn);
+		if (!(pageSqlBuilder instanceof AbstractPageSqlBuilder)) {
+			return null;
+		}
+		try {
+			return ((AbstractPageSqlBuilder) pageSqlBuilder).estimateRows(conn, sql, new AbstractPageSqlBuilder.ParameterBinder() {
+				public void setParameters(PreparedStatement ps) throws SQLException {
+					statementScope.getParameterMap().setParameters(statementScope, ps, parameters);
+				}
+			});
+		} catch (SQLException e) {
+			log.debug("estimate rows failed, fall back to count: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 根据总记录数设置总页数、起止行号、上一页和下一页
+	 * @param exact 总记录数是准确值还是估算值
+	 */
+	static void setTotalRows(Page page, long totalRows, boolean exact) {
+		int pageNum = pageNum(page);
+		page.setTotalRows(totalRows);
+		page.setTotalRowsExact(exact);
+		page.setTotalPage((int) (totalRows % page.getPageSize() == 0 ? totalRows / page.getPageSize() : totalRows / page.getPageSize() + 1));
+		page.setEndRow(Math.min(pageNum * page.getPageSize(), totalRows));
+		page.setStartRow((long) (page.getPageSize() * (pageNum - 1)));
+		page.setLastPage(pageNum > 1 ? pageNum - 1 : 1);
+		page.setNextPage(pageNum < page.getTotalPage() ? pageNum + 1 : page.getTotalPage());
+		PageSection.put(page);
+	}
+
+	/**
+	 * 跳过count查询时，根据是否多查到一行来设置hasNext和nextPage，totalRows和totalPage保持为null
+	 */
+	private static void setHasNext(Page page, PageRowHandlerCallback pageCallback) {
+		setHasNext(page, pageCallback.hasNext(), pageCallback.getRows());
+	}
+
+	static void setHasNext(Page page, boolean hasNext, long rows) {
+		int pageNum = pageNum(page);
+		page.setHasNext(hasNext);
+		page.setStartRow((long) (page.getPageSize() * (pageNum - 1)));
+		page.setEndRow(page.getStartRow() + rows);
+		page.setLastPage(pageNum > 1 ? pageNum - 1 : 1);
+		page.setNextPage(hasNext ? pageNum + 1 : pageNum);
+		if (page.isKeyset() && !hasNext) {
+			page.setNextCursor(null);
+		}
+		PageSection.put(page);
+	}
+
+	/**
+	 * 只传了偏移量(或键集分页未传页码)时，按偏移量推算页码
+	 */
+	private static int pageNum(Page page) {
+		return page.getPageNum() != null ? page.getPageNum() : page.getOffset() == null ? 1 : (int) (page.getOffset() / page.getPageSize()) + 1;
+	}
+
+	/**
+	 * 总记录数缓存的key：statementId + sql(动态sql会不同) + 绑定的参数值
+	 */
+	private static CacheKey countCacheKey(StatementScope statementScope, String sql, Object[] parameters) {
+		CacheKey key = new CacheKey();
+		key.update(statementScope.getStatement().getId());
+		key.update(sql);
+		if (parameters != null) {
+			for (Object parameter : parameters) {
+				key.update(parameter == null ? NULL_PARAMETER : parameter);
+			}
+		}
+		return key;
+	}
+
+	private long queryTotalRows(StatementScope statementScope, Connection conn, String sql, Object[] parameters) throws SQLException {
 		ErrorContext errorContext = statementScope.getErrorContext();
 		errorContext.setActivity("executing query");
 		errorContext.setObjectId(sql);
 		PreparedStatement ps = null;
 		ResultSet rs = null;
+		long start = System.nanoTime();
+		boolean error = true;
 		setupResultObjectFactory(statementScope);
 		try {
 			errorContext.setMoreInfo("Check the SQL Statement (preparation failed).");
 			Integer rsType = statementScope.getStatement().getResultSetType();
 			if (rsType != null) {
-				ps = prepareStatement(statementScope.getSession(), conn, sql, rsType);
+				ps = prepareStatement(statementScope.getSession(), statementConnection(conn), sql, rsType);
 			} else {
-				ps = prepareStatement(statementScope.getSession(), conn, sql);
+				ps = prepareStatement(statementScope.getSession(), statementConnection(conn), sql);
 			}
 			setStatementTimeout(statementScope.getStatement(), ps);
 			Integer fetchSize = statementScope.getStatement().getFetchSize();
@@ -76,17 +579,13 @@ public class SqlExecutorExt extends DefaultSqlExecutor {
 			errorContext.setMoreInfo("Check the statement (query failed).");
 			rs = ps.executeQuery();
 			errorContext.setMoreInfo("Check the results (failed to retrieve results).");
-			if (rs.next()) {
-				long totalRows = rs.getLong(1);
-				page.setTotalRows(totalRows);
-				page.setTotalPage((int) (totalRows % page.getPageSize() == 0 ? totalRows / page.getPageSize() : totalRows / page.getPageSize() + 1));
-				page.setEndRow(Math.min(page.getPageNum() * page.getPageSize(), totalRows));
-				page.setStartRow((long) (page.getPageSize() * (page.getPageNum() - 1)));
-				page.setLastPage(page.getPageNum() > 1 ? page.getPageNum() - 1 : 1);
-				page.setNextPage(page.getPageNum() < page.getTotalPage() ? page.getPageNum() + 1 : page.getTotalPage());
-			}
-			PageSection.put(page);
+			long totalRows = rs.next() ? rs.getLong(1) : 0L;
+			error = false;
+			return totalRows;
 		} finally {
+			if (isMonitored()) {
+				record(statementScope, COUNT, sql, parameters, System.nanoTime() - start, 1, error);
+			}
 			try {
 				closeResultSet(rs);
 			} finally {
@@ -95,6 +594,50 @@ public class SqlExecutorExt extends DefaultSqlExecutor {
 		}
 	}
 
+	/**
+	 * 开启了statement缓存时包装连接，prepareStatement从缓存中获取
+	 */
+	private Connection statementConnection(Connection conn) {
+		return this.statementCache == null ? conn : this.statementCache.wrap(conn);
+	}
+
+	/**
+	 * 未开启statement缓存时返回null
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	public ICountCache getCountCache() {
+		return countCache;
+	}
+
+	public ExecutorService getStreamExecutor() {
+		return streamExecutor;
+	}
+
+	public long getStreamIdleTimeout() {
+		return streamIdleTimeout;
+	}
+
+	public PagePrefetcher getPagePrefetcher() {
+		return pagePrefetcher;
+	}
+
+	/**
+	 * 未开启慢查询日志时返回null
+	 */
+	public SlowQueryLog getSlowQueryLog() {
+		return slowQueryLog;
+	}
+
+	/**
+	 * 未开启指标时返回null
+	 */
+	public MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
 	private void setupResultObjectFactory(StatementScope statementScope) {
 		SqlMapClientImpl client = (SqlMapClientImpl) statementScope.getSession().getSqlMapClient();
 		ResultObjectFactoryUtil.setupResultObjectFactory(client.getResultObjectFactory(), statementScope.getStatement().getId());
@@ -154,15 +697,57 @@ public class SqlExecutorExt extends DefaultSqlExecutor {
 	@Override
 	public void init(SqlMapConfiguration config, Properties globalProps) {
 		//读取外部配置，适配pageSqlBuilder和pageSqlRegEx
-		String className = globalProps.getProperty("pagingBuilderClass", MySqlPageSqlBuilder.class.getName());
-		try {
-			this.pageSqlBuilder = ((IPageSqlBuilder) Class.forName(className).newInstance());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		String className = globalProps.getProperty("pagingBuilderClass");
+		if (className != null && className.trim().length() > 0) {
+			try {
+				this.pageSqlBuilder = ((IPageSqlBuilder) Class.forName(className.trim()).getDeclaredConstructor().newInstance());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		this.pageSqlRegEx = Pattern.compile(globalProps.getProperty("pagingRegEx", "selectList(.*)"));
+		this.deferredJoinRegEx = Pattern.compile(globalProps.getProperty("pagingDeferredJoinRegEx", "selectList(.*)Deferred"));
+		this.estimateThreshold = Long.parseLong(globalProps.getProperty("pagingEstimateThreshold", "100000"));
+		this.streamFetchSize = Integer.parseInt(globalProps.getProperty("streamFetchSize", "1000"));
+		this.streamExecutor = StreamIterator.newExecutor(Integer.parseInt(globalProps.getProperty("streamThreads", "16")));
+		this.streamIdleTimeout = Long.parseLong(globalProps.getProperty("streamIdleTimeout", "60000"));
+		this.bindPageParameters = Boolean.parseBoolean(globalProps.getProperty("pagingBindParameters", "true"));
+		if (!Boolean.parseBoolean(globalProps.getProperty("pagingCountOptimize", "true"))) {
+			this.countSqlOptimizer = null;
+		}
+		String countCacheClassName = globalProps.getProperty("pagingCountCacheClass");
+		if (countCacheClassName != null && countCacheClassName.trim().length() > 0) {
+			try {
+				this.countCache = (ICountCache) Class.forName(countCacheClassName.trim()).getDeclaredConstructor().newInstance();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			this.countCache.setProperties(globalProps);
+		}
+		if (Boolean.parseBoolean(globalProps.getProperty("metricsEnabled", "false"))) {
+			boolean jmx = Boolean.parseBoolean(globalProps.getProperty("metricsJmxEnabled", "true"));
+			this.metricsRegistry = new MetricsRegistry(jmx ? globalProps.getProperty("metricsJmxDomain", "com.ibatis.ext") : null);
+		}
+		if (SlowQueryLog.isEnabled(globalProps)) {
+			this.slowQueryLog = new SlowQueryLog(globalProps);
+		}
+		if (Integer.parseInt(globalProps.getProperty("pagingPrefetchThreads", "2")) > 0) {
+			this.pagePrefetcher = new PagePrefetcher(globalProps);
+		}
+		if (StatementCache.isEnabled(globalProps)) {
+			this.statementCache = new StatementCache(globalProps);
 		}
-		this.pageSqlRegEx = globalProps.getProperty("pagingRegEx", "selectList(.*)");
 		//这里把原有client的执行代理进行了扩展，扩展的执行代理支持了insert返回影响记录数以及支持了真分页查询
-		SqlMapExecutorDelegate delegate = new SqlMapExecutorDelegateExt(config.getDelegate(), this);
+		SqlMapExecutorDelegateExt delegate = new SqlMapExecutorDelegateExt(config.getDelegate(), this);
+		delegate.setSqlMapClient(config.getClient());
+		delegate.setUseGeneratedKeys(Boolean.parseBoolean(globalProps.getProperty("useGeneratedKeys", "false")));
+		String coalesceRegEx = globalProps.getProperty("coalesceRegEx");
+		if (coalesceRegEx != null && coalesceRegEx.trim().length() > 0) {
+			delegate.setQueryCoalescer(new QueryCoalescer(coalesceRegEx.trim(), Boolean.parseBoolean(globalProps.getProperty("coalesceReadOnly", "false"))));
+		}
+		if (ConcurrencyLimiter.isEnabled(globalProps)) {
+			delegate.setConcurrencyLimiter(new ConcurrencyLimiter(globalProps));
+		}
 		config.getClient().delegate = delegate;
 		try {
 			Field field = SqlMapConfiguration.class.getDeclaredField("delegate");
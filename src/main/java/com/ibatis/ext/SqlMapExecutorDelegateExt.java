@@ -1,23 +1,92 @@
 package com.ibatis.ext;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.ibatis.common.beans.ProbeFactory;
+import com.ibatis.ext.metrics.MetricsRegistry;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.ext.routing.ReadWriteRouting;
+import com.ibatis.ext.routing.ReplicaDataSources;
+import com.ibatis.ext.routing.ShardDataSources;
+import com.ibatis.ext.routing.ShardResultMerger;
+import com.ibatis.ext.routing.ShardRule;
+import com.ibatis.ext.routing.ShardTransaction;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapSession;
+import com.ibatis.sqlmap.client.event.RowHandler;
+import com.ibatis.sqlmap.engine.cache.CacheKey;
+import com.ibatis.sqlmap.engine.execution.BatchException;
+import com.ibatis.sqlmap.engine.execution.BatchResult;
 import com.ibatis.sqlmap.engine.execution.SqlExecutor;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
 import com.ibatis.sqlmap.engine.impl.SqlMapExecutorDelegate;
+import com.ibatis.sqlmap.engine.impl.SqlMapSessionImpl;
 import com.ibatis.sqlmap.engine.mapping.statement.InsertStatement;
 import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
 import com.ibatis.sqlmap.engine.mapping.statement.SelectKeyStatement;
+import com.ibatis.sqlmap.engine.mapping.statement.SelectStatement;
 import com.ibatis.sqlmap.engine.scope.SessionScope;
 import com.ibatis.sqlmap.engine.scope.StatementScope;
 import com.ibatis.sqlmap.engine.transaction.Transaction;
+import com.ibatis.sqlmap.engine.transaction.TransactionState;
 
 /**
- * 重写了insert方法，insert方法能够返回执行sql影响的记录数，而非selectKey的执行结果
+ * 重写了insert方法，insert方法能够返回执行sql影响的记录数，而非selectKey的执行结果；
+ * 重写了queryForList方法，支持分页查询的下一页预取；
+ * 增加了insertBatch/updateBatch方法，使用jdbc的批处理分批执行大量的insert/update；
+ * 开启useGeneratedKeys时，insert从同一个statement的getGeneratedKeys()读取主键，不再单独执行selectKey；
+ * 设置了ReplicaDataSources时，不在事务中的select语句使用从库的连接执行；
+ * 设置了ShardDataSources时，匹配分片规则的语句在分片键对应的分片上执行，没有分片键时在所有分片上执行；
+ * 配置了coalesceRegEx时，不在事务中的相同查询合并为一次数据库访问；
+ * 配置了concurrencyLimit时，匹配的语句同时执行的数量不超过限制，合并的查询只计一次
  * @author fanwt7236@163.com
  */
 public class SqlMapExecutorDelegateExt extends SqlMapExecutorDelegate {
 	
+	//SqlMapClientImpl.getLocalSqlMapSession()和SqlMapSessionImpl.sessionScope都是protected的
+	private static final Method GET_LOCAL_SQL_MAP_SESSION;
+	private static final Field SESSION_SCOPE;
+	//spring是可选的依赖
+	private static final boolean SPRING_PRESENT = isPresent("org.springframework.transaction.support.TransactionSynchronizationManager");
+	static {
+		try {
+			GET_LOCAL_SQL_MAP_SESSION = SqlMapClientImpl.class.getDeclaredMethod("getLocalSqlMapSession");
+			GET_LOCAL_SQL_MAP_SESSION.setAccessible(true);
+			SESSION_SCOPE = SqlMapSessionImpl.class.getDeclaredField("sessionScope");
+			SESSION_SCOPE.setAccessible(true);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private SqlMapClientImpl sqlMapClient;
+	//insert时以RETURN_GENERATED_KEYS方式读取主键，代替在sql之后执行的selectKey
+	private boolean useGeneratedKeys;
+	//读写分离的从库
+	private ReplicaDataSources replicaDataSources;
+	//水平分片
+	private ShardDataSources shardDataSources;
+	//相同查询的合并
+	private QueryCoalescer queryCoalescer;
+	//语句的并发数限制
+	private ConcurrencyLimiter concurrencyLimiter;
+	
 	public SqlMapExecutorDelegateExt(SqlMapExecutorDelegate delegate, SqlExecutor sqlExecutor) {
 		super();
 		setCacheModelsEnabled(delegate.isCacheModelsEnabled());
@@ -31,7 +100,38 @@ public class SqlMapExecutorDelegateExt extends SqlMapExecutorDelegate {
 		this.sqlExecutor = sqlExecutor;
 	}
 
+	@Override
 	public Object insert(SessionScope sessionScope, String id, Object param) throws SQLException {
+		ConcurrencyLimiter.Limit limit = acquire(id);
+		try {
+			return routeInsert(sessionScope, id, param);
+		} finally {
+			release(limit);
+		}
+	}
+
+	private Object routeInsert(SessionScope sessionScope, final String id, final Object param) throws SQLException {
+		ShardRule rule = shardRule(sessionScope, id);
+		Object rows;
+		if (rule == null) {
+			rows = doInsert(sessionScope, id, param);
+		} else {
+			Object shardKey = rule.getShardKeyValue(param);
+			if (shardKey == null) {
+				throw new SQLException("分片的insert[" + id + "]的参数中没有分片键" + rule.getShardKey());
+			}
+			checkShardWrite(sessionScope, id);
+			rows = executeInShard(sessionScope, rule, rule.shard(shardKey, this.shardDataSources.getShards(rule)), new ShardCallback<Object>() {
+				public Object execute(SessionScope sessionScope, int shard) throws SQLException {
+					return doInsert(sessionScope, id, param);
+				}
+			});
+		}
+		markWrite();
+		return rows;
+	}
+
+	private Object doInsert(SessionScope sessionScope, String id, Object param) throws SQLException {
 		Object rows = null;
 		
 		MappedStatement ms = getMappedStatement(id);
@@ -59,7 +159,9 @@ public class SqlMapExecutorDelegateExt extends SqlMapExecutorDelegate {
 				resetKeyValueOnFailure = true;
 			}
 
-			StatementScope statementScope = beginStatementScope(sessionScope, ms);
+			//批处理中的insert在executeBatch时才执行，此时无法读取主键
+			boolean generatedKey = isGeneratedKey(selectKeyStatement) && !sessionScope.isInBatch();
+			StatementScope statementScope = generatedKey ? beginGeneratedKeyScope(sessionScope, ms) : beginStatementScope(sessionScope, ms);
 			try {
 				rows = ms.executeUpdate(statementScope, trans, param);
 			} catch (SQLException e) {
@@ -75,17 +177,837 @@ public class SqlMapExecutorDelegateExt extends SqlMapExecutorDelegate {
 			}
 
 			if (selectKeyStatement != null && selectKeyStatement.isRunAfterSQL()) {
-				executeSelectKey(sessionScope, trans, ms, param);
+				//驱动没有返回主键时仍执行selectKey
+				if (!generatedKey || !setGeneratedKey(selectKeyStatement, param, ((GeneratedKeyStatementScope) statementScope).getGeneratedKey())) {
+					executeSelectKey(sessionScope, trans, ms, param);
+				}
+			}
+
+			autoCommitTransaction(sessionScope, autoStart);
+		} finally {
+			autoEndTransaction(sessionScope, autoStart);
+		}
+
+		return rows;
+	}
+
+	/**
+	 * 分片的update/delete没有分片键时在所有分片上依次执行，返回影响行数之和
+	 */
+	@Override
+	public int update(SessionScope sessionScope, String id, Object param) throws SQLException {
+		ConcurrencyLimiter.Limit limit = acquire(id);
+		try {
+			return routeUpdate(sessionScope, id, param);
+		} finally {
+			release(limit);
+		}
+	}
+
+	private int routeUpdate(SessionScope sessionScope, final String id, final Object param) throws SQLException {
+		ShardRule rule = shardRule(sessionScope, id);
+		int rows = 0;
+		if (rule == null) {
+			rows = super.update(sessionScope, id, param);
+		} else {
+			checkShardWrite(sessionScope, id);
+			ShardCallback<Integer> callback = new ShardCallback<Integer>() {
+				public Integer execute(SessionScope sessionScope, int shard) throws SQLException {
+					return SqlMapExecutorDelegateExt.super.update(sessionScope, id, param);
+				}
+			};
+			Object shardKey = rule.getShardKeyValue(param);
+			if (shardKey != null) {
+				rows = executeInShard(sessionScope, rule, rule.shard(shardKey, this.shardDataSources.getShards(rule)), callback);
+			} else {
+				for (Integer shardRows : executeAllShards(sessionScope, rule, callback, false)) {
+					rows += shardRows;
+				}
+			}
+		}
+		markWrite();
+		return rows;
+	}
+
+	/**
+	 * 分片的queryForObject没有分片键时查询所有分片，最多只能有一个分片返回结果
+	 */
+	@Override
+	public Object queryForObject(final SessionScope sessionScope, final String id, final Object paramObject, final Object resultObject) throws SQLException {
+		Object key = resultObject == null ? coalesceKey(sessionScope, id, paramObject, SqlExecutor.NO_SKIPPED_RESULTS, SqlExecutor.NO_MAXIMUM_RESULTS) : null;
+		if (key == null) {
+			return limitedQueryForObject(sessionScope, id, paramObject, resultObject);
+		}
+		return this.queryCoalescer.execute(key, new QueryCoalescer.Query() {
+			public Object execute() throws SQLException {
+				return limitedQueryForObject(sessionScope, id, paramObject, null);
+			}
+		});
+	}
+
+	private Object limitedQueryForObject(SessionScope sessionScope, String id, Object paramObject, Object resultObject) throws SQLException {
+		ConcurrencyLimiter.Limit limit = acquire(id);
+		try {
+			return routeQueryForObject(sessionScope, id, paramObject, resultObject);
+		} finally {
+			release(limit);
+		}
+	}
+
+	private Object routeQueryForObject(SessionScope sessionScope, final String id, final Object paramObject, final Object resultObject) throws SQLException {
+		ShardRule rule = shardRule(sessionScope, id);
+		if (rule != null) {
+			ShardCallback<Object> callback = new ShardCallback<Object>() {
+				public Object execute(SessionScope sessionScope, int shard) throws SQLException {
+					return SqlMapExecutorDelegateExt.super.queryForObject(sessionScope, id, paramObject, resultObject);
+				}
+			};
+			Object shardKey = rule.getShardKeyValue(paramObject);
+			if (shardKey != null) {
+				return executeInShard(sessionScope, rule, rule.shard(shardKey, this.shardDataSources.getShards(rule)), callback);
+			}
+			Object result = null;
+			for (Object shardResult : executeAllShards(sessionScope, rule, callback, resultObject == null)) {
+				if (shardResult != null) {
+					if (result != null) {
+						throw new SQLException("queryForObject[" + id + "]在多个分片上返回了结果");
+					}
+					result = shardResult;
+				}
+			}
+			return result;
+		}
+		Connection replica = replicaConnection(sessionScope, id);
+		if (replica == null) {
+			return super.queryForObject(sessionScope, id, paramObject, resultObject);
+		}
+		try {
+			return super.queryForObject(sessionScope, id, paramObject, resultObject);
+		} finally {
+			releaseReplica(sessionScope, replica);
+		}
+	}
+
+	@Override
+	public void queryWithRowHandler(SessionScope sessionScope, String id, Object paramObject, RowHandler rowHandler) throws SQLException {
+		ConcurrencyLimiter.Limit limit = acquire(id);
+		try {
+			routeQueryWithRowHandler(sessionScope, id, paramObject, rowHandler);
+		} finally {
+			release(limit);
+		}
+	}
+
+	private void routeQueryWithRowHandler(SessionScope sessionScope, final String id, final Object paramObject, final RowHandler rowHandler) throws SQLException {
+		ShardRule rule = shardRule(sessionScope, id);
+		if (rule != null) {
+			//rowHandler不一定是线程安全的，没有分片键时在当前线程中依次查询各个分片
+			ShardCallback<Object> callback = new ShardCallback<Object>() {
+				public Object execute(SessionScope sessionScope, int shard) throws SQLException {
+					SqlMapExecutorDelegateExt.super.queryWithRowHandler(sessionScope, id, paramObject, rowHandler);
+					return null;
+				}
+			};
+			Object shardKey = rule.getShardKeyValue(paramObject);
+			if (shardKey != null) {
+				executeInShard(sessionScope, rule, rule.shard(shardKey, this.shardDataSources.getShards(rule)), callback);
+			} else {
+				executeAllShards(sessionScope, rule, callback, false);
+			}
+			return;
+		}
+		Connection replica = replicaConnection(sessionScope, id);
+		if (replica == null) {
+			super.queryWithRowHandler(sessionScope, id, paramObject, rowHandler);
+			return;
+		}
+		try {
+			super.queryWithRowHandler(sessionScope, id, paramObject, rowHandler);
+		} finally {
+			releaseReplica(sessionScope, replica);
+		}
+	}
+
+	/**
+	 * page.prefetch为true时，优先返回预取的结果，并在返回后预取下一页。
+	 * 事务中(包括spring事务)的查询不使用预取，预取的线程不在调用方的事务中，看到的数据可能不一致
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List queryForList(final SessionScope sessionScope, final String id, final Object paramObject, final int skip, final int max) throws SQLException {
+		Object key = coalesceKey(sessionScope, id, paramObject, skip, max);
+		if (key == null) {
+			return limitedQueryForList(sessionScope, id, paramObject, skip, max);
+		}
+		return (List) this.queryCoalescer.execute(key, new QueryCoalescer.Query() {
+			public Object execute() throws SQLException {
+				return limitedQueryForList(sessionScope, id, paramObject, skip, max);
+			}
+		});
+	}
+
+	@SuppressWarnings("rawtypes")
+	private List limitedQueryForList(SessionScope sessionScope, String id, Object paramObject, int skip, int max) throws SQLException {
+		ConcurrencyLimiter.Limit limit = acquire(id);
+		try {
+			return doQueryForList(sessionScope, id, paramObject, skip, max);
+		} finally {
+			release(limit);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private List doQueryForList(SessionScope sessionScope, String id, Object paramObject, int skip, int max) throws SQLException {
+		ShardRule rule = shardRule(sessionScope, id);
+		if (rule != null) {
+			return shardQueryForList(sessionScope, rule, id, paramObject, skip, max);
+		}
+		Page page = PageSection.get();
+		if (page == null || !page.isPrefetch() || page.isKeyset() || !(this.sqlExecutor instanceof SqlExecutorExt)
+				|| skip != SqlExecutor.NO_SKIPPED_RESULTS || max != SqlExecutor.NO_MAXIMUM_RESULTS || getTransaction(sessionScope) != null
+				|| isSpringTransactionActive()) {
+			return routeQueryForList(sessionScope, id, paramObject, skip, max);
+		}
+		SqlExecutorExt executor = (SqlExecutorExt) this.sqlExecutor;
+		PagePrefetcher prefetcher = executor.getPagePrefetcher();
+		MappedStatement ms = getMappedStatement(id);
+		if (prefetcher == null || !executor.isPageable(ms)) {
+			return routeQueryForList(sessionScope, id, paramObject, skip, max);
+		}
+		Object statementKey;
+		StatementScope statementScope = beginStatementScope(sessionScope, ms);
+		try {
+			statementKey = ms.getCacheKey(statementScope, paramObject);
+		} finally {
+			endStatementScope(statementScope);
+		}
+		List list = prefetcher.get(statementKey, page);
+		if (list == null) {
+			list = routeQueryForList(sessionScope, id, paramObject, skip, max);
+		}
+		prefetcher.prefetch(sessionScope.getSqlMapClient(), id, paramObject, statementKey, page);
+		return list;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private List routeQueryForList(SessionScope sessionScope, String id, Object paramObject, int skip, int max) throws SQLException {
+		Connection replica = replicaConnection(sessionScope, id);
+		if (replica == null) {
+			return super.queryForList(sessionScope, id, paramObject, skip, max);
+		}
+		try {
+			return super.queryForList(sessionScope, id, paramObject, skip, max);
+		} finally {
+			releaseReplica(sessionScope, replica);
+		}
+	}
+
+	/**
+	 * 不在事务(包括spring通过setUserConnection提供的连接以及spring的事务)和批处理中、当前线程不要求走主库的select语句，
+	 * 从从库获取连接，并作为用户提供的连接设置到session中，语句执行完后由releaseReplica归还
+	 * @return 不需要走从库或没有可用的从库时返回null
+	 */
+	private Connection replicaConnection(SessionScope sessionScope, String id) throws SQLException {
+		ReplicaDataSources replicas = this.replicaDataSources;
+		if (replicas == null || sessionScope.isInBatch() || getTransaction(sessionScope) != null || isSpringTransactionActive()
+				|| replicas.isPrimaryRequired() || !(getMappedStatement(id) instanceof SelectStatement)) {
+			return null;
+		}
+		Connection conn = replicas.getConnection();
+		if (conn != null) {
+			setUserProvidedTransaction(sessionScope, conn);
+		}
+		return conn;
+	}
+
+	private void releaseReplica(SessionScope sessionScope, Connection conn) throws SQLException {
+		try {
+			//同时关闭session中缓存的从库的PreparedStatement
+			setUserProvidedTransaction(sessionScope, null);
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * 分片的queryForList：有分片键时只查询对应的分片；否则并行查询所有分片，合并后按排序字段重新排序，再截取skip/max或page指定的范围。
+	 * 分页时每个分片查询前offset + pageSize行，总记录数为各分片之和
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private List shardQueryForList(SessionScope sessionScope, ShardRule rule, final String id, final Object paramObject, final int skip, final int max) throws SQLException {
+		Object shardKey = rule.getShardKeyValue(paramObject);
+		if (shardKey != null) {
+			return executeInShard(sessionScope, rule, rule.shard(shardKey, this.shardDataSources.getShards(rule)), new ShardCallback<List>() {
+				public List execute(SessionScope sessionScope, int shard) throws SQLException {
+					return SqlMapExecutorDelegateExt.super.queryForList(sessionScope, id, paramObject, skip, max);
+				}
+			});
+		}
+		final Page page = PageSection.get();
+		final boolean paged = page != null && this.sqlExecutor instanceof SqlExecutorExt && ((SqlExecutorExt) this.sqlExecutor).isPageable(getMappedStatement(id));
+		if (paged && page.isKeyset()) {
+			throw new SQLException("没有分片键的查询[" + id + "]不支持键集分页");
+		}
+		final long offset = paged ? offset(page) : skip;
+		final int shardMax = paged || max == SqlExecutor.NO_MAXIMUM_RESULTS ? SqlExecutor.NO_MAXIMUM_RESULTS : skip + max;
+		List<ShardResult> results = executeAllShards(sessionScope, rule, new ShardCallback<ShardResult>() {
+			public ShardResult execute(SessionScope sessionScope, int shard) throws SQLException {
+				Page shardPage = paged ? shardPage(page, offset) : null;
+				Page saved = PageSection.get();
+				if (shardPage == null) {
+					PageSection.clear();
+				} else {
+					PageSection.put(shardPage);
+				}
+				try {
+					List list = SqlMapExecutorDelegateExt.super.queryForList(sessionScope, id, paramObject, SqlExecutor.NO_SKIPPED_RESULTS, shardMax);
+					return new ShardResult(list, shardPage, ((ShardTransaction) sessionScope.getTransaction()).getSql());
+				} finally {
+					if (saved == null) {
+						PageSection.clear();
+					} else {
+						PageSection.put(saved);
+					}
+				}
+			}
+		}, true);
+		List merged = new ArrayList();
+		String sql = null;
+		long totalRows = 0;
+		boolean exact = true;
+		boolean hasNext = false;
+		for (ShardResult result : results) {
+			merged.addAll(result.list);
+			if (sql == null) {
+				sql = result.sql;
+			}
+			if (paged) {
+				hasNext |= Boolean.TRUE.equals(result.page.getHasNext());
+				totalRows += result.page.getTotalRows() == null ? 0 : result.page.getTotalRows();
+				exact &= !Boolean.FALSE.equals(result.page.getTotalRowsExact());
+			}
+		}
+		ShardResultMerger.sort(merged, paged ? page.getSortField() : null, paged ? page.getSortType() : null, sql);
+		long end = paged ? offset + page.getPageSize() : max == SqlExecutor.NO_MAXIMUM_RESULTS ? merged.size() : offset + max;
+		List list = new ArrayList(merged.subList((int) Math.min(offset, merged.size()), (int) Math.min(end, merged.size())));
+		if (paged) {
+			if (page.isSkipCount()) {
+				SqlExecutorExt.setHasNext(page, hasNext || merged.size() > end, list.size());
+			} else {
+				SqlExecutorExt.setTotalRows(page, totalRows, exact);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 计算偏移量，并回填page中的pageNum/offset
+	 */
+	private static long offset(Page page) {
+		if (page.getPageNum() == null && page.getOffset() != null) {
+			page.setPageNum((int) (page.getOffset() / page.getPageSize()) + 1);
+			return page.getOffset();
+		}
+		if (page.getPageNum() == null) {
+			page.setPageNum(1);
+		}
+		page.setOffset((long) (page.getPageNum() - 1) * page.getPageSize());
+		return page.getOffset();
+	}
+
+	/**
+	 * 每个分片查询的page：第1页，每页offset + pageSize行
+	 */
+	private static Page shardPage(Page page, long offset) {
+		Page shardPage = new Page();
+		shardPage.setPageNum(1);
+		shardPage.setPageSize((int) (offset + page.getPageSize()));
+		shardPage.setSortField(page.getSortField());
+		shardPage.setSortType(page.getSortType());
+		shardPage.setSkipCount(page.isSkipCount());
+		shardPage.setWindowCount(page.isWindowCount());
+		shardPage.setEstimateTotalRows(page.isEstimateTotalRows());
+		shardPage.setDeferredJoin(page.isDeferredJoin());
+		shardPage.setDeferredJoinKey(page.getDeferredJoinKey());
+		return shardPage;
+	}
+
+	/**
+	 * 获取语句的执行许可，超出并发数限制时抛出ConcurrencyLimiter.LimitExceededException
+	 * @return 不限制的语句返回null
+	 */
+	private ConcurrencyLimiter.Limit acquire(String id) throws SQLException {
+		if (this.concurrencyLimiter == null) {
+			return null;
+		}
+		ConcurrencyLimiter.Limit limit = this.concurrencyLimiter.getLimit(id);
+		if (limit != null) {
+			limit.acquire(id);
+		}
+		return limit;
+	}
+
+	private static void release(ConcurrencyLimiter.Limit limit) {
+		if (limit != null) {
+			limit.release();
+		}
+	}
+
+	/**
+	 * 可以合并的查询返回由statementId、sql、参数值及skip/max组成的key。
+	 * 事务中(包括spring事务)、批处理中以及分页的查询不合并：结果可能依赖未提交的数据，分页查询还需要回填各自的page
+	 * @return 不合并时返回null
+	 */
+	private Object coalesceKey(SessionScope sessionScope, String id, Object paramObject, int skip, int max) {
+		if (this.queryCoalescer == null || sessionScope.isInBatch() || PageSection.get() != null) {
+			return null;
+		}
+		MappedStatement ms = getMappedStatement(id);
+		if (!this.queryCoalescer.isCoalesced(ms) || isInTransaction(sessionScope)) {
+			return null;
+		}
+		CacheKey key;
+		StatementScope statementScope = beginStatementScope(sessionScope, ms);
+		try {
+			key = ms.getCacheKey(statementScope, paramObject);
+		} finally {
+			endStatementScope(statementScope);
+		}
+		key.update(skip);
+		key.update(max);
+		return key;
+	}
+
+	/**
+	 * 是否在事务中：spring的事务(通过TransactionAwareDataSourceProxy获取连接时session中没有ibatis的事务)，
+	 * 或通过startTransaction开启的事务(spring通过setUserConnection提供的连接在没有事务时是自动提交的)
+	 */
+	private boolean isInTransaction(SessionScope sessionScope) {
+		if (isSpringTransactionActive()) {
+			return true;
+		}
+		return getTransaction(sessionScope) != null && sessionScope.getTransactionState() != TransactionState.STATE_USER_PROVIDED;
+	}
+
+	/**
+	 * 当前线程是否在spring的事务中。SqlMapClientFactoryBean默认通过TransactionAwareDataSourceProxy提供连接，
+	 * 由mapper代理直接调用sqlMapClient时，语句执行前session中没有ibatis的事务，只能从spring判断
+	 */
+	private static boolean isSpringTransactionActive() {
+		return SPRING_PRESENT && TransactionSynchronizationManager.isActualTransactionActive();
+	}
+
+	private static boolean isPresent(String className) {
+		try {
+			Class.forName(className, false, SqlMapExecutorDelegateExt.class.getClassLoader());
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * statement匹配的分片规则，分片的语句不能在startBatch之后执行
+	 * @return 没有配置分片或statement不分片时返回null
+	 */
+	private ShardRule shardRule(SessionScope sessionScope, String id) throws SQLException {
+		if (this.shardDataSources == null) {
+			return null;
+		}
+		ShardRule rule = this.shardDataSources.getRule(getMappedStatement(id));
+		if (rule != null && sessionScope.isInBatch()) {
+			throw new SQLException("分片的语句[" + id + "]不支持批处理");
+		}
+		return rule;
+	}
+
+	/**
+	 * 分片的连接不属于ibatis的事务，在startTransaction开启的事务中写分片时会单独提交，
+	 * endTransaction无法回滚，因此只允许在spring的事务中或事务之外写分片
+	 */
+	private void checkShardWrite(SessionScope sessionScope, String id) throws SQLException {
+		if (!isSpringTransactionActive() && getTransaction(sessionScope) != null
+				&& sessionScope.getTransactionState() != TransactionState.STATE_USER_PROVIDED) {
+			throw new SQLException("分片的写操作[" + id + "]不能在ibatis的startTransaction事务中执行，请使用spring的事务(DataSourcesTransactionManager)");
+		}
+	}
+
+	/**
+	 * 在分片上执行：通过DataSourceUtils获取分片的连接(在spring事务中时为事务绑定的连接)，作为ShardTransaction临时设置到session中，
+	 * 执行完后恢复session原来的事务。不在spring事务中且连接不是自动提交时，成功后提交、失败时回滚
+	 */
+	private <T> T executeInShard(SessionScope sessionScope, ShardRule rule, int shard, ShardCallback<T> callback) throws SQLException {
+		DataSource dataSource = this.shardDataSources.getDataSource(rule, shard);
+		Connection conn = DataSourceUtils.doGetConnection(dataSource);
+		boolean commit = !DataSourceUtils.isConnectionTransactional(conn, dataSource) && !conn.getAutoCommit();
+		Transaction previous = sessionScope.getTransaction();
+		TransactionState previousState = sessionScope.getTransactionState();
+		//session中缓存的PreparedStatement属于原来的连接
+		sessionScope.closePreparedStatements();
+		sessionScope.setTransaction(new ShardTransaction(conn, rule, shard));
+		sessionScope.setTransactionState(TransactionState.STATE_USER_PROVIDED);
+		boolean success = false;
+		try {
+			T result = callback.execute(sessionScope, shard);
+			if (commit) {
+				conn.commit();
+			}
+			success = true;
+			return result;
+		} finally {
+			try {
+				if (commit && !success) {
+					conn.rollback();
+				}
+			} finally {
+				sessionScope.closePreparedStatements();
+				sessionScope.setTransaction(previous);
+				sessionScope.setTransactionState(previousState);
+				DataSourceUtils.releaseConnection(conn, dataSource);
+			}
+		}
+	}
+
+	/**
+	 * 在所有分片上执行，结果按分片序号排列。parallel为true且不在事务中时，每个分片使用单独的session在线程池中并行执行，
+	 * 否则在当前session中依次执行(事务绑定在当前线程上)
+	 */
+	private <T> List<T> executeAllShards(final SessionScope sessionScope, final ShardRule rule, final ShardCallback<T> callback, boolean parallel) throws SQLException {
+		int shards = this.shardDataSources.getShards(rule);
+		List<T> results = new ArrayList<T>(shards);
+		if (!parallel || shards == 1 || getTransaction(sessionScope) != null || isSpringTransactionActive()) {
+			for (int i = 0; i < shards; i++) {
+				results.add(executeInShard(sessionScope, rule, i, callback));
+			}
+			return results;
+		}
+		final SqlMapClient client = this.sqlMapClient != null ? this.sqlMapClient : sessionScope.getSqlMapClient();
+		List<Future<T>> futures = new ArrayList<Future<T>>(shards);
+		try {
+			for (int i = 0; i < shards; i++) {
+				final int shard = i;
+				futures.add(this.shardDataSources.getExecutor().submit(new Callable<T>() {
+					public T call() throws Exception {
+						SqlMapSession session = client.openSession();
+						try {
+							return executeInShard((SessionScope) SESSION_SCOPE.get(session), rule, shard, callback);
+						} finally {
+							session.close();
+						}
+					}
+				}));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new SQLException("查询分片失败: " + e.getCause(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("查询分片时被中断", e);
+		} finally {
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private interface ShardCallback<T> {
+
+		T execute(SessionScope sessionScope, int shard) throws SQLException;
+
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class ShardResult {
+		final List list;
+		final Page page;
+		final String sql;
+
+		ShardResult(List list, Page page, String sql) {
+			this.list = list;
+			this.page = page;
+			this.sql = sql;
+		}
+	}
+
+	private void markWrite() {
+		if (this.replicaDataSources != null) {
+			ReadWriteRouting.markWrite();
+		}
+	}
+
+	/**
+	 * 批量insert，使用当前线程的session(在事务中调用时加入该事务)
+	 * @see #insertBatch(SessionScope, String, List, int)
+	 */
+	public int[] insertBatch(String id, List<?> params, int chunkSize) throws SQLException {
+		return insertBatch(getLocalSessionScope(), id, params, chunkSize);
+	}
+
+	/**
+	 * 批量update/delete，使用当前线程的session(在事务中调用时加入该事务)
+	 * @see #updateBatch(SessionScope, String, List, int)
+	 */
+	public int[] updateBatch(String id, List<?> params, int chunkSize) throws SQLException {
+		return updateBatch(getLocalSessionScope(), id, params, chunkSize);
+	}
+
+	/**
+	 * 批量insert：每个参数对象执行一次statement，sql相同的连续多行共用一个PreparedStatement，
+	 * 以addBatch/executeBatch的方式每chunkSize行提交一次，内存中最多保留chunkSize行的参数。
+	 * 在sql之前执行的selectKey每行仍单独查询；在sql之后执行的selectKey(如last_insert_id())在批处理中无法得到每行的值，不会执行，
+	 * 开启了useGeneratedKeys时每行的主键从getGeneratedKeys()中按顺序读取
+	 * @param sessionScope
+	 * @param id
+	 * @param params 每行的参数对象
+	 * @param chunkSize 每批的行数
+	 * @return 每行影响的记录数，与params一一对应，驱动不返回行数时为Statement.SUCCESS_NO_INFO
+	 * @throws SQLException
+	 */
+	public int[] insertBatch(SessionScope sessionScope, String id, List<?> params, int chunkSize) throws SQLException {
+		return executeBatch(sessionScope, id, params, chunkSize, true);
+	}
+
+	/**
+	 * 批量update/delete，与insertBatch相同每chunkSize行提交一次
+	 * @param sessionScope
+	 * @param id
+	 * @param params 每行的参数对象
+	 * @param chunkSize 每批的行数
+	 * @return 每行影响的记录数，与params一一对应，驱动不返回行数时为Statement.SUCCESS_NO_INFO
+	 * @throws SQLException
+	 */
+	public int[] updateBatch(SessionScope sessionScope, String id, List<?> params, int chunkSize) throws SQLException {
+		return executeBatch(sessionScope, id, params, chunkSize, false);
+	}
+
+	private int[] executeBatch(SessionScope sessionScope, String id, List<?> params, int chunkSize, boolean insert) throws SQLException {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize必须大于0");
+		}
+		//startBatch之后的语句会和本次的批处理一起提交，返回的行数无法对应
+		if (sessionScope.isInBatch()) {
+			throw new SQLException("insertBatch/updateBatch不能在startBatch之后调用");
+		}
+		int[] rows = new int[params.size()];
+		MappedStatement ms = getMappedStatement(id);
+		if (this.shardDataSources != null && this.shardDataSources.getRule(ms) != null) {
+			throw new SQLException("分片的语句[" + id + "]不支持insertBatch/updateBatch");
+		}
+		SelectKeyStatement selectKeyStatement = null;
+		if (insert && ms instanceof InsertStatement) {
+			selectKeyStatement = ((InsertStatement) ms).getSelectKeyStatement();
+		}
+		Transaction trans = getTransaction(sessionScope);
+		boolean autoStart = trans == null;
+
+		try {
+			trans = autoStartTransaction(sessionScope, autoStart, trans);
+			int flushed = 0;
+			boolean generatedKey = isGeneratedKey(selectKeyStatement);
+			//本批中每行的StatementScope，提交后从中读取主键
+			List<GeneratedKeyStatementScope> keyScopes = new ArrayList<GeneratedKeyStatementScope>();
+			sessionScope.setInBatch(true);
+			try {
+				for (int i = 0; i < rows.length; i++) {
+					Object param = params.get(i);
+					if (selectKeyStatement != null && !selectKeyStatement.isRunAfterSQL()) {
+						executeSelectKey(sessionScope, trans, ms, param);
+					}
+					StatementScope statementScope;
+					if (generatedKey) {
+						GeneratedKeyStatementScope keyScope = beginGeneratedKeyScope(sessionScope, ms);
+						keyScopes.add(keyScope);
+						statementScope = keyScope;
+					} else {
+						statementScope = beginStatementScope(sessionScope, ms);
+					}
+					try {
+						//session处于批处理状态时，SqlExecutor只执行addBatch
+						ms.executeUpdate(statementScope, trans, param);
+					} finally {
+						endStatementScope(statementScope);
+					}
+					if (i + 1 - flushed == chunkSize || i == rows.length - 1) {
+						int start = flushed;
+						flushed = flushBatch(sessionScope, ms, rows, flushed);
+						for (int j = 0; j < keyScopes.size(); j++) {
+							setGeneratedKey(selectKeyStatement, params.get(start + j), keyScopes.get(j).getGeneratedKey());
+						}
+						keyScopes.clear();
+					}
+				}
+			} finally {
+				sessionScope.setInBatch(false);
+				//出现异常时丢弃未提交的批处理
+				this.sqlExecutor.cleanup(sessionScope);
 			}
 
 			autoCommitTransaction(sessionScope, autoStart);
 		} finally {
 			autoEndTransaction(sessionScope, autoStart);
 		}
+		markWrite();
 
 		return rows;
 	}
 
+	/**
+	 * 执行已加入的批处理，每行影响的记录数从offset开始依次写入rows
+	 * @return 已提交的行数
+	 */
+	@SuppressWarnings("rawtypes")
+	private int flushBatch(SessionScope sessionScope, MappedStatement ms, int[] rows, int offset) throws SQLException {
+		long start = System.nanoTime();
+		List results = null;
+		try {
+			results = this.sqlExecutor.executeBatchDetailed(sessionScope);
+		} catch (BatchException e) {
+			throw e.getBatchUpdateException();
+		} finally {
+			if (results == null) {
+				recordBatch(ms, System.nanoTime() - start, 0, true);
+			}
+		}
+		long affected = 0;
+		for (Object result : results) {
+			int[] updateCounts = ((BatchResult) result).getUpdateCounts();
+			System.arraycopy(updateCounts, 0, rows, offset, updateCounts.length);
+			offset += updateCounts.length;
+			for (int updateCount : updateCounts) {
+				affected += Math.max(updateCount, 0);
+			}
+		}
+		recordBatch(ms, System.nanoTime() - start, affected, false);
+		return offset;
+	}
+
+	/**
+	 * 批处理中的insert/update不经过SqlExecutor.executeUpdate，这里按批记录指标，每批计为一次执行
+	 */
+	private void recordBatch(MappedStatement ms, long nanos, long rows, boolean error) {
+		if (this.sqlExecutor instanceof SqlExecutorExt) {
+			MetricsRegistry metricsRegistry = ((SqlExecutorExt) this.sqlExecutor).getMetricsRegistry();
+			if (metricsRegistry != null) {
+				metricsRegistry.get(ms).getExecution().record(nanos, rows, error);
+			}
+		}
+	}
+
+	/**
+	 * 开启了useGeneratedKeys且有在sql之后执行的selectKey时，从insert语句的getGeneratedKeys()读取主键
+	 */
+	private boolean isGeneratedKey(SelectKeyStatement selectKeyStatement) {
+		return this.useGeneratedKeys && selectKeyStatement != null && selectKeyStatement.isRunAfterSQL();
+	}
+
+	private GeneratedKeyStatementScope beginGeneratedKeyScope(SessionScope sessionScope, MappedStatement ms) {
+		GeneratedKeyStatementScope statementScope = new GeneratedKeyStatementScope(sessionScope);
+		sessionScope.incrementRequestStackDepth();
+		ms.initRequest(statementScope);
+		return statementScope;
+	}
+
+	/**
+	 * 把自动生成的主键转换为selectKey的resultClass后写入keyProperty
+	 * @return 驱动没有返回主键时返回false
+	 */
+	private static boolean setGeneratedKey(SelectKeyStatement selectKeyStatement, Object param, Object generatedKey) {
+		if (generatedKey == null) {
+			return false;
+		}
+		String keyProp = selectKeyStatement.getKeyProperty();
+		if (keyProp != null && param != null) {
+			Class<?> keyClass = selectKeyStatement.getResultMap() == null ? null : selectKeyStatement.getResultMap().getResultClass();
+			ProbeFactory.getProbe().setObject(param, keyProp, convertKey(generatedKey, keyClass));
+		}
+		return true;
+	}
+
+	/**
+	 * 驱动返回的主键类型与selectKey的resultClass不一定相同(如mysql总是返回Long)
+	 */
+	private static Object convertKey(Object key, Class<?> keyClass) {
+		if (keyClass == null || keyClass.isInstance(key)) {
+			return key;
+		}
+		if (keyClass == String.class) {
+			return String.valueOf(key);
+		}
+		if (!(key instanceof Number)) {
+			return key;
+		}
+		Number number = (Number) key;
+		if (keyClass == Integer.class || keyClass == int.class) {
+			return number.intValue();
+		} else if (keyClass == Long.class || keyClass == long.class) {
+			return number.longValue();
+		} else if (keyClass == Short.class || keyClass == short.class) {
+			return number.shortValue();
+		} else if (keyClass == BigDecimal.class) {
+			return new BigDecimal(number.toString());
+		} else if (keyClass == BigInteger.class) {
+			return new BigInteger(number.toString());
+		}
+		return key;
+	}
+
+	private SessionScope getLocalSessionScope() {
+		if (this.sqlMapClient == null) {
+			throw new IllegalStateException("未设置sqlMapClient");
+		}
+		try {
+			return (SessionScope) SESSION_SCOPE.get(GET_LOCAL_SQL_MAP_SESSION.invoke(this.sqlMapClient));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void setSqlMapClient(SqlMapClientImpl sqlMapClient) {
+		this.sqlMapClient = sqlMapClient;
+	}
+
+	public void setUseGeneratedKeys(boolean useGeneratedKeys) {
+		this.useGeneratedKeys = useGeneratedKeys;
+	}
+
+	public void setReplicaDataSources(ReplicaDataSources replicaDataSources) {
+		this.replicaDataSources = replicaDataSources;
+	}
+
+	public ReplicaDataSources getReplicaDataSources() {
+		return replicaDataSources;
+	}
+
+	public void setShardDataSources(ShardDataSources shardDataSources) {
+		this.shardDataSources = shardDataSources;
+	}
+
+	public ShardDataSources getShardDataSources() {
+		return shardDataSources;
+	}
+
+	public void setQueryCoalescer(QueryCoalescer queryCoalescer) {
+		this.queryCoalescer = queryCoalescer;
+	}
+
+	public QueryCoalescer getQueryCoalescer() {
+		return queryCoalescer;
+	}
+
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
 	private Object executeSelectKey(SessionScope sessionScope, Transaction trans, MappedStatement ms, Object param)
 			throws SQLException {
 		Object generatedKey = null;
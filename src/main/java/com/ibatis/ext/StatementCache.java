@@ -0,0 +1,349 @@
+package com.ibatis.ext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import com.ibatis.common.jdbc.SimpleDataSource;
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+
+/**
+ * 跨session的PreparedStatement缓存：按物理连接保存关闭后的PreparedStatement，同一连接上再次执行相同的sql时直接复用，
+ * 省去每次从连接池取出连接后重新prepare的开销(ibatis自带的statement缓存只在一个session内有效)。
+ * 每个连接最多缓存statementCacheSize个statement，超出时关闭最久未使用的；
+ * 最多记录statementCacheConnections个连接，超出或发现连接已关闭时关闭该连接的所有statement。
+ * 正在使用的statement从缓存中取出，同一sql的嵌套查询会得到各自的statement。
+ * 连接池及spring的包装连接会被逐层解开，statement在物理连接上创建，不经过连接池对statement的跟踪。
+ * 配置项:
+ * statementCacheSize 每个连接缓存的statement数，默认0(不开启)
+ * statementCacheConnections 最多缓存statement的连接数，默认64
+ * @author fanwt7236@163.com
+ */
+public class StatementCache {
+
+	private static final Log log = LogFactory.getLog(StatementCache.class);
+	private static final boolean SPRING_PRESENT = isPresent("org.springframework.jdbc.datasource.ConnectionProxy");
+	//每个连接类的getInnermostDelegate方法，没有该方法的类用NO_DELEGATE代替，避免每次解开都通过异常判断
+	private static final Method NO_DELEGATE = Object.class.getMethods()[0];
+	private static final Map<Class<?>, Method> DELEGATE_METHODS = new ConcurrentHashMap<Class<?>, Method>();
+
+	private final int size;
+	private final int connections;
+	private final Map<Connection, Statements> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public StatementCache(Properties props) {
+		this.size = Integer.parseInt(props.getProperty("statementCacheSize", "0"));
+		this.connections = Integer.parseInt(props.getProperty("statementCacheConnections", "64"));
+		this.cache = new LinkedHashMap<Connection, Statements>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Connection, Statements> eldest) {
+				if (size() > StatementCache.this.connections) {
+					eldest.getValue().closeAll();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public static boolean isEnabled(Properties props) {
+		return Integer.parseInt(props.getProperty("statementCacheSize", "0")) > 0;
+	}
+
+	/**
+	 * 包装连接，prepareStatement(sql)及prepareStatement(sql, type, CONCUR_READ_ONLY)从缓存中获取statement，
+	 * 返回的statement关闭时放回缓存，其余方法直接调用原连接
+	 */
+	public Connection wrap(final Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("prepareStatement".equals(method.getName())) {
+					if (args.length == 1) {
+						return prepareStatement(conn, (String) args[0], null);
+					}
+					if (args.length == 3 && args[1] instanceof Integer && ((Integer) args[2]).intValue() == ResultSet.CONCUR_READ_ONLY) {
+						return prepareStatement(conn, (String) args[0], (Integer) args[1]);
+					}
+				}
+				return invokeTarget(conn, method, args);
+			}
+		});
+	}
+
+	/**
+	 * 从缓存中取出conn所在物理连接上相同sql的statement，没有时创建
+	 * @param rsType 结果集类型，为null时使用默认类型
+	 */
+	public PreparedStatement prepareStatement(Connection conn, String sql, Integer rsType) throws SQLException {
+		Connection physical = physical(conn);
+		Statements statements = statements(physical);
+		String key = rsType == null ? sql : rsType + ":" + sql;
+		PreparedStatement ps = statements.take(key);
+		if (ps != null) {
+			try {
+				ps.clearParameters();
+				this.hits.incrementAndGet();
+			} catch (SQLException e) {
+				close(ps);
+				ps = null;
+			}
+		}
+		if (ps == null) {
+			this.misses.incrementAndGet();
+			ps = rsType == null ? physical.prepareStatement(sql) : physical.prepareStatement(sql, rsType.intValue(), ResultSet.CONCUR_READ_ONLY);
+		}
+		return cached(ps, statements, key);
+	}
+
+	private Statements statements(Connection physical) {
+		synchronized (this.cache) {
+			Statements statements = this.cache.get(physical);
+			if (statements == null) {
+				removeClosed();
+				statements = new Statements();
+				this.cache.put(physical, statements);
+			}
+			return statements;
+		}
+	}
+
+	/**
+	 * 新的物理连接加入时清理已被连接池关闭的连接
+	 */
+	private void removeClosed() {
+		for (Iterator<Map.Entry<Connection, Statements>> it = this.cache.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Connection, Statements> entry = it.next();
+			boolean closed;
+			try {
+				closed = entry.getKey().isClosed();
+			} catch (SQLException e) {
+				closed = true;
+			}
+			if (closed) {
+				entry.getValue().closeAll();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 连接池的包装连接逐层解开后的物理连接，依次尝试ibatis SimpleDataSource、spring的ConnectionProxy(TransactionAwareDataSourceProxy等)、
+	 * dbcp的getInnermostDelegate及jdbc4的unwrap，直到不再变化为止，无法解开时返回原连接
+	 */
+	static Connection physical(Connection conn) {
+		Connection current = conn;
+		for (int i = 0; i < 16; i++) {
+			Connection next = unwrapOnce(current);
+			if (next == null || next == current) {
+				break;
+			}
+			current = next;
+		}
+		return current;
+	}
+
+	private static Connection unwrapOnce(Connection conn) {
+		Connection target = SimpleDataSource.unwrapConnection(conn);
+		if (target != conn) {
+			return target;
+		}
+		if (SPRING_PRESENT && conn instanceof ConnectionProxy) {
+			return ((ConnectionProxy) conn).getTargetConnection();
+		}
+		Method method = delegateMethod(conn.getClass());
+		if (method != NO_DELEGATE) {
+			try {
+				// dbcp的DelegatingConnection，不允许访问底层连接时返回null
+				target = (Connection) method.invoke(conn);
+				if (target != null) {
+					return target;
+				}
+			} catch (Throwable e) {
+				// 无法访问底层连接
+			}
+		}
+		try {
+			// 多数连接池的unwrap(Connection.class)返回包装连接本身，只有返回其他对象时才算解开
+			if (conn.isWrapperFor(Connection.class)) {
+				return conn.unwrap(Connection.class);
+			}
+		} catch (Throwable e) {
+			// jdbc4以前的驱动不支持unwrap
+		}
+		return conn;
+	}
+
+	private static Method delegateMethod(Class<?> type) {
+		Method method = DELEGATE_METHODS.get(type);
+		if (method == null) {
+			method = NO_DELEGATE;
+			try {
+				Method m = type.getMethod("getInnermostDelegate");
+				if (Connection.class.isAssignableFrom(m.getReturnType())) {
+					method = m;
+				}
+			} catch (Throwable e) {
+				// 不是dbcp的连接
+			}
+			DELEGATE_METHODS.put(type, method);
+		}
+		return method;
+	}
+
+	private static boolean isPresent(String className) {
+		try {
+			Class.forName(className, false, StatementCache.class.getClassLoader());
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 关闭时放回缓存的statement
+	 */
+	private PreparedStatement cached(final PreparedStatement ps, final Statements statements, final String key) {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					private boolean closed;
+
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("close".equals(name) && args == null) {
+							if (!this.closed) {
+								this.closed = true;
+								statements.release(key, ps);
+							}
+							return null;
+						}
+						if ("isClosed".equals(name) && args == null) {
+							return this.closed || ps.isClosed();
+						}
+						if ("equals".equals(name) && args != null && args.length == 1) {
+							return proxy == args[0];
+						}
+						if ("hashCode".equals(name) && args == null) {
+							return System.identityHashCode(proxy);
+						}
+						return invokeTarget(ps, method, args);
+					}
+				});
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private void close(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			log.debug("关闭缓存的statement失败: " + e.getMessage());
+		}
+	}
+
+	/** 从缓存中取到statement的次数 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** 新创建statement的次数 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** 因超出每个连接的上限而关闭的statement数 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/** 当前缓存了statement的连接数 */
+	public int getConnections() {
+		synchronized (this.cache) {
+			return this.cache.size();
+		}
+	}
+
+	/**
+	 * 关闭所有缓存的statement
+	 */
+	public void clear() {
+		synchronized (this.cache) {
+			for (Statements statements : this.cache.values()) {
+				statements.closeAll();
+			}
+			this.cache.clear();
+		}
+	}
+
+	/**
+	 * 一个物理连接上空闲的statement，按放回的先后排列，最先放回的最先被关闭
+	 */
+	private class Statements {
+		private final LinkedHashMap<String, PreparedStatement> idle = new LinkedHashMap<String, PreparedStatement>();
+
+		synchronized PreparedStatement take(String key) throws SQLException {
+			PreparedStatement ps = this.idle.remove(key);
+			if (ps != null && ps.isClosed()) {
+				return null;
+			}
+			return ps;
+		}
+
+		void release(String key, PreparedStatement ps) {
+			List<PreparedStatement> evicted = new ArrayList<PreparedStatement>(1);
+			synchronized (this) {
+				PreparedStatement old = this.idle.put(key, ps);
+				if (old != null && old != ps) {
+					evicted.add(old);
+				}
+				Iterator<PreparedStatement> it = this.idle.values().iterator();
+				while (this.idle.size() > StatementCache.this.size) {
+					evicted.add(it.next());
+					it.remove();
+				}
+			}
+			for (PreparedStatement e : evicted) {
+				StatementCache.this.evictions.incrementAndGet();
+				close(e);
+			}
+		}
+
+		void closeAll() {
+			List<PreparedStatement> statements;
+			synchronized (this) {
+				statements = new ArrayList<PreparedStatement>(this.idle.values());
+				this.idle.clear();
+			}
+			for (PreparedStatement ps : statements) {
+				close(ps);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.ibatis.ext;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibatis.ext.routing.ReadWriteRouting;
+import com.ibatis.ext.routing.ReplicaDataSources;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * 以Iterator的方式读取流式查询的结果。查询在共用的有界线程池中通过StreamingRowHandler执行，
+ * 每行放入一个有界的队列，读取得慢时查询线程会等待，内存中最多只有bufferSize行；
+ * 结果读取完毕后statement已经关闭，中途不再读取时应调用close()结束查询。
+ * 调用方超过idleTimeout毫秒没有读取时查询线程放弃查询并关闭statement、归还连接，之后读取时抛出异常，
+ * 避免忘记close()的迭代器一直占用线程、连接和游标。
+ * 线程池的大小和idleTimeout由SqlExecutorExt的streamThreads、streamIdleTimeout配置，线程都被占用时查询排队等待。
+ * 查询线程使用自己的session，不在调用方的事务中
+ * @author fanwt7236@163.com
+ */
+public class StreamIterator<T> implements Iterator<T>, Closeable {
+
+	//不使用SqlExecutorExt时的线程数和等待读取的毫秒数
+	private static final int DEFAULT_THREADS = 16;
+	private static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+	//队列中表示结果结束的对象
+	private static final Object END = new Object();
+	//队列不能存放null，用该对象代替值为null的行
+	private static final Object NULL_ROW = new Object();
+
+	private final BlockingQueue<Object> queue;
+	private final long idleTimeout;
+	private volatile boolean closed;
+	//调用方超时未读取，查询线程已放弃
+	private volatile boolean abandoned;
+	private volatile Throwable error;
+	private Object next;
+	private boolean finished;
+
+	public StreamIterator(SqlMapClient client, String statementId, Object parameter) {
+		this(client, statementId, parameter, 256);
+	}
+
+	public StreamIterator(SqlMapClient client, String statementId, Object parameter, int bufferSize) {
+		this(client, statementId, parameter, bufferSize, streamExecutor(client), streamIdleTimeout(client));
+	}
+
+	/**
+	 * @param executor 执行查询的线程池
+	 * @param idleTimeout 调用方超过该毫秒数没有读取时放弃查询
+	 */
+	public StreamIterator(final SqlMapClient client, final String statementId, final Object parameter, int bufferSize, Executor executor, long idleTimeout) {
+		this.queue = new ArrayBlockingQueue<Object>(bufferSize);
+		this.idleTimeout = idleTimeout;
+		//查询在单独的线程中执行，当前线程要求走主库时该线程也走主库
+		final boolean forcePrimary = isPrimaryRequired(client);
+		Runnable producer = new Runnable() {
+			public void run() {
+				if (forcePrimary) {
+					ReadWriteRouting.forcePrimary();
+				}
+				try {
+					client.queryWithRowHandler(statementId, parameter, new StreamingRowHandler() {
+						public void handleRow(Object row) {
+							if (!put(row == null ? NULL_ROW : row)) {
+								throw new StreamClosedException();
+							}
+						}
+					});
+				} catch (Throwable t) {
+					if (!closed && error == null) {
+						error = t;
+					}
+				} finally {
+					if (forcePrimary) {
+						ReadWriteRouting.clearForcePrimary();
+					}
+					put(END);
+				}
+			}
+		};
+		try {
+			executor.execute(producer);
+		} catch (RejectedExecutionException e) {
+			this.error = e;
+			this.queue.offer(END);
+		}
+	}
+
+	/**
+	 * 使用SqlExecutorExt时为其配置的线程池，否则为共用的默认线程池
+	 */
+	private static Executor streamExecutor(SqlMapClient client) {
+		SqlExecutorExt executor = sqlExecutorExt(client);
+		return executor == null ? DefaultExecutor.INSTANCE : executor.getStreamExecutor();
+	}
+
+	private static long streamIdleTimeout(SqlMapClient client) {
+		SqlExecutorExt executor = sqlExecutorExt(client);
+		return executor == null ? DEFAULT_IDLE_TIMEOUT : executor.getStreamIdleTimeout();
+	}
+
+	private static SqlExecutorExt sqlExecutorExt(SqlMapClient client) {
+		if (client instanceof SqlMapClientImpl && ((SqlMapClientImpl) client).delegate.getSqlExecutor() instanceof SqlExecutorExt) {
+			return (SqlExecutorExt) ((SqlMapClientImpl) client).delegate.getSqlExecutor();
+		}
+		return null;
+	}
+
+	/**
+	 * 流式查询的线程池：线程数固定、空闲60秒后回收，线程都被占用时查询排队
+	 */
+	static ExecutorService newExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ibatis-ext-stream-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static class DefaultExecutor {
+		static final ExecutorService INSTANCE = newExecutor(DEFAULT_THREADS);
+	}
+
+	private static boolean isPrimaryRequired(SqlMapClient client) {
+		if (client instanceof SqlMapClientImpl && ((SqlMapClientImpl) client).delegate instanceof SqlMapExecutorDelegateExt) {
+			ReplicaDataSources replicas = ((SqlMapExecutorDelegateExt) ((SqlMapClientImpl) client).delegate).getReplicaDataSources();
+			return replicas != null && replicas.isPrimaryRequired();
+		}
+		return false;
+	}
+
+	/**
+	 * 放入队列，队列满时等待，迭代器关闭或调用方超过idleTimeout没有读取时返回false
+	 */
+	private boolean put(Object row) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.idleTimeout);
+		try {
+			while (!this.closed && !this.abandoned) {
+				if (this.queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+				if (System.nanoTime() - deadline > 0) {
+					abandon();
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * 放弃查询：丢弃已读取的行，调用方再读取时得到超时的异常
+	 */
+	private void abandon() {
+		if (this.error == null) {
+			this.error = new TimeoutException("流式查询的结果超过" + this.idleTimeout + "ms没有读取，查询已结束");
+		}
+		this.abandoned = true;
+		this.queue.clear();
+		//只有查询线程放入，清空后一定有空位
+		this.queue.offer(END);
+	}
+
+	public boolean hasNext() {
+		if (this.next != null) {
+			return true;
+		}
+		if (this.finished || this.closed) {
+			return false;
+		}
+		Object row;
+		try {
+			row = this.queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("读取流式查询结果时被中断", e);
+		}
+		if (row == END) {
+			this.finished = true;
+			if (this.error != null) {
+				throw new IllegalStateException("流式查询失败", this.error);
+			}
+			return false;
+		}
+		this.next = row;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Object row = this.next;
+		this.next = null;
+		return row == NULL_ROW ? null : (T) row;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * 结束查询，查询线程在处理下一行时退出并关闭statement
+	 */
+	public void close() {
+		this.closed = true;
+		this.next = null;
+		this.queue.clear();
+	}
+
+	private static class StreamClosedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+}
@@ -0,0 +1,12 @@
+package com.ibatis.ext;
+
+import com.ibatis.sqlmap.client.event.RowHandler;
+
+/**
+ * 流式查询的RowHandler标记接口。queryWithRowHandler传入该接口的实现时，SqlExecutorExt使用只读、只能向前的结果集，
+ * 并设置流式读取的fetchSize(mysql为Integer.MIN_VALUE)，结果逐行交给handleRow，不会在内存中积累完整的结果
+ * @author fanwt7236@163.com
+ */
+public interface StreamingRowHandler extends RowHandler {
+
+}
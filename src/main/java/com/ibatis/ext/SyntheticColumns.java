@@ -0,0 +1,152 @@
+package com.ibatis.ext;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+import com.ibatis.ext.paging.dialect.AbstractPageSqlBuilder;
+import com.ibatis.ext.paging.dialect.OraclePageSqlBuilder;
+import com.ibatis.sqlmap.engine.mapping.result.AutoResultMap;
+import com.ibatis.sqlmap.engine.mapping.result.ResultMap;
+
+/**
+ * 分页sql追加在字段列表末尾的列(count(*) over()的total__、oracle的行号rn__)对ibatis不可见：
+ * 包装连接，查询得到的ResultSet.getMetaData()不包含末尾的这些列，其他方法直接调用原对象。
+ * 这样不论是否开启windowCount、是否第一页，自动结果映射看到的列都相同，resultClass为Map时也不会多出这些key；
+ * 按列名读取这些列(读取总记录数)不受影响。
+ * 包装的ResultSet每次调用都经过反射，因此只在自动结果映射需要初始化时包装：
+ * 显式的resultMap按列名读取，多出的列不影响；已经初始化的自动结果映射不会再读取元数据
+ * @author fanwt7236@163.com
+ */
+class SyntheticColumns {
+
+	private static final String[] COLUMNS = { AbstractPageSqlBuilder.TOTAL_COLUMN, OraclePageSqlBuilder.ROW_NUMBER_COLUMN };
+
+	private static final Field ALLOW_REMAPPING = allowRemappingField();
+
+	private SyntheticColumns() {
+	}
+
+	/**
+	 * sql中追加了分页列，且结果映射会在本次查询时按元数据初始化(第一次执行或remapResults)
+	 */
+	static boolean isExposed(ResultMap resultMap, String sql) {
+		if (!(resultMap instanceof AutoResultMap) || sql.indexOf(COLUMNS[0]) == -1 && sql.indexOf(COLUMNS[1]) == -1) {
+			return false;
+		}
+		return resultMap.getResultMappings() == null || isRemapping(resultMap);
+	}
+
+	private static boolean isRemapping(ResultMap resultMap) {
+		if (ALLOW_REMAPPING == null) {
+			return true;
+		}
+		try {
+			return ALLOW_REMAPPING.getBoolean(resultMap);
+		} catch (Exception e) {
+			return true;
+		}
+	}
+
+	private static Field allowRemappingField() {
+		try {
+			Field field = ResultMap.class.getDeclaredField("allowRemapping");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			//无法判断时每次都包装
+			return null;
+		}
+	}
+
+	/**
+	 * 包装连接，prepareStatement返回的statement查询得到的结果集隐藏末尾的分页列
+	 */
+	static Connection hide(final Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result = invokeTarget(conn, method, args);
+				if ("prepareStatement".equals(method.getName())) {
+					return statement((PreparedStatement) result);
+				}
+				return result;
+			}
+		});
+	}
+
+	private static PreparedStatement statement(final PreparedStatement ps) {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("equals".equals(name) && args != null && args.length == 1) {
+							return proxy == args[0];
+						}
+						if ("hashCode".equals(name) && args == null) {
+							return System.identityHashCode(proxy);
+						}
+						Object result = invokeTarget(ps, method, args);
+						if (result instanceof ResultSet && ("executeQuery".equals(name) || "getResultSet".equals(name))) {
+							return resultSet((ResultSet) result);
+						}
+						return result;
+					}
+				});
+	}
+
+	private static ResultSet resultSet(final ResultSet rs) {
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result = invokeTarget(rs, method, args);
+				if ("getMetaData".equals(method.getName())) {
+					return metaData((ResultSetMetaData) result);
+				}
+				return result;
+			}
+		});
+	}
+
+	private static ResultSetMetaData metaData(final ResultSetMetaData meta) throws Exception {
+		int count = meta.getColumnCount();
+		while (count > 0 && isSynthetic(meta.getColumnLabel(count))) {
+			count--;
+		}
+		if (count == meta.getColumnCount()) {
+			return meta;
+		}
+		final int visible = count;
+		return (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getColumnCount".equals(method.getName())) {
+							return visible;
+						}
+						return invokeTarget(meta, method, args);
+					}
+				});
+	}
+
+	private static boolean isSynthetic(String label) {
+		for (int i = 0; i < COLUMNS.length; i++) {
+			if (COLUMNS[i].equalsIgnoreCase(label)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.ibatis.ext.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一类执行(数据查询/更新或分页的count查询)的调用次数、失败次数、行数及耗时分布
+ * @author fanwt7236@163.com
+ */
+public class ExecutionMetrics {
+
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * @param nanos 耗时(纳秒)
+	 * @param rows 查询返回或更新影响的行数
+	 * @param error 是否抛出了异常
+	 */
+	public void record(long nanos, long rows, boolean error) {
+		this.latency.record(nanos / 1000);
+		if (error) {
+			this.errors.incrementAndGet();
+		} else if (rows > 0) {
+			this.rows.addAndGet(rows);
+		}
+	}
+
+	public ExecutionSnapshot snapshot() {
+		long[] buckets = this.latency.snapshotBuckets();
+		long max = this.latency.getMax();
+		//桶的上界可能超过实际的最大值
+		return new ExecutionSnapshot(this.latency.getCount(), this.errors.get(), this.rows.get(), this.latency.getSum(), max,
+				Math.min(LatencyHistogram.percentile(buckets, 50), max), Math.min(LatencyHistogram.percentile(buckets, 95), max),
+				Math.min(LatencyHistogram.percentile(buckets, 99), max));
+	}
+
+	public void reset() {
+		this.errors.set(0);
+		this.rows.set(0);
+		this.latency.reset();
+	}
+
+}
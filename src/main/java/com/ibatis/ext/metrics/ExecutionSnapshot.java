@@ -0,0 +1,75 @@
+package com.ibatis.ext.metrics;
+
+import java.io.Serializable;
+
+/**
+ * ExecutionMetrics某一时刻的快照，耗时的单位为微秒，百分位为所在桶的上界
+ * @author fanwt7236@163.com
+ */
+public class ExecutionSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 6185036713829457147L;
+
+	private final long calls;
+	private final long errors;
+	private final long rows;
+	private final long totalMicros;
+	private final long maxMicros;
+	private final long p50Micros;
+	private final long p95Micros;
+	private final long p99Micros;
+
+	public ExecutionSnapshot(long calls, long errors, long rows, long totalMicros, long maxMicros, long p50Micros, long p95Micros, long p99Micros) {
+		this.calls = calls;
+		this.errors = errors;
+		this.rows = rows;
+		this.totalMicros = totalMicros;
+		this.maxMicros = maxMicros;
+		this.p50Micros = p50Micros;
+		this.p95Micros = p95Micros;
+		this.p99Micros = p99Micros;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getTotalMicros() {
+		return totalMicros;
+	}
+
+	public long getMeanMicros() {
+		return calls == 0 ? 0 : totalMicros / calls;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP95Micros() {
+		return p95Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	@Override
+	public String toString() {
+		return "ExecutionSnapshot [calls=" + calls + ", errors=" + errors + ", rows=" + rows + ", meanMicros=" + getMeanMicros() + ", maxMicros="
+				+ maxMicros + ", p50Micros=" + p50Micros + ", p95Micros=" + p95Micros + ", p99Micros=" + p99Micros + "]";
+	}
+
+}
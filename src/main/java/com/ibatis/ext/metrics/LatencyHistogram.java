@@ -0,0 +1,119 @@
+package com.ibatis.ext.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的耗时直方图，单位为微秒。16微秒以下每微秒一个桶，之后每个2的幂区间再均分为8个桶，
+ * 相对误差不超过12.5%，记录时只有数组下标计算和几次原子加，不分配对象
+ * @author fanwt7236@163.com
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//最大约2^40微秒(12天)，超过的记入最后一个桶
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long micros) {
+		if (micros < 0) {
+			micros = 0;
+		}
+		this.buckets.incrementAndGet(bucket(micros));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(micros);
+		long current = this.max.get();
+		while (micros > current && !this.max.compareAndSet(current, micros)) {
+			current = this.max.get();
+		}
+	}
+
+	/**
+	 * @param percentile 0到100
+	 * @return 该百分位所在桶的上界(微秒)，没有记录时返回0
+	 */
+	public long percentile(double percentile) {
+		return percentile(snapshotBuckets(), percentile);
+	}
+
+	long[] snapshotBuckets() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * 在同一份桶计数上计算百分位，多个百分位之间不会因为并发记录而不一致
+	 */
+	static long percentile(long[] counts, double percentile) {
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(rank, 1)) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(counts.length - 1);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	static int bucket(long micros) {
+		if (micros < LINEAR_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+		int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+	}
+
+}
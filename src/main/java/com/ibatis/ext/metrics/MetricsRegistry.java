@@ -0,0 +1,112 @@
+package com.ibatis.ext.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
+
+/**
+ * 按statement记录执行指标。以MappedStatement对象为key，记录时不拼接字符串；
+ * 每个statement第一次执行时注册为JMX的MBean: {jmxDomain}:type=StatementMetrics,name="statementId"
+ * @author fanwt7236@163.com
+ */
+public class MetricsRegistry {
+
+	private static final Log log = LogFactory.getLog(MetricsRegistry.class);
+
+	private final Map<MappedStatement, StatementMetrics> metrics = new ConcurrentHashMap<MappedStatement, StatementMetrics>();
+	//为null时不注册JMX
+	private final String jmxDomain;
+
+	public MetricsRegistry(String jmxDomain) {
+		this.jmxDomain = jmxDomain;
+	}
+
+	public StatementMetrics get(MappedStatement statement) {
+		StatementMetrics statementMetrics = this.metrics.get(statement);
+		if (statementMetrics == null) {
+			synchronized (this.metrics) {
+				statementMetrics = this.metrics.get(statement);
+				if (statementMetrics == null) {
+					statementMetrics = new StatementMetrics(statement.getId());
+					this.metrics.put(statement, statementMetrics);
+					register(statementMetrics);
+				}
+			}
+		}
+		return statementMetrics;
+	}
+
+	/**
+	 * 所有statement的当前指标，按statementId排序
+	 */
+	public Map<String, StatementSnapshot> snapshot() {
+		Map<String, StatementSnapshot> snapshots = new TreeMap<String, StatementSnapshot>();
+		for (StatementMetrics statementMetrics : this.metrics.values()) {
+			snapshots.put(statementMetrics.getStatementId(), statementMetrics.snapshot());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * @return 没有执行过时返回null
+	 */
+	public StatementSnapshot snapshot(String statementId) {
+		for (StatementMetrics statementMetrics : this.metrics.values()) {
+			if (statementMetrics.getStatementId().equals(statementId)) {
+				return statementMetrics.snapshot();
+			}
+		}
+		return null;
+	}
+
+	public void reset() {
+		for (StatementMetrics statementMetrics : this.metrics.values()) {
+			statementMetrics.reset();
+		}
+	}
+
+	/**
+	 * 注销所有的MBean
+	 */
+	public void unregister() {
+		if (this.jmxDomain == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (StatementMetrics statementMetrics : this.metrics.values()) {
+			try {
+				ObjectName name = objectName(statementMetrics);
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			} catch (Exception e) {
+				log.debug("unregister metrics of " + statementMetrics.getStatementId() + " failed: " + e.getMessage());
+			}
+		}
+	}
+
+	private void register(StatementMetrics statementMetrics) {
+		if (this.jmxDomain == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(statementMetrics, objectName(statementMetrics));
+		} catch (Exception e) {
+			//多个SqlMapClient中有相同的statementId时，只有第一个注册成功，不影响指标的记录
+			log.debug("register metrics of " + statementMetrics.getStatementId() + " failed: " + e.getMessage());
+		}
+	}
+
+	private ObjectName objectName(StatementMetrics statementMetrics) throws Exception {
+		return new ObjectName(this.jmxDomain + ":type=StatementMetrics,name=" + ObjectName.quote(statementMetrics.getStatementId()));
+	}
+
+}
@@ -0,0 +1,197 @@
+package com.ibatis.ext.metrics;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
+
+/**
+ * 慢查询日志：执行时间超过阈值的语句放入有界队列，由单独的线程格式化后输出，
+ * 查询线程只做一次比较，超过阈值时创建一个记录对象，队列满时丢弃并计数，不会阻塞查询线程。
+ * 日志使用com.ibatis.ext.metrics.SlowQueryLog的warn级别输出。
+ * 配置项:
+ * slowQueryThreshold 默认阈值(毫秒)，小于0时不记录，默认-1
+ * slowQueryThreshold.{statementId} 单个statement的阈值，覆盖默认阈值
+ * slowQueryQueueSize 等待输出的记录数上限，默认1024
+ * slowQueryMaxParameterLength 每个参数值输出的最大长度，默认100
+ * @author fanwt7236@163.com
+ */
+public class SlowQueryLog {
+
+	private static final Log log = LogFactory.getLog(SlowQueryLog.class);
+
+	private static final String THRESHOLD_PREFIX = "slowQueryThreshold.";
+	//最多输出的参数个数
+	private static final int MAX_PARAMETERS = 50;
+
+	private final long defaultThreshold;
+	private final Map<String, Long> statementThresholds = new ConcurrentHashMap<String, Long>();
+	//每个statement的阈值(纳秒)，第一次执行时计算
+	private final Map<MappedStatement, Long> thresholds = new ConcurrentHashMap<MappedStatement, Long>();
+	private final int maxParameterLength;
+	private final BlockingQueue<Entry> queue;
+	private final AtomicLong logged = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writer;
+
+	public SlowQueryLog(Properties props) {
+		this.defaultThreshold = Long.parseLong(props.getProperty("slowQueryThreshold", "-1"));
+		for (String name : props.stringPropertyNames()) {
+			if (name.startsWith(THRESHOLD_PREFIX)) {
+				this.statementThresholds.put(name.substring(THRESHOLD_PREFIX.length()), Long.valueOf(props.getProperty(name).trim()));
+			}
+		}
+		this.maxParameterLength = Integer.parseInt(props.getProperty("slowQueryMaxParameterLength", "100"));
+		this.queue = new ArrayBlockingQueue<Entry>(Integer.parseInt(props.getProperty("slowQueryQueueSize", "1024")));
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						write(queue.take());
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						log.debug("write slow query log failed: " + e.getMessage());
+					}
+				}
+			}
+		}, "ibatis-ext-slow-query");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * 是否配置了任何阈值，没有时不需要创建SlowQueryLog
+	 */
+	public static boolean isEnabled(Properties props) {
+		if (Long.parseLong(props.getProperty("slowQueryThreshold", "-1")) >= 0) {
+			return true;
+		}
+		for (String name : props.stringPropertyNames()) {
+			if (name.startsWith(THRESHOLD_PREFIX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 超过阈值时放入队列
+	 * @param statement
+	 * @param type 语句的类型，如query、count、update
+	 * @param sql 实际执行的sql
+	 * @param parameters 绑定的参数值
+	 * @param nanos 耗时(纳秒)
+	 * @param rows 返回或影响的行数
+	 * @param error 是否抛出了异常
+	 * @param page 不是分页查询时为null
+	 */
+	public void record(MappedStatement statement, String type, String sql, Object[] parameters, long nanos, long rows, boolean error, Page page) {
+		if (nanos < threshold(statement)) {
+			return;
+		}
+		//page在之后可能被修改，这里记录当时的页码
+		String pageInfo = page == null ? null : page.getPageNum() + "/" + page.getPageSize();
+		if (this.queue.offer(new Entry(statement.getId(), type, sql, parameters, nanos, rows, error, pageInfo))) {
+			this.logged.incrementAndGet();
+		} else {
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return 不记录时返回Long.MAX_VALUE
+	 */
+	public long threshold(MappedStatement statement) {
+		Long threshold = this.thresholds.get(statement);
+		if (threshold == null) {
+			Long millis = this.statementThresholds.get(statement.getId());
+			long value = millis != null ? millis : this.defaultThreshold;
+			threshold = value < 0 ? Long.MAX_VALUE : value * 1000000L;
+			this.thresholds.put(statement, threshold);
+		}
+		return threshold;
+	}
+
+	private void write(Entry entry) {
+		StringBuilder message = new StringBuilder("slow ").append(entry.type).append(" [").append(entry.statementId).append("] ")
+				.append(entry.nanos / 1000000).append("ms");
+		if (entry.error) {
+			message.append(" failed");
+		} else {
+			message.append(" rows=").append(entry.rows);
+		}
+		if (entry.page != null) {
+			message.append(" page(pageNum/pageSize)=").append(entry.page);
+		}
+		message.append(" sql: ").append(entry.sql.replaceAll("\\s+", " ").trim());
+		if (entry.parameters != null && entry.parameters.length > 0) {
+			message.append(" parameters: [");
+			for (int i = 0; i < entry.parameters.length && i < MAX_PARAMETERS; i++) {
+				message.append(i > 0 ? ", " : "").append(truncate(entry.parameters[i]));
+			}
+			if (entry.parameters.length > MAX_PARAMETERS) {
+				message.append(", ...(").append(entry.parameters.length).append(")");
+			}
+			message.append("]");
+		}
+		log.warn(message.toString());
+	}
+
+	private String truncate(Object parameter) {
+		String value = String.valueOf(parameter);
+		return value.length() <= this.maxParameterLength ? value : value.substring(0, this.maxParameterLength) + "...";
+	}
+
+	/** 放入队列的记录数 */
+	public long getLogged() {
+		return logged.get();
+	}
+
+	/** 队列已满而丢弃的记录数 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * 停止输出线程并等待其退出，之后放入队列的记录不再输出
+	 */
+	public void shutdown() {
+		this.writer.interrupt();
+		try {
+			this.writer.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Entry {
+		final String statementId;
+		final String type;
+		final String sql;
+		final Object[] parameters;
+		final long nanos;
+		final long rows;
+		final boolean error;
+		final String page;
+
+		Entry(String statementId, String type, String sql, Object[] parameters, long nanos, long rows, boolean error, String page) {
+			this.statementId = statementId;
+			this.type = type;
+			this.sql = sql;
+			this.parameters = parameters;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.error = error;
+			this.page = page;
+		}
+	}
+
+}
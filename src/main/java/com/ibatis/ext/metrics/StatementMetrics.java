@@ -0,0 +1,100 @@
+package com.ibatis.ext.metrics;
+
+/**
+ * 一个statement的执行指标，数据查询(或更新)与分页的count查询分开记录
+ * @author fanwt7236@163.com
+ */
+public class StatementMetrics implements StatementMetricsMBean {
+
+	private final String statementId;
+	private final ExecutionMetrics execution = new ExecutionMetrics();
+	private final ExecutionMetrics count = new ExecutionMetrics();
+
+	public StatementMetrics(String statementId) {
+		this.statementId = statementId;
+	}
+
+	/** 数据查询或更新 */
+	public ExecutionMetrics getExecution() {
+		return execution;
+	}
+
+	/** 分页的count查询 */
+	public ExecutionMetrics getCount() {
+		return count;
+	}
+
+	public StatementSnapshot snapshot() {
+		return new StatementSnapshot(this.statementId, this.execution.snapshot(), this.count.snapshot());
+	}
+
+	public String getStatementId() {
+		return statementId;
+	}
+
+	public long getCalls() {
+		return this.execution.snapshot().getCalls();
+	}
+
+	public long getErrors() {
+		return this.execution.snapshot().getErrors();
+	}
+
+	public long getRows() {
+		return this.execution.snapshot().getRows();
+	}
+
+	public double getMeanMillis() {
+		return millis(this.execution.snapshot().getMeanMicros());
+	}
+
+	public double getMaxMillis() {
+		return millis(this.execution.snapshot().getMaxMicros());
+	}
+
+	public double getP50Millis() {
+		return millis(this.execution.snapshot().getP50Micros());
+	}
+
+	public double getP95Millis() {
+		return millis(this.execution.snapshot().getP95Micros());
+	}
+
+	public double getP99Millis() {
+		return millis(this.execution.snapshot().getP99Micros());
+	}
+
+	public long getCountCalls() {
+		return this.count.snapshot().getCalls();
+	}
+
+	public long getCountErrors() {
+		return this.count.snapshot().getErrors();
+	}
+
+	public double getCountMeanMillis() {
+		return millis(this.count.snapshot().getMeanMicros());
+	}
+
+	public double getCountP50Millis() {
+		return millis(this.count.snapshot().getP50Micros());
+	}
+
+	public double getCountP95Millis() {
+		return millis(this.count.snapshot().getP95Micros());
+	}
+
+	public double getCountP99Millis() {
+		return millis(this.count.snapshot().getP99Micros());
+	}
+
+	public void reset() {
+		this.execution.reset();
+		this.count.reset();
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000d;
+	}
+
+}
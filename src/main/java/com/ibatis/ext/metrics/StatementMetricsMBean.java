@@ -0,0 +1,42 @@
+package com.ibatis.ext.metrics;
+
+/**
+ * StatementMetrics的JMX接口，耗时的单位为毫秒。
+ * Count开头的属性是分页的count查询，其余是数据查询或更新
+ * @author fanwt7236@163.com
+ */
+public interface StatementMetricsMBean {
+
+	String getStatementId();
+
+	long getCalls();
+
+	long getErrors();
+
+	long getRows();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double getP50Millis();
+
+	double getP95Millis();
+
+	double getP99Millis();
+
+	long getCountCalls();
+
+	long getCountErrors();
+
+	double getCountMeanMillis();
+
+	double getCountP50Millis();
+
+	double getCountP95Millis();
+
+	double getCountP99Millis();
+
+	void reset();
+
+}
@@ -0,0 +1,42 @@
+package com.ibatis.ext.metrics;
+
+import java.io.Serializable;
+
+/**
+ * 一个statement某一时刻的执行指标
+ * @author fanwt7236@163.com
+ */
+public class StatementSnapshot implements Serializable {
+
+	private static final long serialVersionUID = -3370812561749311702L;
+
+	private final String statementId;
+	private final ExecutionSnapshot execution;
+	private final ExecutionSnapshot count;
+
+	public StatementSnapshot(String statementId, ExecutionSnapshot execution, ExecutionSnapshot count) {
+		this.statementId = statementId;
+		this.execution = execution;
+		this.count = count;
+	}
+
+	public String getStatementId() {
+		return statementId;
+	}
+
+	/** 数据查询或更新 */
+	public ExecutionSnapshot getExecution() {
+		return execution;
+	}
+
+	/** 分页的count查询 */
+	public ExecutionSnapshot getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "StatementSnapshot [statementId=" + statementId + ", execution=" + execution + ", count=" + count + "]";
+	}
+
+}
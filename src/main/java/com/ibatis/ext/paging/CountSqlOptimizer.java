@@ -0,0 +1,403 @@
+package com.ibatis.ext.paging;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.paging.SelectSql.Token;
+
+/**
+ * count语句优化器，根据原sql生成尽量精简的count语句:
+ * 1.去掉order by
+ * 2.用count(*)替换select的字段列表，避免物化一张很宽的派生表
+ * 3.去掉不影响行数的left join(被join的表在条件中没有被引用，且on条件覆盖了它的主键或唯一索引)
+ * 含group by、distinct、union、limit、聚合函数等无法安全改写的语句，仍然使用select count(*) from (sql) temp的方式
+ * 被去掉的部分中不能含有占位符，这样count语句与原sql绑定的参数完全一致
+ * @author fanwt7236@163.com
+ */
+public class CountSqlOptimizer {
+
+	private static final Log log = LogFactory.getLog(CountSqlOptimizer.class);
+
+	private static final Pattern AGGREGATE = Pattern.compile("(?i)count|sum|avg|min|max|group_concat|string_agg|array_agg|listagg|bit_and|bit_or|bit_xor|stddev\\w*|var_\\w+|variance|json_arrayagg|json_objectagg");
+
+	private static final Set<String> JOIN_WORDS = new HashSet<String>();
+	static {
+		String[] words = { "left", "right", "full", "inner", "outer", "cross", "natural", "join", "straight_join" };
+		for (String word : words) {
+			JOIN_WORDS.add(word);
+		}
+	}
+
+	//表的唯一索引及字段信息，key为数据库url|catalog|schema|table
+	private Map<String, TableInfo> tables = new ConcurrentHashMap<String, TableInfo>();
+
+	/**
+	 * 用派生表包装的方式构造count语句
+	 * @param sql
+	 * @return
+	 */
+	public static String wrap(String sql) {
+		return "select count(*) from (" + sql + ") temp";
+	}
+
+	/**
+	 * 构造count语句，无法优化时回退到派生表包装的方式
+	 * @param sql
+	 * @param conn 用于查询表的唯一索引，为null时不去除left join
+	 * @return
+	 */
+	public String buildCountSql(String sql, Connection conn) {
+		String countSql = null;
+		try {
+			countSql = optimize(sql, conn);
+		} catch (RuntimeException e) {
+			log.debug("count sql optimize failed, fall back to wrap: " + e.getMessage());
+		}
+		return countSql == null ? wrap(sql) : countSql;
+	}
+
+	private String optimize(String sql, Connection conn) {
+		SelectSql select = SelectSql.parse(sql);
+		if (select == null || select.getTail() != null) {
+			return null;
+		}
+		String orderBy = select.getOrderBy();
+		if (orderBy != null && SelectSql.countPlaceholders(orderBy) > 0) {
+			return null;
+		}
+		String selectList = select.getSelectList();
+		if (select.isDistinct() || select.getGroupBy() != null || select.getHaving() != null
+				|| SelectSql.countPlaceholders(selectList) > 0 || hasAggregate(selectList)) {
+			//结果的行数取决于分组、去重或聚合，只能保留字段列表，去掉order by后再包装
+			return orderBy == null ? null : wrap(select.getSqlWithoutOrderBy());
+		}
+		StringBuilder countSql = new StringBuilder("select count(*) from ");
+		countSql.append(conn == null ? select.getFrom() : removeLeftJoins(select.getFrom(), select.getWhere(), conn));
+		if (select.getWhere() != null) {
+			countSql.append(" where ").append(select.getWhere());
+		}
+		return countSql.toString();
+	}
+
+	/**
+	 * 字段列表的最外层是否含有聚合函数，子查询中的聚合函数不影响行数
+	 */
+	public static boolean hasAggregate(String selectList) {
+		List<Token> tokens = SelectSql.tokenize(selectList);
+		for (int i = 0; i + 1 < tokens.size(); i++) {
+			Token token = tokens.get(i);
+			if (token.depth == 0 && token.type == SelectSql.WORD && tokens.get(i + 1).type == SelectSql.OPEN
+					&& AGGREGATE.matcher(token.text(selectList)).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 从后往前依次去掉不影响行数的left join
+	 */
+	private String removeLeftJoins(String from, String where, Connection conn) {
+		List<Token> tokens = SelectSql.tokenize(from);
+		List<int[]> segments = new ArrayList<int[]>();//每个join片段在from中的[起始位置,结束位置]
+		int segmentStart = 0;
+		boolean inJoinWords = false;
+		for (int i = 0; i < tokens.size(); i++) {
+			Token token = tokens.get(i);
+			if (token.depth != 0) {
+				inJoinWords = false;
+				continue;
+			}
+			//left(...)、right(...)是函数而不是join
+			boolean function = i + 1 < tokens.size() && tokens.get(i + 1).type == SelectSql.OPEN;
+			boolean joinWord = (token.type == SelectSql.WORD && !function && JOIN_WORDS.contains(token.text(from).toLowerCase())) || token.isSymbol(from, ',');
+			if (joinWord && !inJoinWords && i > 0) {
+				//片段在上一个单词处结束，不包含中间的注释
+				segments.add(new int[] { segmentStart, tokens.get(i - 1).end });
+				segmentStart = token.start;
+			}
+			inJoinWords = joinWord && !token.isSymbol(from, ',');
+		}
+		segments.add(new int[] { segmentStart, tokens.isEmpty() ? from.length() : tokens.get(tokens.size() - 1).end });
+		if (segments.size() == 1) {
+			return from;
+		}
+		for (int[] segment : segments) {
+			String text = from.substring(segment[0], segment[1]).toLowerCase();
+			//right/full/natural join会改变保留行的一侧，不做处理
+			if (text.startsWith("right") || text.startsWith("full") || text.startsWith("natural")) {
+				return from;
+			}
+		}
+		boolean[] removed = new boolean[segments.size()];
+		for (int i = segments.size() - 1; i > 0; i--) {
+			int[] segment = segments.get(i);
+			LeftJoin join = LeftJoin.parse(from.substring(segment[0], segment[1]));
+			if (join == null) {
+				continue;
+			}
+			//where条件及其他保留的join片段
+			List<String> others = new ArrayList<String>();
+			if (where != null) {
+				others.add(where);
+			}
+			for (int j = 0; j < segments.size(); j++) {
+				if (j != i && !removed[j]) {
+					others.add(from.substring(segments.get(j)[0], segments.get(j)[1]));
+				}
+			}
+			if (isRowPreserving(join, others, conn)) {
+				removed[i] = true;
+			}
+		}
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < segments.size(); i++) {
+			if (!removed[i]) {
+				result.append(from.substring(segments.get(i)[0], segments.get(i)[1]).trim()).append(' ');
+			}
+		}
+		return result.toString().trim();
+	}
+
+	private boolean isRowPreserving(LeftJoin join, List<String> others, Connection conn) {
+		TableInfo table = getTableInfo(join.schema, join.table, conn);
+		if (table.uniqueKeys.isEmpty()) {
+			return false;
+		}
+		//被join的表不能在其他地方被引用，包括不带表别名的字段
+		for (String other : others) {
+			List<Token> tokens = SelectSql.tokenize(other);
+			for (int i = 0; i < tokens.size(); i++) {
+				Token token = tokens.get(i);
+				if (token.type != SelectSql.WORD && token.type != SelectSql.QUOTED) {
+					continue;
+				}
+				boolean qualifier = i + 1 < tokens.size() && tokens.get(i + 1).isSymbol(other, '.');
+				boolean qualified = i > 0 && tokens.get(i - 1).isSymbol(other, '.');
+				boolean function = i + 1 < tokens.size() && tokens.get(i + 1).type == SelectSql.OPEN;
+				String name = token.name(other);
+				if (qualifier && name.equalsIgnoreCase(join.alias)) {
+					return false;
+				}
+				if (!qualifier && !qualified && !function && table.columns.contains(name.toLowerCase())) {
+					return false;
+				}
+			}
+		}
+		//on条件中与其他表或常量相等的字段必须覆盖被join表的某个唯一索引，这样每一行最多只能匹配到一行
+		for (Set<String> uniqueKey : table.uniqueKeys) {
+			if (join.equalColumns.containsAll(uniqueKey)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private TableInfo getTableInfo(String schema, String table, Connection conn) {
+		String key;
+		try {
+			key = conn.getMetaData().getURL() + "|" + conn.getCatalog() + "|" + schema + "|" + table;
+		} catch (SQLException e) {
+			return TableInfo.EMPTY;
+		}
+		TableInfo info = this.tables.get(key);
+		if (info == null) {
+			info = loadTableInfo(schema, table, conn);
+			this.tables.put(key, info);
+		}
+		return info;
+	}
+
+	private static TableInfo loadTableInfo(String schema, String table, Connection conn) {
+		try {
+			DatabaseMetaData metaData = conn.getMetaData();
+			String catalog = conn.getCatalog();
+			if (schema != null && !metaData.supportsSchemasInTableDefinitions()) {
+				//mysql中库名对应的是catalog
+				catalog = schema;
+				schema = null;
+			}
+			//不同的数据库对表名的大小写处理不同，依次尝试原名、大写、小写
+			String[] names = { table, table.toUpperCase(), table.toLowerCase() };
+			for (String name : names) {
+				TableInfo info = new TableInfo();
+				ResultSet rs = metaData.getColumns(catalog, schema, name, null);
+				try {
+					while (rs.next()) {
+						info.columns.add(rs.getString("COLUMN_NAME").toLowerCase());
+					}
+				} finally {
+					rs.close();
+				}
+				if (info.columns.isEmpty()) {
+					continue;
+				}
+				Map<String, Set<String>> indexes = new LinkedHashMap<String, Set<String>>();
+				rs = metaData.getIndexInfo(catalog, schema, name, true, true);
+				try {
+					while (rs.next()) {
+						String indexName = rs.getString("INDEX_NAME");
+						String columnName = rs.getString("COLUMN_NAME");
+						if (indexName == null || columnName == null || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+							continue;
+						}
+						Set<String> columns = indexes.get(indexName);
+						if (columns == null) {
+							columns = new HashSet<String>();
+							indexes.put(indexName, columns);
+						}
+						columns.add(columnName.toLowerCase());
+					}
+				} finally {
+					rs.close();
+				}
+				info.uniqueKeys.addAll(indexes.values());
+				return info;
+			}
+		} catch (SQLException e) {
+			log.debug("load unique keys of table " + table + " failed: " + e.getMessage());
+		}
+		return TableInfo.EMPTY;
+	}
+
+	private static class TableInfo {
+		static final TableInfo EMPTY = new TableInfo();
+		Set<String> columns = new HashSet<String>();
+		List<Set<String>> uniqueKeys = new ArrayList<Set<String>>();
+	}
+
+	/**
+	 * 形如 left [outer] join [schema.]table [[as] alias] on ... 的join片段
+	 */
+	private static class LeftJoin {
+		String schema;
+		String table;
+		String alias;
+		//on条件中与其他表的字段或常量相等的被join表的字段
+		Set<String> equalColumns = new HashSet<String>();
+
+		static LeftJoin parse(String segment) {
+			if (SelectSql.countPlaceholders(segment) > 0) {
+				return null;
+			}
+			List<Token> tokens = SelectSql.tokenize(segment);
+			int i = 0;
+			if (!word(segment, tokens, i++, "left")) {
+				return null;
+			}
+			if (word(segment, tokens, i, "outer")) {
+				i++;
+			}
+			if (!word(segment, tokens, i++, "join")) {
+				return null;
+			}
+			LeftJoin join = new LeftJoin();
+			if (!name(tokens, i)) {
+				return null;
+			}
+			join.table = tokens.get(i++).name(segment);
+			if (i + 1 < tokens.size() && tokens.get(i).isSymbol(segment, '.') && name(tokens, i + 1)) {
+				join.schema = join.table;
+				join.table = tokens.get(i + 1).name(segment);
+				i += 2;
+			}
+			join.alias = join.table;
+			if (word(segment, tokens, i, "as")) {
+				i++;
+			}
+			if (name(tokens, i) && !word(segment, tokens, i, "on")) {
+				join.alias = tokens.get(i++).name(segment);
+			}
+			if (!word(segment, tokens, i++, "on")) {
+				return null;
+			}
+			//按最外层的and拆分on条件，带or、between的条件无法拆分，直接放弃
+			List<List<Token>> conditions = new ArrayList<List<Token>>();
+			List<Token> condition = new ArrayList<Token>();
+			int depth = tokens.get(i - 1).depth;
+			for (; i < tokens.size(); i++) {
+				Token token = tokens.get(i);
+				if (token.depth == depth && token.type == SelectSql.WORD && (token.is(segment, "or") || token.is(segment, "between"))) {
+					return null;
+				}
+				if (token.depth == depth && token.type == SelectSql.WORD && token.is(segment, "and")) {
+					conditions.add(condition);
+					condition = new ArrayList<Token>();
+				} else {
+					condition.add(token);
+				}
+			}
+			conditions.add(condition);
+			for (List<Token> c : conditions) {
+				join.addEqualColumn(segment, c);
+			}
+			return join;
+		}
+
+		/**
+		 * 形如 alias.column = 其他表的字段或常量 的条件，记录column
+		 */
+		private void addEqualColumn(String segment, List<Token> condition) {
+			int equal = -1;
+			for (int i = 0; i < condition.size(); i++) {
+				Token token = condition.get(i);
+				if (token.type == SelectSql.SYMBOL && "=<>!".indexOf(segment.charAt(token.start)) != -1) {
+					if (equal != -1 || !token.isSymbol(segment, '=')) {
+						return;
+					}
+					equal = i;
+				}
+			}
+			if (equal == -1) {
+				return;
+			}
+			List<Token> left = condition.subList(0, equal);
+			List<Token> right = condition.subList(equal + 1, condition.size());
+			String column = column(segment, left);
+			List<Token> other = right;
+			if (column == null) {
+				column = column(segment, right);
+				other = left;
+			}
+			if (column == null || other.isEmpty()) {
+				return;
+			}
+			for (int i = 0; i + 1 < other.size(); i++) {
+				if (other.get(i).name(segment).equalsIgnoreCase(this.alias) && other.get(i + 1).isSymbol(segment, '.')) {
+					return;
+				}
+			}
+			this.equalColumns.add(column.toLowerCase());
+		}
+
+		/** 形如 alias.column 时返回column */
+		private String column(String segment, List<Token> tokens) {
+			if (tokens.size() == 3 && name(tokens, 0) && tokens.get(0).name(segment).equalsIgnoreCase(this.alias)
+					&& tokens.get(1).isSymbol(segment, '.') && name(tokens, 2)) {
+				return tokens.get(2).name(segment);
+			}
+			return null;
+		}
+
+		private static boolean word(String segment, List<Token> tokens, int i, String word) {
+			return i < tokens.size() && tokens.get(i).type == SelectSql.WORD && tokens.get(i).is(segment, word);
+		}
+
+		private static boolean name(List<Token> tokens, int i) {
+			return i < tokens.size() && (tokens.get(i).type == SelectSql.WORD || tokens.get(i).type == SelectSql.QUOTED);
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.ibatis.ext.paging;
+
+import java.util.Properties;
+
+/**
+ * 分页总记录数缓存，同一查询条件翻页时复用第一页查询出的总记录数，避免每页都执行一次count(*)
+ * @author fanwt7236@163.com
+ */
+public interface ICountCache {
+
+	/**
+	 * 获取缓存的总记录数
+	 * @param key 由statementId、查询sql及绑定的参数值组成
+	 * @return 不存在或已过期时返回null
+	 */
+	Long getTotalRows(Object key);
+
+	/**
+	 * 缓存总记录数
+	 * @param key
+	 * @param totalRows
+	 */
+	void putTotalRows(Object key, long totalRows);
+
+	/**
+	 * 清空缓存
+	 */
+	void flush();
+
+	/**
+	 * 读取sql-map-config中properties文件的配置
+	 * @param props
+	 */
+	void setProperties(Properties props);
+}
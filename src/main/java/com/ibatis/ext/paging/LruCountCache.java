@@ -0,0 +1,68 @@
+package com.ibatis.ext.paging;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 基于LRU的总记录数缓存，超过容量时淘汰最久未使用的记录，超过存活时间的记录视为失效
+ * 配置项:
+ * pagingCountCacheSize 缓存的最大条数，默认1000
+ * pagingCountCacheTtl 存活时间(秒)，默认60
+ * @author fanwt7236@163.com
+ */
+public class LruCountCache implements ICountCache {
+
+	private int size = 1000;
+	private long ttl = 60 * 1000L;
+	private Map<Object, Entry> cache = newCache();
+
+	public synchronized Long getTotalRows(Object key) {
+		Entry entry = this.cache.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expireTime < System.currentTimeMillis()) {
+			this.cache.remove(key);
+			return null;
+		}
+		return entry.totalRows;
+	}
+
+	public synchronized void putTotalRows(Object key, long totalRows) {
+		this.cache.put(key, new Entry(totalRows, System.currentTimeMillis() + this.ttl));
+	}
+
+	public synchronized void flush() {
+		this.cache.clear();
+	}
+
+	public synchronized void setProperties(Properties props) {
+		this.size = Integer.parseInt(props.getProperty("pagingCountCacheSize", "1000"));
+		this.ttl = Long.parseLong(props.getProperty("pagingCountCacheTtl", "60")) * 1000L;
+		this.cache = newCache();
+	}
+
+	private Map<Object, Entry> newCache() {
+		//accessOrder为true时，LinkedHashMap按访问顺序排列，最久未使用的记录在最前面
+		return new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+				return size() > LruCountCache.this.size;
+			}
+		};
+	}
+
+	private static class Entry {
+		long totalRows;
+		long expireTime;
+
+		Entry(long totalRows, long expireTime) {
+			this.totalRows = totalRows;
+			this.expireTime = expireTime;
+		}
+	}
+
+}
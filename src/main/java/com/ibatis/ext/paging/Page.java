@@ -1,6 +1,7 @@
 package com.ibatis.ext.paging;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * 分页参数
@@ -21,6 +22,18 @@ public class Page implements Serializable {
 	private Long endRow;
 	private String sortField;
 	private String sortType;
+	private boolean keyset;//是否使用键集(seek)分页
+	private Object[] cursor;//上一页最后一行的排序字段值，键集分页时作为本页的起点
+	private Object[] nextCursor;//本页最后一行的排序字段值，由SqlExecutorExt回填
+	private boolean keysetCount;//键集分页时是否仍执行count查询，默认跳过
+	private boolean skipCount;//是否跳过count查询，为true时多查询一行来判断是否存在下一页，不计算totalRows和totalPage
+	private Boolean hasNext;//是否存在下一页，跳过count查询时由SqlExecutorExt回填
+	private boolean windowCount;//是否在分页sql中用count(*) over()同时查出总记录数，省去单独的count查询
+	private boolean estimateTotalRows;//是否允许使用执行计划或统计信息估算的总记录数代替count查询
+	private Boolean totalRowsExact;//totalRows是否为准确值，由SqlExecutorExt回填
+	private boolean prefetch;//是否在返回本页后异步预取下一页
+	private boolean deferredJoin;//是否使用延迟关联，先只按主键分页，再关联回原表取完整的行
+	private String deferredJoinKey = "id";//延迟关联使用的主键列
 
 	public Integer getPageNum() {
 		return pageNum;
@@ -110,10 +123,111 @@ public class Page implements Serializable {
 		this.sortType = sortType;
 	}
 
+	public boolean isKeyset() {
+		return keyset;
+	}
+
+	public void setKeyset(boolean keyset) {
+		this.keyset = keyset;
+	}
+
+	public Object[] getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(Object[] cursor) {
+		this.cursor = cursor;
+	}
+
+	public boolean isKeysetCount() {
+		return keysetCount;
+	}
+
+	public void setKeysetCount(boolean keysetCount) {
+		this.keysetCount = keysetCount;
+	}
+
+	public Object[] getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(Object[] nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * 键集分页没有页码，总记录数通常也不需要，未设置keysetCount时同样跳过count查询
+	 */
+	public boolean isSkipCount() {
+		return skipCount || keyset && !keysetCount;
+	}
+
+	public void setSkipCount(boolean skipCount) {
+		this.skipCount = skipCount;
+	}
+
+	public Boolean getHasNext() {
+		return hasNext;
+	}
+
+	public void setHasNext(Boolean hasNext) {
+		this.hasNext = hasNext;
+	}
+
+	public boolean isWindowCount() {
+		return windowCount;
+	}
+
+	public void setWindowCount(boolean windowCount) {
+		this.windowCount = windowCount;
+	}
+
+	public boolean isEstimateTotalRows() {
+		return estimateTotalRows;
+	}
+
+	public void setEstimateTotalRows(boolean estimateTotalRows) {
+		this.estimateTotalRows = estimateTotalRows;
+	}
+
+	public Boolean getTotalRowsExact() {
+		return totalRowsExact;
+	}
+
+	public void setTotalRowsExact(Boolean totalRowsExact) {
+		this.totalRowsExact = totalRowsExact;
+	}
+
+	public boolean isPrefetch() {
+		return prefetch;
+	}
+
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	public boolean isDeferredJoin() {
+		return deferredJoin;
+	}
+
+	public void setDeferredJoin(boolean deferredJoin) {
+		this.deferredJoin = deferredJoin;
+	}
+
+	public String getDeferredJoinKey() {
+		return deferredJoinKey;
+	}
+
+	public void setDeferredJoinKey(String deferredJoinKey) {
+		this.deferredJoinKey = deferredJoinKey;
+	}
+
 	@Override
 	public String toString() {
 		return "Page [pageNum=" + pageNum + ", pageSize=" + pageSize + ", totalPage=" + totalPage + ", totalRows="
 				+ totalRows + ", lastPage=" + lastPage + ", nextPage=" + nextPage + ", startRow=" + startRow
-				+ ", endRow=" + endRow + ", sortField=" + sortField + ", sortType=" + sortType + "]";
+				+ ", endRow=" + endRow + ", sortField=" + sortField + ", sortType=" + sortType + ", keyset=" + keyset
+				+ ", cursor=" + Arrays.toString(cursor) + ", nextCursor=" + Arrays.toString(nextCursor) + ", skipCount=" + skipCount
+				+ ", hasNext=" + hasNext + ", windowCount=" + windowCount + ", estimateTotalRows=" + estimateTotalRows + ", totalRowsExact=" + totalRowsExact + ", prefetch=" + prefetch + ", deferredJoin=" + deferredJoin + "]";
 	}
 }
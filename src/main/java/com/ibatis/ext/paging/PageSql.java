@@ -0,0 +1,37 @@
+package com.ibatis.ext.paging;
+
+/**
+ * 分页sql构造器的构造结果，包含带占位符的sql以及需要追加绑定的参数值
+ * @author fanwt7236@163.com
+ */
+public class PageSql {
+
+	private String sql;
+	//追加在原有参数之后依次绑定的参数值
+	private Object[] parameters;
+	//键集分页时，需要从本页最后一行读取作为下一页游标的列名
+	private String[] cursorColumns;
+
+	public PageSql(String sql, Object[] parameters) {
+		this(sql, parameters, null);
+	}
+
+	public PageSql(String sql, Object[] parameters, String[] cursorColumns) {
+		this.sql = sql;
+		this.parameters = parameters;
+		this.cursorColumns = cursorColumns;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public Object[] getParameters() {
+		return parameters;
+	}
+
+	public String[] getCursorColumns() {
+		return cursorColumns;
+	}
+
+}
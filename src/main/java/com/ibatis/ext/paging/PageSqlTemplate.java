@@ -0,0 +1,43 @@
+package com.ibatis.ext.paging;
+
+/**
+ * 绑定参数的分页sql模板：sql文本及与偏移量无关的参数不随页码变化，与偏移量有关的参数为偏移量加上固定的差值
+ * (如oracle的rownum &lt;= offset + limit)，翻页时只需要重新计算这些参数的值
+ * @author fanwt7236@163.com
+ */
+public class PageSqlTemplate {
+
+	private final String sql;
+	private final Object[] parameters;
+	//与偏移量有关的参数的位置及其与偏移量的差值
+	private final int[] offsetIndexes;
+	private final long[] offsetDeltas;
+
+	public PageSqlTemplate(String sql, Object[] parameters, int[] offsetIndexes, long[] offsetDeltas) {
+		this.sql = sql;
+		this.parameters = parameters;
+		this.offsetIndexes = offsetIndexes;
+		this.offsetDeltas = offsetDeltas;
+	}
+
+	/**
+	 * 从offset开始的分页sql
+	 */
+	public PageSql bind(long offset) {
+		if (this.offsetIndexes.length == 0) {
+			return new PageSql(this.sql, this.parameters);
+		}
+		Object[] values = this.parameters.clone();
+		for (int i = 0; i < this.offsetIndexes.length; i++) {
+			int index = this.offsetIndexes[i];
+			long value = offset + this.offsetDeltas[i];
+			values[index] = values[index] instanceof Integer ? (Object) Integer.valueOf((int) value) : (Object) Long.valueOf(value);
+		}
+		return new PageSql(this.sql, values);
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+}
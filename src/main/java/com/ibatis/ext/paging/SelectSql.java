@@ -0,0 +1,402 @@
+package com.ibatis.ext.paging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 轻量的select语句分析器，只识别最外层(括号、字符串、注释之外)各子句的位置，不做完整的语法分析。
+ * 非select开头、含union等集合运算、select into等无法识别的语句，parse返回null，由调用方回退到派生表包装的方式
+ * @author fanwt7236@163.com
+ */
+public class SelectSql {
+
+	static final int WORD = 0;
+	static final int QUOTED = 1;
+	static final int PLACEHOLDER = 2;
+	static final int SYMBOL = 3;
+	static final int OPEN = 4;
+	static final int CLOSE = 5;
+
+	private static final int SELECT = 0;
+	private static final int FROM = 1;
+	private static final int WHERE = 2;
+	private static final int GROUP_BY = 3;
+	private static final int HAVING = 4;
+	private static final int ORDER_BY = 5;
+	//limit/offset/fetch/for update等，统一作为语句的尾部
+	private static final int TAIL = 6;
+
+	private static final Set<String> JOIN_WORDS = new HashSet<String>(Arrays.asList("join", "inner", "left", "right", "full", "cross", "natural", "straight_join", "outer", "on", "using"));
+
+	private static final int MAX_CACHE_SIZE = 2048;
+	private static final Map<String, SelectSql> CACHE = new ConcurrentHashMap<String, SelectSql>();
+	//无法识别的sql也需要缓存，ConcurrentHashMap不能存放null，用该对象代替
+	private static final SelectSql UNPARSEABLE = new SelectSql(null);
+	private static final String[] NOT_SINGLE_TABLE = new String[0];
+
+	private String sql;
+	private boolean distinct;
+	//getSingleTable的结果，NOT_SINGLE_TABLE表示不是单表，null表示还未分析
+	private volatile String[] singleTable;
+	//各子句关键字的起始位置，不存在时为-1
+	private int[] starts = new int[] { -1, -1, -1, -1, -1, -1, -1 };
+	//各子句内容(关键字之后)的起始位置
+	private int[] bodies = new int[7];
+	//各子句最后一个单词的结束位置，不含子句末尾的注释和空白
+	private int[] ends = new int[7];
+
+	private SelectSql(String sql) {
+		this.sql = sql;
+	}
+
+	/**
+	 * 分析select语句，分析结果按sql文本缓存，同一条sql每次分页只需要一次map查找
+	 * @param sql
+	 * @return 无法识别时返回null
+	 */
+	public static SelectSql parse(String sql) {
+		SelectSql select = CACHE.get(sql);
+		if (select == null) {
+			select = doParse(sql);
+			if (select == null) {
+				select = UNPARSEABLE;
+			}
+			//动态sql可能产生大量不同的sql文本，超过上限时整体清空
+			if (CACHE.size() >= MAX_CACHE_SIZE) {
+				CACHE.clear();
+			}
+			CACHE.put(sql, select);
+		}
+		return select == UNPARSEABLE ? null : select;
+	}
+
+	private static SelectSql doParse(String sql) {
+		List<Token> tokens = tokenize(sql);
+		if (tokens.isEmpty() || !tokens.get(0).is(sql, "select")) {
+			return null;
+		}
+		SelectSql select = new SelectSql(sql);
+		select.starts[SELECT] = tokens.get(0).start;
+		select.bodies[SELECT] = tokens.get(0).end;
+		int current = SELECT;
+		for (int i = 1; i < tokens.size() && current != TAIL; i++) {
+			Token token = tokens.get(i);
+			if (token.depth != 0 || token.type != WORD) {
+				continue;
+			}
+			int clause = -1;
+			int bodyToken = i;
+			if (token.is(sql, "union") || token.is(sql, "intersect") || token.is(sql, "except") || token.is(sql, "minus")
+					|| token.is(sql, "window") || token.is(sql, "into") || token.is(sql, "select")) {
+				return null;
+			} else if (current == SELECT && (token.is(sql, "distinct") || token.is(sql, "distinctrow"))) {
+				select.distinct = true;
+				select.bodies[SELECT] = token.end;
+			} else if (current == SELECT && token.is(sql, "top")) {
+				return null;
+			} else if (token.is(sql, "from")) {
+				clause = FROM;
+			} else if (token.is(sql, "where")) {
+				clause = WHERE;
+			} else if (token.is(sql, "group") && isWord(sql, tokens, i + 1, "by")) {
+				clause = GROUP_BY;
+				bodyToken = i + 1;
+			} else if (token.is(sql, "having")) {
+				clause = HAVING;
+			} else if (token.is(sql, "order") && isWord(sql, tokens, i + 1, "by")) {
+				clause = ORDER_BY;
+				bodyToken = i + 1;
+			} else if (token.is(sql, "limit") || token.is(sql, "offset") || token.is(sql, "fetch") || token.is(sql, "for") || token.is(sql, "lock")) {
+				clause = TAIL;
+			}
+			if (clause == -1) {
+				continue;
+			}
+			//子句的顺序不对，说明不是我们能识别的语句
+			if (clause <= current) {
+				return null;
+			}
+			select.ends[current] = tokens.get(i - 1).end;
+			select.starts[clause] = token.start;
+			select.bodies[clause] = tokens.get(bodyToken).end;
+			current = clause;
+		}
+		select.ends[current] = tokens.get(tokens.size() - 1).end;
+		return select.starts[FROM] == -1 ? null : select;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public boolean isDistinct() {
+		return distinct;
+	}
+
+	/** select与from之间的字段列表 */
+	public String getSelectList() {
+		return body(SELECT);
+	}
+
+	/** from之后的表及join部分，不含from关键字 */
+	public String getFrom() {
+		return body(FROM);
+	}
+
+	public String getWhere() {
+		return body(WHERE);
+	}
+
+	public String getGroupBy() {
+		return body(GROUP_BY);
+	}
+
+	public String getHaving() {
+		return body(HAVING);
+	}
+
+	/** order by之后的排序部分，不含order by关键字 */
+	public String getOrderBy() {
+		return body(ORDER_BY);
+	}
+
+	/** limit/offset/fetch/for update等语句尾部，含关键字 */
+	public String getTail() {
+		return this.starts[TAIL] == -1 ? null : this.sql.substring(this.starts[TAIL], this.ends[TAIL]).trim();
+	}
+
+	/**
+	 * from子句只有一张表(没有join、逗号和子查询)时，返回{表名, 别名}，没有别名时别名为表名
+	 * @return 否则返回null
+	 */
+	public String[] getSingleTable() {
+		String[] singleTable = this.singleTable;
+		if (singleTable == null) {
+			singleTable = resolveSingleTable();
+			this.singleTable = singleTable == null ? NOT_SINGLE_TABLE : singleTable;
+		}
+		return singleTable == NOT_SINGLE_TABLE ? null : singleTable;
+	}
+
+	private String[] resolveSingleTable() {
+		String from = getFrom();
+		List<Token> tokens = tokenize(from);
+		int i = 0;
+		StringBuilder table = new StringBuilder();
+		//表名，可以带schema
+		while (i < tokens.size()) {
+			Token token = tokens.get(i);
+			if (token.type != WORD && token.type != QUOTED) {
+				return null;
+			}
+			table.append(token.text(from));
+			if (i + 1 < tokens.size() && tokens.get(i + 1).isSymbol(from, '.')) {
+				table.append('.');
+				i += 2;
+			} else {
+				i++;
+				break;
+			}
+		}
+		if (table.length() == 0) {
+			return null;
+		}
+		String alias = table.toString();
+		if (i < tokens.size() && tokens.get(i).is(from, "as")) {
+			i++;
+		}
+		if (i < tokens.size() && (tokens.get(i).type == WORD || tokens.get(i).type == QUOTED)) {
+			alias = tokens.get(i).text(from);
+			i++;
+		}
+		//别名之后还有内容(join、逗号、with(nolock)等)时不认为是单表
+		if (i < tokens.size() || JOIN_WORDS.contains(alias.toLowerCase())) {
+			return null;
+		}
+		return new String[] { table.toString(), alias };
+	}
+
+	/** 从select到order by之前的部分(不含order by及语句尾部) */
+	public String getSqlWithoutOrderBy() {
+		return this.sql.substring(0, endBefore(ORDER_BY)).trim();
+	}
+
+	/** 从from到order by之前的部分，不含from关键字 */
+	public String getFromToOrderBy() {
+		return this.sql.substring(this.bodies[FROM], endBefore(ORDER_BY)).trim();
+	}
+
+	/** 指定子句之前最后一个子句的结束位置 */
+	private int endBefore(int clause) {
+		for (int i = clause - 1; i >= 0; i--) {
+			if (this.starts[i] != -1) {
+				return this.ends[i];
+			}
+		}
+		return 0;
+	}
+
+	private String body(int clause) {
+		if (this.starts[clause] == -1) {
+			return null;
+		}
+		return this.bodies[clause] >= this.ends[clause] ? "" : this.sql.substring(this.bodies[clause], this.ends[clause]).trim();
+	}
+
+	/**
+	 * 拆分语句末尾最外层的order by，可用于parse无法识别的语句(如union)：order by之后不能再有limit、fetch、for update等
+	 * @param sql
+	 * @return {order by之前的部分, order by之后的排序部分}，没有末尾的order by时返回null
+	 */
+	public static String[] splitOrderBy(String sql) {
+		List<Token> tokens = tokenize(sql);
+		int orderBy = -1;
+		for (int i = 1; i < tokens.size(); i++) {
+			Token token = tokens.get(i);
+			if (token.depth != 0 || token.type != WORD) {
+				continue;
+			}
+			if (token.is(sql, "order") && isWord(sql, tokens, i + 1, "by")) {
+				orderBy = i;
+			} else if (orderBy != -1 && (token.is(sql, "limit") || token.is(sql, "offset") || token.is(sql, "fetch") || token.is(sql, "for")
+					|| token.is(sql, "lock") || token.is(sql, "union") || token.is(sql, "select"))) {
+				return null;
+			}
+		}
+		if (orderBy < 1 || orderBy + 2 >= tokens.size()) {
+			return null;
+		}
+		return new String[] { sql.substring(0, tokens.get(orderBy - 1).end).trim(), sql.substring(tokens.get(orderBy + 1).end).trim() };
+	}
+
+	/**
+	 * 统计sql片段中占位符的个数
+	 * @param sql
+	 * @return
+	 */
+	public static int countPlaceholders(String sql) {
+		if (sql == null || sql.indexOf('?') == -1) {
+			return 0;
+		}
+		int count = 0;
+		for (Token token : tokenize(sql)) {
+			if (token.type == PLACEHOLDER) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static boolean isWord(String sql, List<Token> tokens, int index, String word) {
+		return index < tokens.size() && tokens.get(index).type == WORD && tokens.get(index).is(sql, word);
+	}
+
+	/**
+	 * 将sql切分为单词、字符串、占位符、括号及其他符号，跳过空白和注释，并记录每个单词所在的括号深度
+	 * @param sql
+	 * @return
+	 */
+	static List<Token> tokenize(String sql) {
+		List<Token> tokens = new ArrayList<Token>();
+		int depth = 0;
+		int n = sql.length();
+		int i = 0;
+		while (i < n) {
+			char c = sql.charAt(i);
+			char next = i + 1 < n ? sql.charAt(i + 1) : 0;
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '-' && next == '-') {
+				int end = sql.indexOf('\n', i);
+				i = end == -1 ? n : end + 1;
+			} else if (c == '/' && next == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end == -1 ? n : end + 2;
+			} else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+				int end = skipQuoted(sql, i, c == '[' ? ']' : c);
+				tokens.add(new Token(QUOTED, i, end, depth));
+				i = end;
+			} else if (c == '(') {
+				tokens.add(new Token(OPEN, i, i + 1, depth++));
+				i++;
+			} else if (c == ')') {
+				tokens.add(new Token(CLOSE, i, i + 1, --depth));
+				i++;
+			} else if (c == '?') {
+				tokens.add(new Token(PLACEHOLDER, i, i + 1, depth));
+				i++;
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+				int end = i + 1;
+				while (end < n && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_' || sql.charAt(end) == '$')) {
+					end++;
+				}
+				tokens.add(new Token(WORD, i, end, depth));
+				i = end;
+			} else {
+				tokens.add(new Token(SYMBOL, i, i + 1, depth));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	private static int skipQuoted(String sql, int start, char quote) {
+		int i = start + 1;
+		while (i < sql.length()) {
+			char c = sql.charAt(i);
+			if (c == '\\' && quote == '\'') {
+				i += 2;
+			} else if (c == quote) {
+				//两个连续的引号是转义
+				if (i + 1 < sql.length() && sql.charAt(i + 1) == quote && quote != ']') {
+					i += 2;
+				} else {
+					return i + 1;
+				}
+			} else {
+				i++;
+			}
+		}
+		return sql.length();
+	}
+
+	static class Token {
+		final int type;
+		final int start;
+		final int end;
+		final int depth;
+
+		Token(int type, int start, int end, int depth) {
+			this.type = type;
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+		}
+
+		boolean is(String sql, String word) {
+			return this.end - this.start == word.length() && sql.regionMatches(true, this.start, word, 0, word.length());
+		}
+
+		boolean isSymbol(String sql, char c) {
+			return this.type == SYMBOL && sql.charAt(this.start) == c;
+		}
+
+		String text(String sql) {
+			return sql.substring(this.start, this.end);
+		}
+
+		/** 去掉引号后的名称 */
+		String name(String sql) {
+			if (this.type == QUOTED) {
+				return sql.substring(this.start + 1, this.end - 1);
+			}
+			return text(sql);
+		}
+	}
+
+}
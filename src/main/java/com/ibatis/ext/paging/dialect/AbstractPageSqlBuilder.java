@@ -0,0 +1,452 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ibatis.ext.paging.CountSqlOptimizer;
+import com.ibatis.ext.paging.IPageSqlBuilder;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.PageSqlTemplate;
+import com.ibatis.ext.paging.SelectSql;
+
+/**
+ * 分页sql构造器的公共部分：偏移量计算、排序字段合并、键集分页条件，
+ * 各数据库只需要实现如何在排好序的sql上截取指定范围的行
+ * @author fanwt7236@163.com
+ */
+public abstract class AbstractPageSqlBuilder implements IPageSqlBuilder {
+
+	/**
+	 * page.windowCount为true时，分页sql中count(*) over()的列名。
+	 * oracle不带引号的标识符不能以下划线开头，因此没有使用__total
+	 */
+	public static final String TOTAL_COLUMN = "total__";
+
+	//可以移到派生表外层的排序项：可能带表别名和引号的列名，及可选的asc/desc
+	private static final String IDENTIFIER = "(?:[\\w$]+|`[^`]+`|\"[^\"]+\"|\\[[^\\]]+\\])";
+	private static final Pattern ORDER_ITEM = Pattern.compile("(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")*)(?:\\s+(asc|desc))?",
+			Pattern.CASE_INSENSITIVE);
+
+	public String buildSql(String sql, Page page) {
+		long offset = offset(page);
+		return limit(orderedSql(sql, page), offset, limit(page), null).getSql();
+	}
+
+	/**
+	 * 根据Page参数构造分页sql，偏移量和页大小以占位符的形式出现在sql中，
+	 * 同一条语句的所有页共用一个sql模板，可以复用PreparedStatement以及数据库的执行计划
+	 */
+	public PageSql buildPreparedSql(String sql, Page page) {
+		return buildPreparedSql(sql, page, offset(page));
+	}
+
+	/**
+	 * 从指定的偏移量开始的分页sql，不使用page中的页码和偏移量
+	 */
+	protected PageSql buildPreparedSql(String sql, Page page, long offset) {
+		return limit(orderedSql(sql, page), offset, limit(page), new ArrayList<Object>());
+	}
+
+	/**
+	 * buildPreparedSql的模板：以另一个偏移量再构造一次，比较两次追加的参数，找出与偏移量有关的参数及其差值。
+	 * 第一页的sql可能与其他页不同(如sql server的top)，偏移量为0时得到的模板只能用于第一页
+	 * @return sql文本随偏移量变化或参数与偏移量不是固定的差值时返回null
+	 */
+	public PageSqlTemplate buildPreparedTemplate(String sql, Page page) {
+		long offset = offset(page);
+		PageSql pageSql = buildPreparedSql(sql, page, offset);
+		Object[] parameters = pageSql.getParameters();
+		if (offset == 0) {
+			return new PageSqlTemplate(pageSql.getSql(), parameters, new int[0], new long[0]);
+		}
+		long other = offset + limit(page) + 1;
+		PageSql probe = buildPreparedSql(sql, page, other);
+		if (!pageSql.getSql().equals(probe.getSql()) || parameters.length != probe.getParameters().length) {
+			return null;
+		}
+		int[] indexes = new int[parameters.length];
+		long[] deltas = new long[parameters.length];
+		int count = 0;
+		for (int i = 0; i < parameters.length; i++) {
+			Object value = parameters[i];
+			Object probeValue = probe.getParameters()[i];
+			if (value == null ? probeValue == null : value.equals(probeValue)) {
+				continue;
+			}
+			if (!(value instanceof Long || value instanceof Integer) || !(probeValue instanceof Number)) {
+				return null;
+			}
+			long delta = ((Number) value).longValue() - offset;
+			if (((Number) probeValue).longValue() - other != delta) {
+				return null;
+			}
+			indexes[count] = i;
+			deltas[count++] = delta;
+		}
+		int[] offsetIndexes = new int[count];
+		long[] offsetDeltas = new long[count];
+		System.arraycopy(indexes, 0, offsetIndexes, 0, count);
+		System.arraycopy(deltas, 0, offsetDeltas, 0, count);
+		return new PageSqlTemplate(pageSql.getSql(), parameters, offsetIndexes, offsetDeltas);
+	}
+
+	/**
+	 * 构造键集(seek)分页sql，以上一页最后一行的排序字段值(page.cursor)为起点，
+	 * 返回的sql中新增的占位符依次对应PageSql.parameters。
+	 * 能够分析的简单select语句把游标条件合并到原有的where中：where (原条件) and (sortField > ?) order by sortField limit ?，
+	 * 数据库可以直接按排序字段的索引做范围扫描；含union、group by、已有limit等的语句，以及排序字段是字段列表中的别名时，
+	 * 使用select * from (sql) temp包装，在外层过滤和排序
+	 */
+	public PageSql buildKeysetSql(String sql, Page page) {
+		if (page.getSortField() == null || page.getSortField().trim().length() == 0) {
+			throw new IllegalArgumentException("键集分页必须指定sortField");
+		}
+		//游标从结果集中按列名读取，这里去掉排序字段的表别名
+		String[] columns = columns(page.getSortField());
+		Object[] cursor = page.getCursor();
+		if (cursor != null && cursor.length > 0 && cursor.length != columns.length) {
+			throw new IllegalArgumentException("cursor的长度与sortField的个数不一致");
+		}
+		String order = sortType(page);
+		List<Object> parameters = new ArrayList<Object>();
+		SelectSql select = SelectSql.parse(sql);
+		StringBuilder pageSql;
+		String[] fields;
+		if (isSeekable(select, page.getSortField())) {
+			fields = fields(page.getSortField());
+			pageSql = new StringBuilder("select ").append(select.isDistinct() ? "distinct " : "").append(select.getSelectList())
+					.append(" from ").append(select.getFrom());
+			if (select.getWhere() != null) {
+				pageSql.append(" where (").append(select.getWhere()).append(")");
+			}
+			if (cursor != null && cursor.length > 0) {
+				pageSql.append(select.getWhere() != null ? " and (" : " where (");
+				appendSeek(pageSql, fields, cursor, order, parameters);
+				pageSql.append(")");
+			}
+		} else {
+			//外层查询只能引用派生表的列名；外层会重新排序，内层的order by没有意义，sql server等还不允许派生表中出现order by
+			fields = columns;
+			String[] split = splitOrderBy(sql, select);
+			pageSql = new StringBuilder("select * from (").append(split == null ? sql : split[0]).append(") temp");
+			if (cursor != null && cursor.length > 0) {
+				pageSql.append(" where ");
+				appendSeek(pageSql, fields, cursor, order, parameters);
+			}
+		}
+		pageSql.append(" order by ");
+		for (int i = 0; i < fields.length; i++) {
+			pageSql.append(i > 0 ? ", " : "").append(fields[i]).append(" ").append(order);
+		}
+		PageSql limited = limit(pageSql.toString(), 0, limit(page), parameters);
+		return new PageSql(limited.getSql(), limited.getParameters(), columns);
+	}
+
+	/**
+	 * 游标条件能否直接合并到where中：游标的占位符追加在原有参数之后，因此where之后(group by、having、order by)不能有占位符，
+	 * 原有的order by会被替换，group by、having、语句尾部会改变结果的含义，排序字段也不能是字段列表中定义的别名
+	 */
+	private static boolean isSeekable(SelectSql select, String sortField) {
+		if (select == null || select.getTail() != null || select.getGroupBy() != null || select.getHaving() != null
+				|| SelectSql.countPlaceholders(select.getOrderBy()) > 0) {
+			return false;
+		}
+		String selectList = select.getSelectList().toLowerCase();
+		String[] fields = fields(sortField);
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].indexOf('.') < 0 && Pattern.compile("\\bas\\s+[`\"\\[]?" + Pattern.quote(fields[i].toLowerCase()) + "\\b").matcher(selectList).find()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * (a,b) > (?,?) 展开为 (a > ?) or (a = ? and b > ?)，便于数据库走索引的范围扫描
+	 */
+	private static void appendSeek(StringBuilder pageSql, String[] fields, Object[] cursor, String order, List<Object> parameters) {
+		String compare = "desc".equalsIgnoreCase(order) ? " < ?" : " > ?";
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				pageSql.append(" or ");
+			}
+			pageSql.append("(");
+			for (int j = 0; j < i; j++) {
+				pageSql.append(fields[j]).append(" = ? and ");
+				parameters.add(cursor[j]);
+			}
+			pageSql.append(fields[i]).append(compare).append(")");
+			parameters.add(cursor[i]);
+		}
+	}
+
+	/**
+	 * 在排好序的sql上截取从offset开始的limit行
+	 * @param sql 已合并了排序字段的sql
+	 * @param offset
+	 * @param limit
+	 * @param parameters 为null时偏移量和行数直接拼接到sql中，否则以占位符的形式出现并依次加入parameters
+	 * @return
+	 */
+	protected abstract PageSql limit(String sql, long offset, int limit, List<Object> parameters);
+
+	/**
+	 * 估算sql返回的行数，数据来自执行计划或表的统计信息，page.estimateTotalRows为true时代替count查询。
+	 * 默认不估算，返回null时执行准确的count查询
+	 * @param conn
+	 * @param sql 原sql
+	 * @param binder 绑定原sql的参数
+	 * @return
+	 * @throws SQLException
+	 */
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		return null;
+	}
+
+	/**
+	 * 估算行数时绑定原sql的参数
+	 */
+	public interface ParameterBinder {
+
+		void setParameters(PreparedStatement ps) throws SQLException;
+
+	}
+
+	/**
+	 * 没有where、group by、distinct及聚合函数的单表查询返回{schema, 表名}(schema可能为null)，其他语句返回null。
+	 * 这样的语句的行数就是表的行数，可以直接读取表的统计信息
+	 */
+	protected static String[] wholeTable(String sql) {
+		SelectSql select = SelectSql.parse(sql);
+		if (select == null || select.getTail() != null || select.getWhere() != null || select.getGroupBy() != null || select.getHaving() != null
+				|| select.isDistinct() || CountSqlOptimizer.hasAggregate(select.getSelectList()) || select.getSingleTable() == null) {
+			return null;
+		}
+		String table = select.getSingleTable()[0];
+		int dot = table.lastIndexOf('.');
+		return new String[] { dot < 0 ? null : table.substring(0, dot), table.substring(dot + 1) };
+	}
+
+	/**
+	 * 统计信息中的标识符：带引号的去掉引号保持原样，否则按upperCase转换大小写
+	 */
+	protected static String identifier(String name, boolean upperCase) {
+		if (name == null) {
+			return null;
+		}
+		char c = name.charAt(0);
+		if (c == '"' || c == '`' || c == '[') {
+			return name.substring(1, name.length() - 1);
+		}
+		return upperCase ? name.toUpperCase() : name;
+	}
+
+	/**
+	 * 执行只返回一个数值的查询，没有结果或结果为null时返回null
+	 */
+	protected static Long queryLong(Connection conn, String sql, Object... parameters) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(sql);
+		try {
+			for (int i = 0; i < parameters.length; i++) {
+				ps.setObject(i + 1, parameters[i]);
+			}
+			ResultSet rs = ps.executeQuery();
+			try {
+				if (!rs.next()) {
+					return null;
+				}
+				long value = rs.getLong(1);
+				return rs.wasNull() ? null : value;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			close(ps);
+		}
+	}
+
+	protected static void close(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * 返回占位符并记录参数值，parameters为null时直接返回参数值
+	 */
+	protected static String parameter(List<Object> parameters, Number value) {
+		if (parameters == null) {
+			return String.valueOf(value);
+		}
+		parameters.add(value);
+		return "?";
+	}
+
+	protected static PageSql pageSql(StringBuilder sql, List<Object> parameters) {
+		return new PageSql(sql.toString(), parameters == null ? new Object[0] : parameters.toArray());
+	}
+
+	/**
+	 * 合并排序字段后的sql：简单的select语句把排序字段合并到原有的order by之前，
+	 * 避免派生表被物化(先生成完整结果再截取)；
+	 * 含union、已有limit、for update等无法直接改写的语句，使用select * from (sql) temp包装，在外层排序，
+	 * 内层末尾按列名的order by(sql server等不允许出现在派生表中)也移到外层。
+	 * page.windowCount为true时，在字段列表末尾加上count(*) over() total__，窗口函数在截取之前计算，得到的是全部的行数
+	 */
+	protected static String orderedSql(String sql, Page page) {
+		boolean sorted = page.getSortField() != null && page.getSortField().trim().length() > 0;
+		boolean windowCount = page.isWindowCount() && !page.isSkipCount();
+		String order = sortType(page);
+		SelectSql select = SelectSql.parse(sql);
+		String selectList = select == null ? null : select.getSelectList();
+		if (windowCount && "*".equals(selectList) && select.getSingleTable() != null) {
+			//oracle中select *之后不能再追加字段，单表时改为别名.*
+			selectList = select.getSingleTable()[1] + ".*";
+		}
+		//distinct在窗口函数之后执行，多表的select *无法追加字段，这两种情况也需要包装
+		if (select == null || select.getTail() != null || windowCount && (select.isDistinct() || "*".equals(selectList))) {
+			//sql server等不允许派生表中出现order by，排序项都是列名时移到外层，在分页的排序字段之后
+			String[] split = splitOrderBy(sql, select);
+			String[] orderColumns = split == null ? null : orderColumns(split[1]);
+			StringBuilder pageSql = new StringBuilder(windowCount ? "select temp.*, count(*) over() " + TOTAL_COLUMN + " from (" : "select * from (")
+					.append(orderColumns == null ? sql : split[0]).append(") temp");
+			int items = 0;
+			if (sorted) {
+				//外层查询只能引用派生表的列名
+				String[] columns = columns(page.getSortField());
+				for (int i = 0; i < columns.length; i++) {
+					pageSql.append(items++ == 0 ? " order by " : ", ").append(columns[i]).append(" ").append(order);
+				}
+			}
+			if (orderColumns != null) {
+				for (int i = 0; i < orderColumns.length; i++) {
+					pageSql.append(items++ == 0 ? " order by " : ", ").append(orderColumns[i]);
+				}
+			}
+			return pageSql.toString();
+		}
+		StringBuilder pageSql = new StringBuilder();
+		if (windowCount) {
+			pageSql.append("select ").append(selectList).append(", count(*) over() ").append(TOTAL_COLUMN)
+					.append(" from ").append(select.getFromToOrderBy());
+		} else {
+			pageSql.append(select.getSqlWithoutOrderBy());
+		}
+		String orderBy = select.getOrderBy();
+		if (sorted) {
+			pageSql.append(" order by ").append(page.getSortField()).append(" ").append(order);
+			if (orderBy != null) {
+				pageSql.append(", ").append(orderBy);
+			}
+		} else if (orderBy != null) {
+			pageSql.append(" order by ").append(orderBy);
+		}
+		return pageSql.toString();
+	}
+
+	/**
+	 * 拆分包装前语句末尾的order by，语句尾部有limit等(截取依赖内层的顺序)或order by中有占位符时不拆分
+	 * @return {order by之前的部分, 排序部分}，不能拆分时返回null
+	 */
+	private static String[] splitOrderBy(String sql, SelectSql select) {
+		String[] split;
+		if (select == null) {
+			split = SelectSql.splitOrderBy(sql);
+		} else if (select.getTail() == null && select.getOrderBy() != null) {
+			split = new String[] { select.getSqlWithoutOrderBy(), select.getOrderBy() };
+		} else {
+			split = null;
+		}
+		return split == null || SelectSql.countPlaceholders(split[1]) > 0 ? null : split;
+	}
+
+	/**
+	 * 排序项去掉表别名后在外层按派生表的列名排序，保留asc/desc
+	 * @return 含函数、表达式或序号的排序项无法在外层引用，返回null
+	 */
+	private static String[] orderColumns(String orderBy) {
+		String[] items = orderBy.split(",");
+		String[] columns = new String[items.length];
+		for (int i = 0; i < items.length; i++) {
+			Matcher matcher = ORDER_ITEM.matcher(items[i].trim());
+			if (!matcher.matches()) {
+				return null;
+			}
+			String column = matcher.group(1);
+			columns[i] = column.substring(column.lastIndexOf('.') + 1).trim() + (matcher.group(2) == null ? "" : " " + matcher.group(2));
+		}
+		return columns;
+	}
+
+	private static String sortType(Page page) {
+		return page.getSortType() == null || page.getSortType().trim().length() == 0 ? "desc" : page.getSortType().trim();
+	}
+
+	/**
+	 * 排序字段按','拆分，保留表别名
+	 */
+	private static String[] fields(String sortField) {
+		String[] fields = sortField.split(",");
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = fields[i].trim();
+		}
+		return fields;
+	}
+
+	/**
+	 * 去掉排序字段的表别名和引号，多个字段用','隔开
+	 */
+	protected static String[] columns(String sortField) {
+		String[] fields = sortField.split(",");
+		String[] columns = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			String field = fields[i].trim();
+			columns[i] = unquote(field.substring(field.lastIndexOf('.') + 1));
+		}
+		return columns;
+	}
+
+	private static String unquote(String column) {
+		StringBuilder result = new StringBuilder(column.length());
+		for (int i = 0; i < column.length(); i++) {
+			char c = column.charAt(i);
+			if (c != '`' && c != '"' && c != '[' && c != ']') {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * 计算偏移量，并回填page中的pageNum/offset
+	 */
+	public static long offset(Page page) {
+		if (page.getPageNum() == null && page.getOffset() != null) {
+			page.setPageNum((int) ((page.getOffset() / page.getPageSize()) + 1));
+			return page.getOffset();
+		}
+		if (page.getPageNum() == null) {
+			page.setPageNum(1);
+		}
+		page.setOffset((long) (page.getPageNum() - 1) * page.getPageSize());
+		return page.getOffset();
+	}
+
+	/**
+	 * 查询的行数，跳过count查询时多查一行用于判断是否存在下一页
+	 */
+	public static int limit(Page page) {
+		return page.isSkipCount() ? page.getPageSize() + 1 : page.getPageSize();
+	}
+
+}
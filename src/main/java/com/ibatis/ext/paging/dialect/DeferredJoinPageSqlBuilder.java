@@ -0,0 +1,112 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.SelectSql;
+
+/**
+ * 延迟关联(late row lookup)分页：内层只按主键排序截取本页的主键，再关联回原表取完整的行，
+ * 偏移量很大且行很宽时，数据库只需要回表pageSize行，而不是offset + pageSize行。
+ * select u.* from t_user u where ... order by ... 改写为
+ * select u.* from t_user u join (select u.id pk__ from t_user u where ... order by ... limit ?,?) k on u.id = k.pk__ order by ...
+ * 截取主键的部分使用目标构造器的分页方式，因此适用于所有方言。
+ * 只有单表、占位符只出现在where中、没有distinct/group by/having的语句才会改写，其他语句使用目标构造器的普通分页
+ * @author fanwt7236@163.com
+ */
+public class DeferredJoinPageSqlBuilder extends AbstractPageSqlBuilder {
+
+	private AbstractPageSqlBuilder target;
+
+	public DeferredJoinPageSqlBuilder(AbstractPageSqlBuilder target) {
+		this.target = target;
+	}
+
+	@Override
+	public String buildSql(String sql, Page page) {
+		PageSql pageSql = deferredJoin(sql, page, offset(page), null);
+		return pageSql == null ? this.target.buildSql(sql, page) : pageSql.getSql();
+	}
+
+	@Override
+	protected PageSql buildPreparedSql(String sql, Page page, long offset) {
+		PageSql pageSql = deferredJoin(sql, page, offset, new ArrayList<Object>());
+		return pageSql == null ? this.target.buildPreparedSql(sql, page, offset) : pageSql;
+	}
+
+	@Override
+	protected PageSql limit(String sql, long offset, int limit, List<Object> parameters) {
+		return this.target.limit(sql, offset, limit, parameters);
+	}
+
+	@Override
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		return this.target.estimateRows(conn, sql, binder);
+	}
+
+	/**
+	 * 目标构造器相同的延迟关联构造器生成相同的sql，PagePlan据此缓存分页sql模板
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof DeferredJoinPageSqlBuilder && ((DeferredJoinPageSqlBuilder) obj).target.equals(this.target);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.target.hashCode() * 31 + 1;
+	}
+
+	/**
+	 * @return 不能改写时返回null
+	 */
+	private PageSql deferredJoin(String sql, Page page, long offset, List<Object> parameters) {
+		SelectSql select = SelectSql.parse(sql);
+		if (select == null || select.getTail() != null || select.isDistinct() || select.getGroupBy() != null || select.getHaving() != null) {
+			return null;
+		}
+		//多表关联时一个主键可能对应多行，关联回去会使行数翻倍
+		String[] table = select.getSingleTable();
+		if (table == null) {
+			return null;
+		}
+		//内层查询中只保留了where，占位符出现在其他位置时参数的顺序会变化
+		if (SelectSql.countPlaceholders(select.getSelectList()) > 0 || SelectSql.countPlaceholders(select.getFrom()) > 0
+				|| SelectSql.countPlaceholders(select.getOrderBy()) > 0) {
+			return null;
+		}
+		String orderBy = SelectSql.parse(AbstractPageSqlBuilder.orderedSql(sql, page)).getOrderBy();
+		String alias = table[1];
+		String key = page.getDeferredJoinKey() == null ? "id" : page.getDeferredJoinKey();
+		//主键列使用别名，避免外层order by中不带表别名的主键列产生歧义
+		StringBuilder innerSql = new StringBuilder("select ").append(alias).append(".").append(key).append(" pk__");
+		boolean windowCount = page.isWindowCount() && !page.isSkipCount();
+		if (windowCount) {
+			innerSql.append(", count(*) over() ").append(AbstractPageSqlBuilder.TOTAL_COLUMN);
+		}
+		innerSql.append(" from ").append(select.getFrom());
+		if (select.getWhere() != null) {
+			innerSql.append(" where ").append(select.getWhere());
+		}
+		if (orderBy != null) {
+			innerSql.append(" order by ").append(orderBy);
+		}
+		PageSql keys = this.target.limit(innerSql.toString(), offset, AbstractPageSqlBuilder.limit(page), parameters);
+		String selectList = "*".equals(select.getSelectList()) ? alias + ".*" : select.getSelectList();
+		if (windowCount) {
+			selectList += ", k." + AbstractPageSqlBuilder.TOTAL_COLUMN;
+		}
+		StringBuilder pageSql = new StringBuilder("select ").append(selectList).append(" from ").append(select.getFrom())
+				.append(" join (").append(keys.getSql()).append(") k on ").append(alias).append(".").append(key).append(" = k.pk__");
+		//关联后的顺序不确定，需要对本页的行重新排序
+		if (orderBy != null) {
+			pageSql.append(" order by ").append(orderBy);
+		}
+		return new PageSql(pageSql.toString(), keys.getParameters());
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * h2的分页，与postgresql相同使用limit size offset offset；
+ * 行数估算使用表的统计信息
+ * @author fanwt7236@163.com
+ */
+public class H2PageSqlBuilder extends PostgreSqlPageSqlBuilder {
+
+	/**
+	 * h2的explain没有行数，只对整表查询读取information_schema.tables.row_count_estimate
+	 */
+	@Override
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		String[] table = wholeTable(sql);
+		if (table == null) {
+			return null;
+		}
+		if (table[0] == null) {
+			return queryLong(conn, "select row_count_estimate from information_schema.tables where table_schema = schema() and table_name = ?",
+					identifier(table[1], true));
+		}
+		return queryLong(conn, "select row_count_estimate from information_schema.tables where table_schema = ? and table_name = ?",
+				identifier(table[0], true), identifier(table[1], true));
+	}
+
+}
@@ -1,30 +1,66 @@
 package com.ibatis.ext.paging.dialect;
 
-import com.ibatis.ext.paging.IPageSqlBuilder;
-import com.ibatis.ext.paging.Page;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
 
-public class MySqlPageSqlBuilder implements IPageSqlBuilder{
+import com.ibatis.ext.paging.PageSql;
 
-	public String buildSql(String sql, Page page) {
-		StringBuilder pageSql = new StringBuilder("select * from (");
-        if (page.getSortField() != null && page.getSortField().trim().length() > 0) {
-            String order = page.getSortType();
-            String[] sqlSegs = sql.split("(?i)order\\s+by");
-            pageSql.append(sqlSegs[0] + " order by " + page.getSortField() + " " + (order == null || order.trim().length() == 0 ? "desc" : order));
-            if (sqlSegs.length > 1) {
-                pageSql.append(" , " + sqlSegs[1]);
-            }
-        } else {
-            pageSql.append(sql);
-        }
-        if(page.getPageNum() != null){
-        	pageSql.append(") temp limit " + ((page.getPageNum() - 1) * page.getPageSize()) + "," + page.getPageSize());
-        	page.setOffset((long) ((page.getPageNum() - 1) * page.getPageSize()));
-        }else if(page.getOffset() != null){
-        	pageSql.append(") temp limit " + page.getOffset() + "," + page.getPageSize());
-        	page.setPageSize((int) ((page.getOffset() / page.getPageSize()) + 1));
-        }
-        return pageSql.toString();
+/**
+ * mysql/mariadb的分页：limit offset,size
+ * @author fanwt7236@163.com
+ */
+public class MySqlPageSqlBuilder extends AbstractPageSqlBuilder {
+
+	@Override
+	protected PageSql limit(String sql, long offset, int limit, List<Object> parameters) {
+		StringBuilder pageSql = new StringBuilder(sql);
+		pageSql.append(" limit ").append(parameter(parameters, offset)).append(",").append(parameter(parameters, limit));
+		return pageSql(pageSql, parameters);
+	}
+
+	/**
+	 * explain中每张表的rows * filtered / 100的乘积，即优化器估算的结果行数；
+	 * 含子查询、union、派生表的语句不估算
+	 */
+	@Override
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement("explain " + sql);
+		try {
+			binder.setParameters(ps);
+			ResultSet rs = ps.executeQuery();
+			try {
+				//mysql 5.6的explain没有filtered列
+				boolean filtered = hasColumn(rs, "filtered");
+				double rows = 1;
+				boolean found = false;
+				while (rs.next()) {
+					if (!"SIMPLE".equalsIgnoreCase(rs.getString("select_type"))) {
+						return null;
+					}
+					rows *= rs.getLong("rows") * (filtered ? rs.getDouble("filtered") / 100 : 1);
+					found = true;
+				}
+				return found ? Math.round(rows) : null;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			close(ps);
+		}
+	}
+
+	private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+		ResultSetMetaData metaData = rs.getMetaData();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 }
@@ -0,0 +1,50 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import com.ibatis.ext.paging.PageSql;
+
+/**
+ * oracle的分页：rownum <= 结束行号放在内层，oracle会将其识别为stop key(COUNT STOPKEY)，
+ * 排好序的前n行取到后即停止，不会先生成完整的结果；偏移量在外层按行号过滤
+ * @author fanwt7236@163.com
+ */
+public class OraclePageSqlBuilder extends AbstractPageSqlBuilder {
+
+	/**
+	 * 行号列的列名，与TOTAL_COLUMN一样不能以下划线开头
+	 */
+	public static final String ROW_NUMBER_COLUMN = "rn__";
+
+	/**
+	 * 第一页也使用带行号的形式，保证所有页返回的列相同(ibatis的自动结果映射只按第一次查询的列初始化)
+	 */
+	@Override
+	protected PageSql limit(String sql, long offset, int limit, List<Object> parameters) {
+		StringBuilder pageSql = new StringBuilder();
+		pageSql.append("select * from (select temp.*, rownum ").append(ROW_NUMBER_COLUMN).append(" from (").append(sql).append(") temp where rownum <= ")
+				.append(parameter(parameters, offset + limit)).append(") where ").append(ROW_NUMBER_COLUMN).append(" > ")
+				.append(parameter(parameters, offset));
+		return pageSql(pageSql, parameters);
+	}
+
+	/**
+	 * explain plan需要写入plan_table，这里只对整表查询读取all_tables.num_rows(收集统计信息时得到的行数)
+	 */
+	@Override
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		String[] table = wholeTable(sql);
+		if (table == null) {
+			return null;
+		}
+		if (table[0] == null) {
+			return queryLong(conn, "select num_rows from all_tables where owner = sys_context('userenv', 'current_schema') and table_name = ?",
+					identifier(table[1], true));
+		}
+		return queryLong(conn, "select num_rows from all_tables where owner = ? and table_name = ?", identifier(table[0], true),
+				identifier(table[1], true));
+	}
+
+}
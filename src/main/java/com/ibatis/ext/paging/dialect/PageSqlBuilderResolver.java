@@ -0,0 +1,66 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.paging.IPageSqlBuilder;
+
+/**
+ * 根据连接的DatabaseMetaData选择分页sql构造器，多数据源时每个数据源使用各自数据库的分页方式。
+ * 无法识别的数据库使用mysql的方式
+ * @author fanwt7236@163.com
+ */
+public class PageSqlBuilderResolver {
+
+	private static final Log log = LogFactory.getLog(PageSqlBuilderResolver.class);
+
+	private final IPageSqlBuilder mysql = new MySqlPageSqlBuilder();
+	private final IPageSqlBuilder postgresql = new PostgreSqlPageSqlBuilder();
+	private final IPageSqlBuilder oracle = new OraclePageSqlBuilder();
+	private final IPageSqlBuilder sqlServer = new SqlServerPageSqlBuilder();
+	private final IPageSqlBuilder h2 = new H2PageSqlBuilder();
+	//连接池中的物理连接会被反复使用，按连接缓存识别结果，连接被回收后自动移除。
+	//spring、连接池的包装连接每次都是新对象，调用方应传入解开后的物理连接
+	private final Map<Connection, IPageSqlBuilder> builders = Collections.synchronizedMap(new WeakHashMap<Connection, IPageSqlBuilder>());
+
+	public IPageSqlBuilder resolve(Connection conn) {
+		IPageSqlBuilder builder = this.builders.get(conn);
+		if (builder == null) {
+			String productName;
+			try {
+				productName = conn.getMetaData().getDatabaseProductName();
+			} catch (SQLException e) {
+				log.warn("无法读取数据库类型，使用mysql的分页方式: " + e.getMessage());
+				return this.mysql;
+			}
+			builder = resolve(productName);
+			this.builders.put(conn, builder);
+		}
+		return builder;
+	}
+
+	/**
+	 * 根据DatabaseMetaData.getDatabaseProductName()选择分页sql构造器
+	 * @param productName
+	 * @return
+	 */
+	public IPageSqlBuilder resolve(String productName) {
+		String name = productName == null ? "" : productName.toLowerCase();
+		if (name.contains("postgresql")) {
+			return this.postgresql;
+		} else if (name.contains("oracle")) {
+			return this.oracle;
+		} else if (name.contains("sql server")) {
+			return this.sqlServer;
+		} else if (name.equals("h2")) {
+			return this.h2;
+		}
+		return this.mysql;
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ibatis.ext.paging.PageSql;
+
+/**
+ * postgresql的分页：limit size offset offset
+ * @author fanwt7236@163.com
+ */
+public class PostgreSqlPageSqlBuilder extends AbstractPageSqlBuilder {
+
+	private static final Pattern PLAN_ROWS = Pattern.compile("rows=(\\d+)");
+
+	@Override
+	protected PageSql limit(String sql, long offset, int limit, List<Object> parameters) {
+		StringBuilder pageSql = new StringBuilder(sql);
+		pageSql.append(" limit ").append(parameter(parameters, limit)).append(" offset ").append(parameter(parameters, offset));
+		return pageSql(pageSql, parameters);
+	}
+
+	/**
+	 * explain第一行(最外层节点)的rows
+	 */
+	@Override
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement("explain " + sql);
+		try {
+			binder.setParameters(ps);
+			ResultSet rs = ps.executeQuery();
+			try {
+				if (!rs.next()) {
+					return null;
+				}
+				Matcher matcher = PLAN_ROWS.matcher(rs.getString(1));
+				return matcher.find() ? Long.valueOf(matcher.group(1)) : null;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			close(ps);
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.ibatis.ext.paging.dialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.SelectSql;
+
+/**
+ * sql server(2012及以上)的分页：第一页使用select top n，其余页使用order by ... offset ? rows fetch next ? rows only，
+ * offset fetch必须跟在order by之后，没有排序时使用order by (select null)
+ * 包装为select * from (sql) temp的语句(union、windowCount时的distinct等)，内层末尾按列名的排序会移到外层；
+ * 按表达式排序时无法移出，sql server会拒绝派生表中的order by，需要在字段列表中给表达式起别名并按别名排序
+ * @author fanwt7236@163.com
+ */
+public class SqlServerPageSqlBuilder extends AbstractPageSqlBuilder {
+
+	@Override
+	protected PageSql limit(String sql, long offset, int limit, List<Object> parameters) {
+		SelectSql select = SelectSql.parse(sql);
+		StringBuilder pageSql = new StringBuilder();
+		if (offset == 0 && select != null && select.getTail() == null) {
+			//top的位置在原有参数之前，不能以追加参数的方式绑定，这里直接拼接行数
+			pageSql.append(select.isDistinct() ? "select distinct top " : "select top ").append(limit).append(" ")
+					.append(select.getSelectList()).append(" from ").append(select.getFromToOrderBy());
+			if (select.getOrderBy() != null) {
+				pageSql.append(" order by ").append(select.getOrderBy());
+			}
+			return pageSql(pageSql, parameters);
+		}
+		pageSql.append(sql);
+		if (select == null || select.getOrderBy() == null) {
+			pageSql.append(" order by (select null)");
+		}
+		pageSql.append(" offset ").append(parameter(parameters, offset)).append(" rows fetch next ").append(parameter(parameters, limit)).append(" rows only");
+		return pageSql(pageSql, parameters);
+	}
+
+	/**
+	 * showplan不能与参数绑定同时使用，这里只对整表查询读取sys.partitions中的行数(堆或聚集索引)
+	 */
+	@Override
+	public Long estimateRows(Connection conn, String sql, ParameterBinder binder) throws SQLException {
+		String[] table = wholeTable(sql);
+		if (table == null) {
+			return null;
+		}
+		//object_id可以识别带schema和方括号的表名
+		String name = table[0] == null ? table[1] : table[0] + "." + table[1];
+		return queryLong(conn, "select sum(rows) from sys.partitions where object_id = object_id(?) and index_id in (0, 1)", name);
+	}
+
+}
@@ -7,12 +7,16 @@ import java.lang.reflect.Proxy;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import com.ibatis.ext.StreamIterator;
+import com.ibatis.ext.proxy.annotation.ForcePrimary;
 import com.ibatis.ext.proxy.annotation.Key;
 import com.ibatis.ext.proxy.annotation.Param;
+import com.ibatis.ext.routing.ReadWriteRouting;
 import com.ibatis.sqlmap.client.SqlMapClient;
 import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
 import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
@@ -41,10 +45,22 @@ class ProxyFactory implements InvocationHandler {
 	}
 
 	public Object invoke(Object target, Method method, Object[] params) throws Throwable {
+		if (method.getName().equals("toString")) {
+			return this.clazz.getName() + target.getClass().getName();
+		}
+		if (!method.isAnnotationPresent(ForcePrimary.class) && !this.clazz.isAnnotationPresent(ForcePrimary.class)) {
+			return execute(method, params);
+		}
+		ReadWriteRouting.forcePrimary();
+		try {
+			return execute(method, params);
+		} finally {
+			ReadWriteRouting.clearForcePrimary();
+		}
+	}
+
+	private Object execute(Method method, Object[] params) throws Throwable {
 		try {
-			if (method.getName().equals("toString")) {
-				return this.clazz.getName() + target.getClass().getName();
-			}
 			MappedStatement id = ((SqlMapClientImpl) this.client).getMappedStatement(this.clazz.getName() + "." + method.getName());
 			if (id.getStatementType() == StatementType.INSERT) {
 				Object value = this.client.insert(id.getId(), getParam(params, method));
@@ -65,6 +81,17 @@ class ProxyFactory implements InvocationHandler {
 					return this.client.queryForMap(id.getId(), getParam(params, method), result.key);
 				case OBJECT:
 					return this.client.queryForObject(id.getId(), getParam(params, method));
+				case ITERATOR:
+					return new StreamIterator<Object>(this.client, id.getId(), getParam(params, method));
+				case ITERABLE:
+					//每次调用iterator()都会重新执行一次流式查询
+					final String statementId = id.getId();
+					final Object param = getParam(params, method);
+					return new Iterable<Object>() {
+						public Iterator<Object> iterator() {
+							return new StreamIterator<Object>(client, statementId, param);
+						}
+					};
 				default:
 					return null;
 				}
@@ -80,6 +107,10 @@ class ProxyFactory implements InvocationHandler {
 			struct.type = ReturnType.VOID;
 		} else if (method.getReturnType().isArray() || List.class.isAssignableFrom(method.getReturnType())) {
 			struct.type = ReturnType.LIST;
+		} else if (method.getReturnType().equals(Iterator.class) || method.getReturnType().equals(StreamIterator.class)) {
+			struct.type = ReturnType.ITERATOR;
+		} else if (method.getReturnType().equals(Iterable.class)) {
+			struct.type = ReturnType.ITERABLE;
 		} else if (Map.class.isAssignableFrom(method.getReturnType())) {
 			Key key = method.getAnnotation(Key.class);
 			if (key == null) {
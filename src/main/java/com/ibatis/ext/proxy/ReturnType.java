@@ -1,6 +1,6 @@
 package com.ibatis.ext.proxy;
 
 enum ReturnType {
-    VOID, LIST, MAP, OBJECT
+    VOID, LIST, MAP, OBJECT, ITERATOR, ITERABLE
 
 }
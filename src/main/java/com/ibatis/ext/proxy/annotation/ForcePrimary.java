@@ -0,0 +1,18 @@
+package com.ibatis.ext.proxy.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 配置了读写分离时，标记的查询方法(标记在接口上时为接口的所有方法)总是在主库执行，
+ * 用于写入后需要立即读到最新数据的查询
+ * @author fanwentao
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface ForcePrimary {
+
+}
@@ -0,0 +1,16 @@
+package com.ibatis.ext.routing;
+
+/**
+ * 分片算法：根据分片键的值计算所在的分片
+ * @author fanwt7236@163.com
+ */
+public interface IShardStrategy {
+
+	/**
+	 * @param shardKey 分片键的值，不为null
+	 * @param shards 分片总数(数据源个数 * 每个数据源的分表数)
+	 * @return 0到shards-1之间的分片序号
+	 */
+	int shard(Object shardKey, int shards);
+
+}
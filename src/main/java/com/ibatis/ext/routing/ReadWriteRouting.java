@@ -0,0 +1,63 @@
+package com.ibatis.ext.routing;
+
+/**
+ * 当前线程的读写分离状态：
+ * forcePrimary()/clearForcePrimary()成对调用，期间的查询都走主库，可以嵌套；
+ * 当前线程执行过insert/update/delete后，ReplicaDataSources.primaryAfterWrite毫秒内的查询也走主库，避免读到从库尚未同步的数据
+ * @author fanwt7236@163.com
+ */
+public class ReadWriteRouting {
+
+	//forcePrimary的嵌套层数
+	private static final ThreadLocal<int[]> _FORCE_PRIMARY = new ThreadLocal<int[]>();
+	//最近一次写操作的时间
+	private static final ThreadLocal<long[]> _LAST_WRITE = new ThreadLocal<long[]>();
+
+	public static void forcePrimary() {
+		int[] depth = _FORCE_PRIMARY.get();
+		if (depth == null) {
+			depth = new int[1];
+			_FORCE_PRIMARY.set(depth);
+		}
+		depth[0]++;
+	}
+
+	public static void clearForcePrimary() {
+		int[] depth = _FORCE_PRIMARY.get();
+		if (depth != null && --depth[0] <= 0) {
+			_FORCE_PRIMARY.remove();
+		}
+	}
+
+	public static boolean isForcePrimary() {
+		return _FORCE_PRIMARY.get() != null;
+	}
+
+	/**
+	 * 记录当前线程的写操作
+	 */
+	public static void markWrite() {
+		long[] time = _LAST_WRITE.get();
+		if (time == null) {
+			time = new long[1];
+			_LAST_WRITE.set(time);
+		}
+		time[0] = System.currentTimeMillis();
+	}
+
+	/**
+	 * 当前线程在millis毫秒内是否执行过写操作
+	 */
+	public static boolean isWrittenWithin(long millis) {
+		long[] time = _LAST_WRITE.get();
+		return time != null && System.currentTimeMillis() - time[0] < millis;
+	}
+
+	/**
+	 * 清除当前线程的写操作记录，之后的查询重新走从库
+	 */
+	public static void clearWrite() {
+		_LAST_WRITE.remove();
+	}
+
+}
@@ -0,0 +1,285 @@
+package com.ibatis.ext.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import com.ibatis.common.logging.Log;
+import com.ibatis.common.logging.LogFactory;
+import com.ibatis.ext.SqlMapExecutorDelegateExt;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * 读写分离的从库：不在事务中的select语句按权重轮询从库，insert/update/delete及事务中的语句仍使用sqlMapClient配置的主库。
+ * 获取连接失败的从库被标记为不可用，后台线程每healthCheckInterval秒检查一次所有从库，恢复后重新参与轮询；
+ * 没有可用的从库时查询回到主库。
+ * spring中的配置:
+ * <pre>
+ * &lt;bean class="com.ibatis.ext.routing.ReplicaDataSources" init-method="init" destroy-method="shutdown"&gt;
+ *     &lt;property name="sqlMapClient" ref="sqlMapClient"/&gt;
+ *     &lt;property name="dataSources"&gt;&lt;list&gt;&lt;ref bean="replica1"/&gt;&lt;ref bean="replica2"/&gt;&lt;/list&gt;&lt;/property&gt;
+ *     &lt;property name="weights"&gt;&lt;list&gt;&lt;value&gt;2&lt;/value&gt;&lt;value&gt;1&lt;/value&gt;&lt;/list&gt;&lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * @author fanwt7236@163.com
+ */
+public class ReplicaDataSources {
+
+	private static final Log log = LogFactory.getLog(ReplicaDataSources.class);
+
+	private List<DataSource> dataSources = new ArrayList<DataSource>();
+	private List<Integer> weights = new ArrayList<Integer>();
+	private SqlMapClient sqlMapClient;
+	//健康检查的间隔(秒)
+	private int healthCheckInterval = 5;
+	//健康检查的超时时间(秒)
+	private int validationTimeout = 2;
+	//健康检查执行的sql，为null时使用Connection.isValid()
+	private String validationQuery;
+	//写操作之后多少毫秒内当前线程的查询仍走主库，0表示不启用
+	private long primaryAfterWrite = 1000;
+
+	private volatile Replica[] replicas;
+	//按权重展开后的轮询顺序
+	private volatile Replica[] schedule;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicLong fallbacks = new AtomicLong();
+	private ScheduledExecutorService checker;
+
+	/**
+	 * 创建轮询顺序，启动健康检查，并设置到sqlMapClient的SqlMapExecutorDelegateExt中
+	 */
+	public synchronized void init() {
+		if (this.replicas != null) {
+			return;
+		}
+		if (this.dataSources.isEmpty()) {
+			throw new IllegalStateException("没有配置从库");
+		}
+		Replica[] replicas = new Replica[this.dataSources.size()];
+		for (int i = 0; i < replicas.length; i++) {
+			int weight = i < this.weights.size() ? this.weights.get(i) : 1;
+			if (weight <= 0) {
+				throw new IllegalArgumentException("从库的权重必须大于0");
+			}
+			replicas[i] = new Replica(i, this.dataSources.get(i), weight);
+		}
+		this.schedule = schedule(replicas);
+		this.replicas = replicas;
+		if (this.healthCheckInterval > 0) {
+			this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ibatis-ext-replica-check");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.checker.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkAll();
+				}
+			}, this.healthCheckInterval, this.healthCheckInterval, TimeUnit.SECONDS);
+		}
+		if (this.sqlMapClient != null) {
+			Object delegate = ((SqlMapClientImpl) this.sqlMapClient).delegate;
+			if (!(delegate instanceof SqlMapExecutorDelegateExt)) {
+				throw new IllegalStateException("读写分离需要使用SqlExecutorExt");
+			}
+			((SqlMapExecutorDelegateExt) delegate).setReplicaDataSources(this);
+		}
+	}
+
+	/**
+	 * 平滑加权轮询：权重为{2,1}时顺序为a,b,a而不是a,a,b，同一从库的请求尽量分散
+	 */
+	private static Replica[] schedule(Replica[] replicas) {
+		int total = 0;
+		for (Replica replica : replicas) {
+			total += replica.weight;
+		}
+		Replica[] schedule = new Replica[total];
+		int[] current = new int[replicas.length];
+		for (int i = 0; i < total; i++) {
+			int best = 0;
+			for (int j = 0; j < replicas.length; j++) {
+				current[j] += replicas[j].weight;
+				if (current[j] > current[best]) {
+					best = j;
+				}
+			}
+			current[best] -= total;
+			schedule[i] = replicas[best];
+		}
+		return schedule;
+	}
+
+	/**
+	 * 按权重轮询获取一个可用从库的连接，获取失败的从库被标记为不可用并尝试下一个
+	 * @return 没有可用的从库时返回null，调用方使用主库
+	 */
+	public Connection getConnection() {
+		Replica[] schedule = this.schedule;
+		if (schedule == null) {
+			throw new IllegalStateException("ReplicaDataSources未初始化");
+		}
+		int start = this.next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < schedule.length; i++) {
+			Replica replica = schedule[(start + i) % schedule.length];
+			if (!replica.healthy) {
+				continue;
+			}
+			try {
+				Connection conn = replica.dataSource.getConnection();
+				replica.selected.incrementAndGet();
+				return conn;
+			} catch (SQLException e) {
+				markDown(replica, e);
+			}
+		}
+		this.fallbacks.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * 当前线程的查询是否必须走主库
+	 */
+	public boolean isPrimaryRequired() {
+		return ReadWriteRouting.isForcePrimary() || this.primaryAfterWrite > 0 && ReadWriteRouting.isWrittenWithin(this.primaryAfterWrite);
+	}
+
+	private void checkAll() {
+		for (Replica replica : this.replicas) {
+			try {
+				check(replica);
+				if (!replica.healthy) {
+					replica.healthy = true;
+					log.warn("从库[" + replica.index + "]已恢复");
+				}
+			} catch (Exception e) {
+				markDown(replica, e);
+			}
+		}
+	}
+
+	private void check(Replica replica) throws SQLException {
+		Connection conn = replica.dataSource.getConnection();
+		try {
+			if (this.validationQuery == null) {
+				if (!conn.isValid(this.validationTimeout)) {
+					throw new SQLException("Connection.isValid()返回false");
+				}
+				return;
+			}
+			Statement statement = conn.createStatement();
+			try {
+				statement.setQueryTimeout(this.validationTimeout);
+				statement.execute(this.validationQuery);
+			} finally {
+				statement.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	private void markDown(Replica replica, Exception e) {
+		replica.failures.incrementAndGet();
+		if (replica.healthy) {
+			replica.healthy = false;
+			log.warn("从库[" + replica.index + "]不可用: " + e.getMessage());
+		}
+	}
+
+	public synchronized void shutdown() {
+		if (this.checker != null) {
+			this.checker.shutdownNow();
+			this.checker = null;
+		}
+	}
+
+	/** 第index个从库当前是否可用 */
+	public boolean isHealthy(int index) {
+		return this.replicas[index].healthy;
+	}
+
+	/** 第index个从库被选中的次数 */
+	public long getSelected(int index) {
+		return this.replicas[index].selected.get();
+	}
+
+	/** 第index个从库获取连接或健康检查失败的次数 */
+	public long getFailures(int index) {
+		return this.replicas[index].failures.get();
+	}
+
+	/** 没有可用的从库而回到主库的次数 */
+	public long getFallbacks() {
+		return this.fallbacks.get();
+	}
+
+	public void setDataSources(List<DataSource> dataSources) {
+		this.dataSources = dataSources;
+	}
+
+	/**
+	 * 与dataSources一一对应的权重，没有配置的从库权重为1
+	 */
+	public void setWeights(List<Integer> weights) {
+		this.weights = weights;
+	}
+
+	public void addDataSource(DataSource dataSource, int weight) {
+		while (this.weights.size() < this.dataSources.size()) {
+			this.weights.add(1);
+		}
+		this.dataSources.add(dataSource);
+		this.weights.add(weight);
+	}
+
+	public void setSqlMapClient(SqlMapClient sqlMapClient) {
+		this.sqlMapClient = sqlMapClient;
+	}
+
+	public void setHealthCheckInterval(int healthCheckInterval) {
+		this.healthCheckInterval = healthCheckInterval;
+	}
+
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	public void setPrimaryAfterWrite(long primaryAfterWrite) {
+		this.primaryAfterWrite = primaryAfterWrite;
+	}
+
+	private static class Replica {
+		final int index;
+		final DataSource dataSource;
+		final int weight;
+		volatile boolean healthy = true;
+		final AtomicLong selected = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+
+		Replica(int index, DataSource dataSource, int weight) {
+			this.index = index;
+			this.dataSource = dataSource;
+			this.weight = weight;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.ibatis.ext.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.ibatis.ext.SqlMapExecutorDelegateExt;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
+
+/**
+ * 水平分片的数据源：匹配分片规则的语句按分片键在对应分片的数据源上执行，并把逻辑表名改写为物理表名；
+ * 没有分片键的查询在所有分片上并行执行后合并结果，update/delete在所有分片上依次执行。
+ * 分片的连接通过spring的DataSourceUtils获取，在DataSourcesTransactionManager(dataSources包含所有分片)的事务中执行时，
+ * 跨分片的写操作在同一个事务中提交或回滚；分片的连接不属于ibatis的事务，不能在startTransaction开启的事务中写分片。
+ * spring中的配置:
+ * <pre>
+ * &lt;bean class="com.ibatis.ext.routing.ShardDataSources" init-method="init" destroy-method="shutdown"&gt;
+ *     &lt;property name="sqlMapClient" ref="sqlMapClient"/&gt;
+ *     &lt;property name="dataSources"&gt;&lt;list&gt;&lt;ref bean="shard0"/&gt;&lt;ref bean="shard1"/&gt;&lt;/list&gt;&lt;/property&gt;
+ *     &lt;property name="rules"&gt;&lt;list&gt;
+ *         &lt;bean class="com.ibatis.ext.routing.ShardRule"&gt;
+ *             &lt;property name="statementRegEx" value="order\..*"/&gt;
+ *             &lt;property name="shardKey" value="userId"/&gt;
+ *             &lt;property name="tables" value="t_order,t_order_item"/&gt;
+ *         &lt;/bean&gt;
+ *     &lt;/list&gt;&lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * @author fanwt7236@163.com
+ */
+public class ShardDataSources {
+
+	private List<DataSource> dataSources = new ArrayList<DataSource>();
+	private List<ShardRule> rules = new ArrayList<ShardRule>();
+	private SqlMapClient sqlMapClient;
+	//并行查询所有分片的线程数，默认为数据源个数的2倍，线程都忙时在调用方线程中执行
+	private int fanOutThreads;
+
+	private ExecutorService executor;
+	//每个MappedStatement匹配的规则，ConcurrentHashMap不能存放null，不分片的语句用该对象代替
+	private static final ShardRule NONE = new ShardRule();
+	private final Map<MappedStatement, ShardRule> statementRules = new ConcurrentHashMap<MappedStatement, ShardRule>();
+
+	/**
+	 * 创建并行查询的线程池，并设置到sqlMapClient的SqlMapExecutorDelegateExt中
+	 */
+	public synchronized void init() {
+		if (this.executor != null) {
+			return;
+		}
+		if (this.dataSources.isEmpty()) {
+			throw new IllegalStateException("没有配置分片的数据源");
+		}
+		if (!isSpringPresent()) {
+			throw new IllegalStateException("分片通过spring的DataSourceUtils获取连接，classpath中没有spring-jdbc");
+		}
+		int threads = this.fanOutThreads > 0 ? this.fanOutThreads : this.dataSources.size() * 2;
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ibatis-ext-shard-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+		if (this.sqlMapClient != null) {
+			Object delegate = ((SqlMapClientImpl) this.sqlMapClient).delegate;
+			if (!(delegate instanceof SqlMapExecutorDelegateExt)) {
+				throw new IllegalStateException("分片需要使用SqlExecutorExt");
+			}
+			((SqlMapExecutorDelegateExt) delegate).setShardDataSources(this);
+		}
+	}
+
+	private static boolean isSpringPresent() {
+		try {
+			Class.forName("org.springframework.jdbc.datasource.DataSourceUtils", false, ShardDataSources.class.getClassLoader());
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * statement匹配的第一个分片规则
+	 * @return 不分片的statement返回null
+	 */
+	public ShardRule getRule(MappedStatement statement) {
+		ShardRule rule = this.statementRules.get(statement);
+		if (rule == null) {
+			rule = NONE;
+			for (ShardRule r : this.rules) {
+				if (r.matches(statement.getId())) {
+					rule = r;
+					break;
+				}
+			}
+			this.statementRules.put(statement, rule);
+		}
+		return rule == NONE ? null : rule;
+	}
+
+	/** 规则的分片总数 */
+	public int getShards(ShardRule rule) {
+		return this.dataSources.size() * rule.getTablesPerShard();
+	}
+
+	/** 分片所在的数据源 */
+	public DataSource getDataSource(ShardRule rule, int shard) {
+		return this.dataSources.get(shard / rule.getTablesPerShard());
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public synchronized void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	public List<DataSource> getDataSources() {
+		return dataSources;
+	}
+
+	public void setDataSources(List<DataSource> dataSources) {
+		this.dataSources = dataSources;
+	}
+
+	public void setRules(List<ShardRule> rules) {
+		this.rules = rules;
+	}
+
+	public void addRule(ShardRule rule) {
+		this.rules.add(rule);
+	}
+
+	public void setSqlMapClient(SqlMapClient sqlMapClient) {
+		this.sqlMapClient = sqlMapClient;
+	}
+
+	public void setFanOutThreads(int fanOutThreads) {
+		this.fanOutThreads = fanOutThreads;
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.ibatis.ext.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.ibatis.common.beans.ProbeException;
+import com.ibatis.common.beans.ProbeFactory;
+import com.ibatis.ext.paging.SelectSql;
+
+/**
+ * 合并多个分片的查询结果：按page的排序字段及sql最外层的order by对合并后的行重新排序。
+ * 排序字段去掉表别名和引号后作为列名，从Map类型的行中按列名(不区分大小写)读取，
+ * 从JavaBean中按同名属性或去掉下划线的驼峰属性读取；含函数、表达式的排序项及其之后的排序项被忽略
+ * @author fanwt7236@163.com
+ */
+public class ShardResultMerger {
+
+	/**
+	 * @param rows 各分片结果依次拼接的行，在原list上排序
+	 * @param sortField page的排序字段，可以为null
+	 * @param sortType page的排序方式，为空时同SqlExecutorExt默认为desc
+	 * @param sql 分片执行的原sql，可以为null
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static void sort(List rows, String sortField, String sortType, String sql) {
+		final List<String> columns = new ArrayList<String>();
+		final List<Boolean> descending = new ArrayList<Boolean>();
+		if (sortField != null && sortField.trim().length() > 0) {
+			boolean desc = sortType == null || sortType.trim().length() == 0 || "desc".equalsIgnoreCase(sortType.trim());
+			for (String field : sortField.split(",")) {
+				columns.add(column(field));
+				descending.add(desc);
+			}
+		}
+		SelectSql select = sql == null ? null : SelectSql.parse(sql);
+		if (select != null && select.getOrderBy() != null) {
+			for (String item : select.getOrderBy().split(",")) {
+				String[] words = item.trim().split("\\s+");
+				if (item.indexOf('(') >= 0 || words.length > 2 && !words[words.length - 2].equalsIgnoreCase("nulls")) {
+					break;
+				}
+				columns.add(column(words[0]));
+				descending.add(words.length > 1 && "desc".equalsIgnoreCase(words[1]));
+			}
+		}
+		if (columns.isEmpty() || rows.size() < 2) {
+			return;
+		}
+		Collections.sort(rows, new Comparator() {
+			public int compare(Object a, Object b) {
+				for (int i = 0; i < columns.size(); i++) {
+					int c = compareValue(value(a, columns.get(i)), value(b, columns.get(i)));
+					if (c != 0) {
+						return descending.get(i) ? -c : c;
+					}
+				}
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * null排在最前(同mysql)
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static int compareValue(Object a, Object b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		if (a instanceof Comparable) {
+			return ((Comparable) a).compareTo(b);
+		}
+		return String.valueOf(a).compareTo(String.valueOf(b));
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Object value(Object row, String column) {
+		if (row == null) {
+			return null;
+		}
+		if (row instanceof Map) {
+			Map map = (Map) row;
+			if (map.containsKey(column)) {
+				return map.get(column);
+			}
+			for (Object key : map.keySet()) {
+				if (key instanceof String && ((String) key).equalsIgnoreCase(column)) {
+					return map.get(key);
+				}
+			}
+			return null;
+		}
+		try {
+			return ProbeFactory.getProbe(row).getObject(row, column);
+		} catch (ProbeException e) {
+			return ProbeFactory.getProbe(row).getObject(row, camelCase(column));
+		}
+	}
+
+	private static String camelCase(String column) {
+		StringBuilder result = new StringBuilder(column.length());
+		boolean upper = false;
+		for (int i = 0; i < column.length(); i++) {
+			char c = column.charAt(i);
+			if (c == '_') {
+				upper = result.length() > 0;
+			} else {
+				result.append(upper ? Character.toUpperCase(c) : Character.toLowerCase(c));
+				upper = false;
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * 去掉表别名和引号
+	 */
+	private static String column(String field) {
+		String column = field.trim();
+		column = column.substring(column.lastIndexOf('.') + 1);
+		StringBuilder result = new StringBuilder(column.length());
+		for (int i = 0; i < column.length(); i++) {
+			char c = column.charAt(i);
+			if (c != '`' && c != '"' && c != '[' && c != ']') {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.ibatis.ext.routing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ibatis.common.beans.ProbeException;
+import com.ibatis.common.beans.ProbeFactory;
+
+/**
+ * 分片规则：statementId匹配statementRegEx的语句，按参数对象中shardKey属性的值计算分片，
+ * 分片n位于第n / tablesPerShard个数据源，sql中tables列出的逻辑表名替换为String.format(tableFormat, 表名, n)。
+ * 参数是数字、字符串等简单类型时，参数本身就是分片键的值
+ * @author fanwt7236@163.com
+ */
+public class ShardRule {
+
+	private Pattern statementRegEx;
+	private String shardKey;
+	private String[] tables = new String[0];
+	private Pattern tablePattern;
+	//每个数据源中的分表数
+	private int tablesPerShard = 1;
+	//物理表名的格式，参数为逻辑表名和分片序号
+	private String tableFormat = "%s_%d";
+	//为null时数字按值取模，其他类型按hashCode取模
+	private IShardStrategy strategy;
+
+	public boolean matches(String statementId) {
+		return this.statementRegEx != null && this.statementRegEx.matcher(statementId).matches();
+	}
+
+	/**
+	 * 从参数对象中读取分片键的值
+	 * @return 参数中没有分片键时返回null
+	 */
+	public Object getShardKeyValue(Object parameter) {
+		if (parameter == null) {
+			return null;
+		}
+		if (parameter instanceof Number || parameter instanceof CharSequence || parameter instanceof Character) {
+			return parameter;
+		}
+		try {
+			return ProbeFactory.getProbe(parameter).getObject(parameter, this.shardKey);
+		} catch (ProbeException e) {
+			return null;
+		}
+	}
+
+	public int shard(Object shardKeyValue, int shards) {
+		if (this.strategy != null) {
+			return this.strategy.shard(shardKeyValue, shards);
+		}
+		long value = shardKeyValue instanceof Number ? ((Number) shardKeyValue).longValue() : shardKeyValue.hashCode();
+		return (int) ((value % shards + shards) % shards);
+	}
+
+	/**
+	 * 把sql中的逻辑表名替换为分片的物理表名，表名前后不能是字母、数字或下划线
+	 */
+	public String rewrite(String sql, int shard) {
+		if (this.tablePattern == null) {
+			return sql;
+		}
+		Matcher matcher = this.tablePattern.matcher(sql);
+		if (!matcher.find()) {
+			return sql;
+		}
+		Map<String, String> physical = new HashMap<String, String>();
+		StringBuffer result = new StringBuffer(sql.length() + 16);
+		do {
+			String table = matcher.group(1);
+			String name = physical.get(table);
+			if (name == null) {
+				name = String.format(this.tableFormat, table, shard);
+				physical.put(table, name);
+			}
+			matcher.appendReplacement(result, Matcher.quoteReplacement(name));
+		} while (matcher.find());
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	public void setStatementRegEx(String statementRegEx) {
+		this.statementRegEx = Pattern.compile(statementRegEx);
+	}
+
+	public String getShardKey() {
+		return shardKey;
+	}
+
+	public void setShardKey(String shardKey) {
+		this.shardKey = shardKey;
+	}
+
+	/**
+	 * 逻辑表名，多个表用','隔开
+	 */
+	public void setTables(String tables) {
+		String[] names = tables.split(",");
+		StringBuilder regEx = new StringBuilder("(?<![\\w$])(");
+		for (int i = 0; i < names.length; i++) {
+			names[i] = names[i].trim();
+			regEx.append(i > 0 ? "|" : "").append(Pattern.quote(names[i]));
+		}
+		regEx.append(")(?![\\w$])");
+		this.tables = names;
+		this.tablePattern = Pattern.compile(regEx.toString(), Pattern.CASE_INSENSITIVE);
+	}
+
+	public String[] getTables() {
+		return tables;
+	}
+
+	public int getTablesPerShard() {
+		return tablesPerShard;
+	}
+
+	public void setTablesPerShard(int tablesPerShard) {
+		if (tablesPerShard <= 0) {
+			throw new IllegalArgumentException("tablesPerShard必须大于0");
+		}
+		this.tablesPerShard = tablesPerShard;
+	}
+
+	public void setTableFormat(String tableFormat) {
+		this.tableFormat = tableFormat;
+	}
+
+	public void setStrategy(IShardStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.ibatis.ext.routing;
+
+import java.sql.Connection;
+
+import com.ibatis.sqlmap.engine.transaction.user.UserProvidedTransaction;
+
+/**
+ * 在分片上执行语句时session使用的事务：连接来自分片的数据源，
+ * SqlExecutorExt执行sql之前通过rewrite把逻辑表名替换为该分片的物理表名
+ * @author fanwt7236@163.com
+ */
+public class ShardTransaction extends UserProvidedTransaction {
+
+	private final ShardRule rule;
+	private final int shard;
+	//第一条执行的原sql(嵌套查询在其后执行)，合并多个分片的结果时用于读取order by
+	private String sql;
+
+	public ShardTransaction(Connection connection, ShardRule rule, int shard) {
+		super(connection);
+		this.rule = rule;
+		this.shard = shard;
+	}
+
+	public String rewrite(String sql) {
+		if (this.sql == null) {
+			this.sql = sql;
+		}
+		return this.rule.rewrite(sql, this.shard);
+	}
+
+	public ShardRule getRule() {
+		return rule;
+	}
+
+	public int getShard() {
+		return shard;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+}
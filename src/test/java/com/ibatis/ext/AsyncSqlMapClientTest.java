@@ -0,0 +1,165 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.ext.routing.ReadWriteRouting;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class AsyncSqlMapClientTest {
+
+	private static volatile CountDownLatch latch = new CountDownLatch(0);
+	private static volatile CountDownLatch started = new CountDownLatch(0);
+
+	private SqlMapClient client;
+	private AsyncSqlMapClient async;
+
+	/**
+	 * 注册为h2函数await_latch，阻塞到测试放行
+	 */
+	public static int awaitLatch() throws InterruptedException {
+		started.countDown();
+		latch.await(10, TimeUnit.SECONDS);
+		return 1;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("async");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		Connection conn = dataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			st.execute("create alias if not exists await_latch for \"" + AsyncSqlMapClientTest.class.getName() + ".awaitLatch\"");
+			st.close();
+		} finally {
+			conn.close();
+		}
+		this.client = TestDatabase.newClient(dataSource, new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		latch.countDown();
+		if (this.async != null) {
+			this.async.shutdown();
+		}
+		PageSection.clear();
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void propagatePage() throws Exception {
+		this.async = new AsyncSqlMapClient(this.client, 2, 10, false);
+		Page page = new Page();
+		page.setPageNum(2);
+		page.setPageSize(10);
+		PageSection.put(page);
+		CompletableFuture<List> future = this.async.queryForListAsync("user.selectListUser", 0);
+		PageSection.clear();
+		assertEquals(10, future.get(10, TimeUnit.SECONDS).size());
+		//执行线程回填的总记录数
+		assertEquals(Long.valueOf(30), page.getTotalRows());
+	}
+
+	/**
+	 * thenApply在执行线程中同步执行时，调用方的page、forcePrimary已经还原
+	 */
+	@Test
+	public void dependentStageRunsAfterCleanup() throws Exception {
+		this.async = new AsyncSqlMapClient(this.client, 1, 10, false);
+		latch = new CountDownLatch(1);
+		started = new CountDownLatch(1);
+		PageSection.put(new Page());
+		ReadWriteRouting.forcePrimary();
+		CompletableFuture<Object> future;
+		try {
+			future = this.async.queryForObjectAsync("user.awaitLatch", null);
+		} finally {
+			ReadWriteRouting.clearForcePrimary();
+			PageSection.clear();
+		}
+		final Thread caller = Thread.currentThread();
+		CompletableFuture<Object[]> state = future.thenApply(new Function<Object, Object[]>() {
+			public Object[] apply(Object result) {
+				return new Object[] { Thread.currentThread(), PageSection.get(), ReadWriteRouting.isForcePrimary() };
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		latch.countDown();
+		Object[] values = state.get(10, TimeUnit.SECONDS);
+		assertFalse(values[0] == caller);
+		assertNull(values[1]);
+		assertEquals(Boolean.FALSE, values[2]);
+	}
+
+	@Test
+	public void rejectWhenQueueIsFull() throws Exception {
+		this.async = new AsyncSqlMapClient(this.client, 1, 1, false);
+		latch = new CountDownLatch(1);
+		started = new CountDownLatch(1);
+		CompletableFuture<Object> running = this.async.queryForObjectAsync("user.awaitLatch", null);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		CompletableFuture<Object> queued = this.async.queryForObjectAsync("user.countUser", null);
+		CompletableFuture<Object> rejected = this.async.queryForObjectAsync("user.countUser", null);
+		try {
+			rejected.get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertSame(RejectedExecutionException.class, e.getCause().getClass());
+		}
+		latch.countDown();
+		assertEquals(1, running.get(10, TimeUnit.SECONDS));
+		assertEquals(30, queued.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void threadPoolFallback() throws Exception {
+		this.async = new AsyncSqlMapClient(this.client, 3, 10, false);
+		assertFalse(this.async.isVirtualThreads());
+		assertEquals(3, this.async.getThreads());
+		assertEquals(30, this.async.queryForObjectAsync("user.countUser", null).get(10, TimeUnit.SECONDS));
+		this.async.shutdown();
+		//java21以下没有虚拟线程，退回到线程池
+		this.async = new AsyncSqlMapClient(this.client, 3, 10, true);
+		assertEquals(hasVirtualThreads(), this.async.isVirtualThreads());
+		assertEquals(30, this.async.queryForObjectAsync("user.countUser", null).get(10, TimeUnit.SECONDS));
+	}
+
+	private static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+}
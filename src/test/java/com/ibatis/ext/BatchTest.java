@@ -0,0 +1,113 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.metrics.ExecutionSnapshot;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * insertBatch/updateBatch返回的每行行数，以及每chunkSize行执行一次executeBatch(指标中每批计为一次执行)
+ * @author fanwt7236@163.com
+ */
+public class BatchTest {
+
+	private SqlMapClient client;
+	private SqlMapExecutorDelegateExt delegate;
+	private SqlExecutorExt executor;
+
+	@Before
+	public void setUp() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("batch");
+		TestDatabase.createUsers(dataSource, "user", 10);
+		Properties props = new Properties();
+		props.setProperty("metricsEnabled", "true");
+		props.setProperty("metricsJmxEnabled", "false");
+		this.client = TestDatabase.newClient(dataSource, props);
+		this.delegate = (SqlMapExecutorDelegateExt) ((SqlMapClientImpl) this.client).getDelegate();
+		this.executor = (SqlExecutorExt) this.delegate.getSqlExecutor();
+	}
+
+	@Test
+	public void insertBatchFlushesEveryChunk() throws Exception {
+		List<Map<String, Object>> users = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 25; i++) {
+			users.add(user("batch" + i, 200 + i));
+		}
+		int[] rows = this.delegate.insertBatch("user.insertUser", users, 10);
+		int[] expected = new int[25];
+		Arrays.fill(expected, 1);
+		assertArrayEquals(expected, rows);
+		assertEquals(35, this.client.queryForObject("user.countUser"));
+		//25行分3批提交
+		ExecutionSnapshot execution = this.executor.getMetricsRegistry().snapshot("user.insertUser").getExecution();
+		assertEquals(3, execution.getCalls());
+		assertEquals(25, execution.getRows());
+	}
+
+	@Test
+	public void updateBatchReturnsRowsPerParameter() throws Exception {
+		List<Map<String, Object>> users = new ArrayList<Map<String, Object>>();
+		users.add(user("renamed1", 1));
+		users.add(user("renamed500", 500));
+		users.add(user("renamed3", 3));
+		int[] rows = this.delegate.updateBatch("user.updateUserName", users, 2);
+		assertArrayEquals(new int[] { 1, 0, 1 }, rows);
+		assertEquals("renamed1", this.client.queryForObject("user.getName", 1L));
+		assertEquals("user2", this.client.queryForObject("user.getName", 2L));
+		assertEquals("renamed3", this.client.queryForObject("user.getName", 3L));
+		ExecutionSnapshot execution = this.executor.getMetricsRegistry().snapshot("user.updateUserName").getExecution();
+		assertEquals(2, execution.getCalls());
+		assertEquals(2, execution.getRows());
+	}
+
+	@Test
+	public void rejectsInvalidChunkSize() throws Exception {
+		try {
+			this.delegate.insertBatch("user.insertUser", new ArrayList<Object>(), 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsInsideStartBatch() throws Exception {
+		this.client.startTransaction();
+		try {
+			this.client.startBatch();
+			try {
+				this.delegate.insertBatch("user.insertUser", new ArrayList<Object>(), 10);
+				fail();
+			} catch (SQLException e) {
+				// expected
+			}
+			this.client.executeBatch();
+		} finally {
+			this.client.endTransaction();
+		}
+	}
+
+	private static Map<String, Object> user(String name, int age) {
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", name);
+		user.put("age", age);
+		return user;
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void adaptiveStartsAtMax() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("concurrencyLimit.report.regEx", "report\\..*");
+		props.setProperty("concurrencyLimit.report.max", "4");
+		props.setProperty("concurrencyLimit.report.adaptive", "true");
+		ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter(props).getLimit("report.select");
+		assertEquals(4, limit.getLimit());
+		//刚启动时并发的请求不应被拒绝，同一线程的嵌套调用不重复计数，这里每个请求使用单独的线程
+		final ConcurrencyLimiter.Limit target = limit;
+		final CountDownLatch acquired = new CountDownLatch(4);
+		final CountDownLatch done = new CountDownLatch(1);
+		for (int i = 0; i < 4; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						target.acquire("report.select");
+						acquired.countDown();
+						done.await();
+						target.release();
+					} catch (Exception e) {
+						// 被拒绝时acquired不会减到0
+					}
+				}
+			}.start();
+		}
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(4, limit.getInFlight());
+		done.countDown();
+		assertEquals(0, limit.getRejected());
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.LruCountCache;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 缓存命中时不执行count查询：查询之后直接插入的行不影响缓存的总记录数，直到缓存过期
+ * @author fanwt7236@163.com
+ */
+public class CountCacheTest {
+
+	private DataSource dataSource;
+	private SqlMapClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.dataSource = TestDatabase.dataSource("countCache");
+		TestDatabase.createUsers(this.dataSource, "user", 20);
+		Properties props = new Properties();
+		props.setProperty("pagingCountCacheClass", LruCountCache.class.getName());
+		props.setProperty("pagingCountCacheTtl", "1");
+		this.client = TestDatabase.newClient(this.dataSource, props);
+	}
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void hitAndExpire() throws Exception {
+		assertEquals(Long.valueOf(20), totalRows(1, 0));
+		insertUsers(5);
+		//翻页及重复查询命中缓存
+		assertEquals(Long.valueOf(20), totalRows(2, 0));
+		assertEquals(Long.valueOf(20), totalRows(1, 0));
+		//参数不同的查询单独缓存
+		assertEquals(Long.valueOf(25), totalRows(1, 1));
+		Thread.sleep(1100);
+		assertEquals(Long.valueOf(25), totalRows(2, 0));
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		LruCountCache cache = new LruCountCache();
+		Properties props = new Properties();
+		props.setProperty("pagingCountCacheSize", "2");
+		cache.setProperties(props);
+		cache.putTotalRows("a", 1);
+		cache.putTotalRows("b", 2);
+		assertEquals(Long.valueOf(1), cache.getTotalRows("a"));
+		cache.putTotalRows("c", 3);
+		assertNull(cache.getTotalRows("b"));
+		assertEquals(Long.valueOf(1), cache.getTotalRows("a"));
+		assertEquals(Long.valueOf(3), cache.getTotalRows("c"));
+	}
+
+	private Long totalRows(int pageNum, int minAge) throws Exception {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		PageSection.put(page);
+		try {
+			Map<String, Object> param = new HashMap<String, Object>();
+			param.put("minAge", minAge);
+			this.client.queryForList("user.selectListUserByAge", param);
+		} finally {
+			PageSection.clear();
+		}
+		return page.getTotalRows();
+	}
+
+	private void insertUsers(int rows) throws SQLException {
+		Connection conn = this.dataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			try {
+				for (int i = 0; i < rows; i++) {
+					st.executeUpdate("insert into t_user(name, age) values('new', 50)");
+				}
+			} finally {
+				st.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+}
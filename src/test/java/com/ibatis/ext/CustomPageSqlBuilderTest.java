@@ -0,0 +1,88 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.IPageSqlBuilder;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 只实现了buildSql的自定义分页sql构造器
+ * @author fanwt7236@163.com
+ */
+public class CustomPageSqlBuilderTest {
+
+	public static class LimitPageSqlBuilder implements IPageSqlBuilder {
+
+		public String buildSql(String sql, Page page) {
+			return sql + " limit " + page.getPageSize() + " offset " + (long) (page.getPageNum() - 1) * page.getPageSize();
+		}
+
+	}
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void bindParametersFallsBackToBuildSql() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("customBuilder");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		Properties props = new Properties();
+		props.setProperty("pagingBuilderClass", LimitPageSqlBuilder.class.getName());
+		props.setProperty("pagingBindParameters", "true");
+		SqlMapClient client = TestDatabase.newClient(dataSource, props);
+		Page page = new Page();
+		page.setPageNum(2);
+		page.setPageSize(10);
+		PageSection.put(page);
+		List<?> rows = client.queryForList("user.selectListUser", 0);
+		assertEquals(10, rows.size());
+		assertEquals(11L, ((Map<?, ?>) rows.get(0)).get("ID"));
+		assertEquals(Long.valueOf(30), page.getTotalRows());
+	}
+
+	/**
+	 * 自定义的构造器不会多查询一行，skipCount时无法判断是否存在下一页
+	 */
+	@Test
+	public void rejectSkipCount() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("customBuilderSkipCount");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		Properties props = new Properties();
+		props.setProperty("pagingBuilderClass", LimitPageSqlBuilder.class.getName());
+		SqlMapClient client = TestDatabase.newClient(dataSource, props);
+		Page page = new Page();
+		page.setPageNum(1);
+		page.setPageSize(10);
+		page.setSkipCount(true);
+		PageSection.put(page);
+		try {
+			client.queryForList("user.selectListUser", 0);
+			fail();
+		} catch (SQLException e) {
+			Throwable cause = e;
+			while (cause != null && !(cause instanceof IllegalStateException)) {
+				cause = cause.getCause();
+			}
+			assertNotNull(cause);
+		}
+		assertNull(page.getHasNext());
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.ext.paging.dialect.DeferredJoinPageSqlBuilder;
+import com.ibatis.ext.paging.dialect.H2PageSqlBuilder;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 延迟关联的分页sql及查询结果与普通分页相同
+ * @author fanwt7236@163.com
+ */
+public class DeferredJoinTest {
+
+	private final DeferredJoinPageSqlBuilder builder = new DeferredJoinPageSqlBuilder(new H2PageSqlBuilder());
+	private SqlMapClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("deferredJoin");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		this.client = TestDatabase.newClient(dataSource, new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void deferredJoinSql() {
+		Page page = page(2, null);
+		page.setSortField("u.age");
+		assertEquals("select u.id, u.name from t_user u join (select u.id pk__ from t_user u where u.age >= ? order by u.age desc, u.id limit ? offset ?) k"
+				+ " on u.id = k.pk__ order by u.age desc, u.id", this.builder.buildPreparedSql("select u.id, u.name from t_user u where u.age >= ? order by u.id", page).getSql());
+	}
+
+	@Test
+	public void fallbackForGroupBy() {
+		String sql = "select age, count(*) c from t_user group by age";
+		assertEquals(new H2PageSqlBuilder().buildPreparedSql(sql, page(2, null)).getSql(), this.builder.buildPreparedSql(sql, page(2, null)).getSql());
+	}
+
+	@Test
+	public void statementIdDeferred() throws Exception {
+		Page page = page(2, null);
+		assertEquals(ids("user.selectListUser", page(2, null)), ids("user.selectListUserDeferred", page));
+		assertEquals(Long.valueOf(26), page.getTotalRows());
+	}
+
+	@Test
+	public void pageDeferredWithWindowCount() throws Exception {
+		Page page = page(3, "u.age");
+		page.setDeferredJoin(true);
+		page.setWindowCount(true);
+		List<Long> ids = ids("user.selectListUserDeferred", page);
+		//age按降序排列，第3页为age 20到16
+		assertEquals(5, ids.size());
+		assertEquals(Long.valueOf(20), ids.get(0));
+		assertEquals(Long.valueOf(16), ids.get(4));
+		assertEquals(Long.valueOf(26), page.getTotalRows());
+	}
+
+	private static Page page(int pageNum, String sortField) {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(5);
+		page.setSortField(sortField);
+		return page;
+	}
+
+	private List<Long> ids(String statementId, Page page) throws Exception {
+		PageSection.put(page);
+		try {
+			List<Long> ids = new ArrayList<Long>();
+			for (Object row : this.client.queryForList(statementId, 5)) {
+				ids.add(((Number) ((Map<?, ?>) row).get("ID")).longValue());
+			}
+			return ids;
+		} finally {
+			PageSection.clear();
+		}
+	}
+
+}
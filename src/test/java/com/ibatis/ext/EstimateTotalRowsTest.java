@@ -0,0 +1,77 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * h2只能估算整表查询的行数(information_schema.tables.row_count_estimate)，
+ * 无法估算或估算值小于pagingEstimateThreshold时执行count查询
+ * @author fanwt7236@163.com
+ */
+public class EstimateTotalRowsTest {
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void estimateWholeTable() throws Exception {
+		SqlMapClient client = client("estimate", "10");
+		Page page = query(client, "user.selectListAllUser", null);
+		assertFalse(page.getTotalRowsExact());
+		assertTrue(page.getTotalRows() > 0);
+	}
+
+	@Test
+	public void countBelowThreshold() throws Exception {
+		SqlMapClient client = client("estimateThreshold", "100000");
+		Page page = query(client, "user.selectListAllUser", null);
+		assertTrue(page.getTotalRowsExact());
+		assertEquals(Long.valueOf(30), page.getTotalRows());
+	}
+
+	@Test
+	public void countWhenNotEstimable() throws Exception {
+		SqlMapClient client = client("estimateWhere", "10");
+		//带where的语句无法估算
+		Page page = query(client, "user.selectListUser", 10);
+		assertTrue(page.getTotalRowsExact());
+		assertEquals(Long.valueOf(21), page.getTotalRows());
+	}
+
+	private static SqlMapClient client(String name, String threshold) throws Exception {
+		DataSource dataSource = TestDatabase.dataSource(name);
+		TestDatabase.createUsers(dataSource, "user", 30);
+		Properties props = new Properties();
+		props.setProperty("pagingEstimateThreshold", threshold);
+		return TestDatabase.newClient(dataSource, props);
+	}
+
+	private static Page query(SqlMapClient client, String statementId, Object parameter) throws Exception {
+		Page page = new Page();
+		page.setPageNum(1);
+		page.setPageSize(10);
+		page.setEstimateTotalRows(true);
+		PageSection.put(page);
+		try {
+			assertEquals(10, client.queryForList(statementId, parameter).size());
+		} finally {
+			PageSection.clear();
+		}
+		return page;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * useGeneratedKeys=true时insert和insertBatch的主键从getGeneratedKeys()读取，并转换为selectKey的resultClass。
+ * 测试语句的selectKey返回-1，主键为-1说明执行了selectKey
+ * @author fanwt7236@163.com
+ */
+public class GeneratedKeysTest {
+
+	@Test
+	public void insertReadsGeneratedKey() throws Exception {
+		SqlMapClient client = client("generatedKey", true);
+		Map<String, Object> user = user("key");
+		client.insert("user.insertUserIntKey", user);
+		//h2返回Long，按resultClass转换为Integer
+		assertEquals(Integer.valueOf(11), user.get("id"));
+		assertEquals("key", client.queryForObject("user.getName", 11L));
+	}
+
+	@Test
+	public void convertsToStringKey() throws Exception {
+		SqlMapClient client = client("generatedStringKey", true);
+		Map<String, Object> user = user("key");
+		client.insert("user.insertUserStringKey", user);
+		assertEquals("11", user.get("id"));
+	}
+
+	@Test
+	public void selectKeyWithoutGeneratedKeys() throws Exception {
+		SqlMapClient client = client("selectKey", false);
+		Map<String, Object> user = user("key");
+		client.insert("user.insertUserIntKey", user);
+		assertEquals(Integer.valueOf(-1), user.get("id"));
+	}
+
+	@Test
+	public void insertBatchReadsGeneratedKeys() throws Exception {
+		SqlMapClient client = client("generatedKeysBatch", true);
+		List<Map<String, Object>> users = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 5; i++) {
+			users.add(user("batch" + i));
+		}
+		SqlMapExecutorDelegateExt delegate = (SqlMapExecutorDelegateExt) ((SqlMapClientImpl) client).getDelegate();
+		//每2行一批，跨批次的主键也按顺序写回
+		delegate.insertBatch("user.insertUserIntKey", users, 2);
+		for (int i = 0; i < users.size(); i++) {
+			assertEquals(Integer.valueOf(11 + i), users.get(i).get("id"));
+			assertEquals("batch" + i, client.queryForObject("user.getName", 11L + i));
+		}
+	}
+
+	private static SqlMapClient client(String name, boolean useGeneratedKeys) throws Exception {
+		DataSource dataSource = TestDatabase.dataSource(name);
+		TestDatabase.createUsers(dataSource, "user", 10);
+		Properties props = new Properties();
+		props.setProperty("useGeneratedKeys", String.valueOf(useGeneratedKeys));
+		return TestDatabase.newClient(dataSource, props);
+	}
+
+	private static Map<String, Object> user(String name) {
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", name);
+		user.put("age", 50);
+		return user;
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class KeysetPagingTest {
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void readAllPages() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("keyset");
+		TestDatabase.createUsers(dataSource, "user", 95);
+		SqlMapClient client = TestDatabase.newClient(dataSource, new Properties());
+		Object[] cursor = null;
+		long expected = 1;
+		int pages = 0;
+		while (true) {
+			Page page = new Page();
+			page.setPageSize(10);
+			page.setKeyset(true);
+			page.setSortField("id");
+			page.setSortType("asc");
+			page.setCursor(cursor);
+			PageSection.put(page);
+			List<?> rows;
+			try {
+				rows = client.queryForList("user.selectListUser", 0);
+			} finally {
+				PageSection.clear();
+			}
+			pages++;
+			for (Object row : rows) {
+				assertEquals(expected++, ((Number) ((Map<?, ?>) row).get("ID")).longValue());
+			}
+			//默认不执行count查询
+			assertNull(page.getTotalRows());
+			if (!page.getHasNext()) {
+				assertNull(page.getNextCursor());
+				break;
+			}
+			cursor = page.getNextCursor();
+			assertFalse(cursor == null);
+		}
+		assertEquals(96, expected);
+		assertEquals(10, pages);
+	}
+
+}
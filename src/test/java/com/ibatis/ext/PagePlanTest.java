@@ -0,0 +1,82 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+import com.ibatis.ext.paging.dialect.AbstractPageSqlBuilder;
+import com.ibatis.ext.paging.dialect.DeferredJoinPageSqlBuilder;
+import com.ibatis.ext.paging.dialect.H2PageSqlBuilder;
+import com.ibatis.ext.paging.dialect.OraclePageSqlBuilder;
+import com.ibatis.ext.paging.dialect.SqlServerPageSqlBuilder;
+
+/**
+ * 分页sql模板得到的sql和参数与每次直接构造的相同，翻页时复用同一个sql文本
+ * @author fanwt7236@163.com
+ */
+public class PagePlanTest {
+
+	private static final String SQL = "select u.id, u.name from t_user u where u.age >= ? order by u.id";
+
+	@Test
+	public void templateMatchesBuilder() {
+		assertTemplate(new H2PageSqlBuilder());
+		//rownum <= offset + limit
+		assertTemplate(new OraclePageSqlBuilder());
+		//第一页使用top
+		assertTemplate(new SqlServerPageSqlBuilder());
+		assertTemplate(new DeferredJoinPageSqlBuilder(new H2PageSqlBuilder()));
+	}
+
+	@Test
+	public void reuseSqlText() {
+		PagePlan plan = new PagePlan(true, false);
+		H2PageSqlBuilder builder = new H2PageSqlBuilder();
+		String sql = plan.buildPreparedSql(builder, SQL, page(2, false)).getSql();
+		assertSame(sql, plan.buildPreparedSql(builder, SQL, page(3, false)).getSql());
+		//每次新建的延迟关联构造器目标相同时共用模板
+		sql = plan.buildPreparedSql(new DeferredJoinPageSqlBuilder(builder), SQL, page(2, false)).getSql();
+		assertSame(sql, plan.buildPreparedSql(new DeferredJoinPageSqlBuilder(builder), SQL, page(5, false)).getSql());
+	}
+
+	@Test
+	public void countSqls() {
+		PagePlan plan = new PagePlan(true, false);
+		plan.putCountSql(SQL, "select count(*) from t_user u where u.age >= ?");
+		assertEquals("select count(*) from t_user u where u.age >= ?", plan.getCountSql(SQL));
+		for (int i = 0; i < 64; i++) {
+			plan.putCountSql("sql" + i, "count" + i);
+		}
+		//超过上限时整体清空
+		assertNull(plan.getCountSql(SQL));
+	}
+
+	private static void assertTemplate(AbstractPageSqlBuilder builder) {
+		PagePlan plan = new PagePlan(true, false);
+		for (boolean skipCount : new boolean[] { false, true }) {
+			for (int pageNum : new int[] { 1, 2, 3, 1, 7 }) {
+				PageSql expected = builder.buildPreparedSql(SQL, page(pageNum, skipCount));
+				Page page = page(pageNum, skipCount);
+				PageSql actual = plan.buildPreparedSql(builder, SQL, page);
+				assertEquals(expected.getSql(), actual.getSql());
+				assertArrayEquals(expected.getParameters(), actual.getParameters());
+				assertEquals(Long.valueOf((pageNum - 1) * 10L), page.getOffset());
+			}
+		}
+	}
+
+	private static Page page(int pageNum, boolean skipCount) {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		page.setSortField("u.name");
+		page.setSkipCount(skipCount);
+		return page;
+	}
+
+}
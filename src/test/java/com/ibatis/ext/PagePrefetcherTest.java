@@ -0,0 +1,108 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class PagePrefetcherTest {
+
+	private DataSource dataSource;
+	private SqlMapClient client;
+	private PagePrefetcher prefetcher;
+
+	@Before
+	public void setUp() throws Exception {
+		this.dataSource = TestDatabase.dataSource("prefetch");
+		TestDatabase.createUsers(this.dataSource, "user", 100);
+		Properties props = new Properties();
+		props.setProperty("pagingPrefetchThreads", "1");
+		this.client = TestDatabase.newClient(this.dataSource, props);
+		this.prefetcher = ((SqlExecutorExt) ((SqlMapClientImpl) this.client).delegate.getSqlExecutor()).getPagePrefetcher();
+	}
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+		this.prefetcher.shutdown();
+	}
+
+	@Test
+	public void mutatedMapDoesNotPoisonNextPage() throws Exception {
+		Map<String, Object> param = new HashMap<String, Object>();
+		param.put("minAge", 0);
+		queryPage("user.selectListUserByAge", param, 1);
+		//调用方复用同一个map查询其他条件
+		param.put("minAge", 90);
+		waitForPrefetch();
+		param.put("minAge", 0);
+		List<?> page2 = queryPage("user.selectListUserByAge", param, 2);
+		assertEquals(1, this.prefetcher.getHits());
+		assertEquals(11L, ((Map<?, ?>) page2.get(0)).get("ID"));
+	}
+
+	@Test
+	public void skipsMutableParameter() throws Exception {
+		Map<String, Object> param = new HashMap<String, Object>();
+		param.put("minAge", 0);
+		param.put("ids", new ArrayList<Object>());
+		queryPage("user.selectListUserByAge", param, 1);
+		assertEquals(0, this.prefetcher.getSubmitted());
+		assertEquals(1, this.prefetcher.getSkipped());
+	}
+
+	@Test
+	public void skipsSpringTransaction() throws Exception {
+		new TransactionTemplate(new DataSourceTransactionManager(this.dataSource)).execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					return queryPage("user.selectListUser", 0, 1);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		assertEquals(0, this.prefetcher.getSubmitted());
+	}
+
+	private List<?> queryPage(String id, Object param, int pageNum) throws Exception {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		page.setPrefetch(true);
+		PageSection.put(page);
+		try {
+			return this.client.queryForList(id, param);
+		} finally {
+			PageSection.clear();
+		}
+	}
+
+	private void waitForPrefetch() throws InterruptedException {
+		for (int i = 0; i < 100 && this.prefetcher.getCompleted() + this.prefetcher.getFailed() < this.prefetcher.getSubmitted(); i++) {
+			Thread.sleep(20);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 没有配置pagingBuilderClass时按数据库类型选择分页sql构造器：TransactionAwareDataSourceProxy每次返回新的包装连接，
+ * 同一个物理连接只读取一次DatabaseMetaData
+ * @author fanwt7236@163.com
+ */
+public class PageSqlBuilderResolverTest {
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void resolveOncePerPhysicalConnection() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("resolver");
+		TestDatabase.createUsers(dataSource, "user", 20);
+		final Connection target = dataSource.getConnection();
+		final AtomicInteger metaDataCalls = new AtomicInteger();
+		//物理连接，不能被unwrap解开
+		Connection physical = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getMetaData".equals(method.getName())) {
+							metaDataCalls.incrementAndGet();
+						} else if ("isWrapperFor".equals(method.getName())) {
+							return false;
+						}
+						try {
+							return method.invoke(target, args);
+						} catch (InvocationTargetException e) {
+							throw e.getTargetException();
+						}
+					}
+				});
+		Properties props = new Properties();
+		props.setProperty("pagingBuilderClass", "");
+		SqlMapClient client = TestDatabase.newClient(new SingleConnectionDataSource(physical, true), props);
+		try {
+			assertEquals(5, query(client, 1));
+			int calls = metaDataCalls.get();
+			assertEquals(5, query(client, 2));
+			assertEquals(5, query(client, 3));
+			assertEquals(calls, metaDataCalls.get());
+		} finally {
+			target.close();
+		}
+	}
+
+	private int query(SqlMapClient client, int pageNum) throws Exception {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(5);
+		PageSection.put(page);
+		try {
+			return client.queryForList("user.selectListUser", 0).size();
+		} finally {
+			PageSection.clear();
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * 通过QueryCoalescer.getExecutions()判断查询是否经过合并
+ * @author fanwt7236@163.com
+ */
+public class QueryCoalescerTest {
+
+	private DataSource dataSource;
+	private SqlMapClient client;
+	private QueryCoalescer coalescer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.dataSource = TestDatabase.dataSource("coalesce");
+		TestDatabase.createUsers(this.dataSource, "user", 10);
+		Properties props = new Properties();
+		props.setProperty("coalesceRegEx", "user\\..*");
+		this.client = TestDatabase.newClient(this.dataSource, props);
+		this.coalescer = ((SqlMapExecutorDelegateExt) ((SqlMapClientImpl) this.client).delegate).getQueryCoalescer();
+	}
+
+	@Test
+	public void coalescesOutsideTransaction() throws Exception {
+		assertEquals("user1", this.client.queryForObject("user.getName", 1L));
+		assertEquals(10, this.client.queryForList("user.selectListUser", 0).size());
+		assertEquals(2, this.coalescer.getExecutions());
+	}
+
+	@Test
+	public void skipsSpringTransaction() throws Exception {
+		TransactionTemplate template = new TransactionTemplate(new DataSourceTransactionManager(this.dataSource));
+		Object name = template.execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					client.insert("user.insertUser", user("new"));
+					//只有本事务能看到未提交的行
+					assertEquals(11, client.queryForList("user.selectListUser", 0).size());
+					return client.queryForObject("user.getName", 11L);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				} finally {
+					status.setRollbackOnly();
+				}
+			}
+		});
+		assertEquals("new", name);
+		assertEquals(0, this.coalescer.getExecutions());
+	}
+
+	@Test
+	public void skipsIbatisTransaction() throws Exception {
+		this.client.startTransaction();
+		try {
+			this.client.queryForObject("user.getName", 1L);
+		} finally {
+			this.client.endTransaction();
+		}
+		assertEquals(0, this.coalescer.getExecutions());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void waitersGetCopies() throws Exception {
+		List<?>[] results = coalesce(new QueryCoalescer("user\\..*"), user("a"));
+		assertEquals(results[0], results[1]);
+		assertNotSame(results[0].get(0), results[1].get(0));
+		((Map<String, Object>) results[1].get(0)).put("name", "b");
+		assertEquals("a", ((Map<?, ?>) results[0].get(0)).get("name"));
+	}
+
+	@Test
+	public void readOnlySharesRows() throws Exception {
+		List<?>[] results = coalesce(new QueryCoalescer("user\\..*", true), user("a"));
+		assertNotSame(results[0], results[1]);
+		assertSame(results[0].get(0), results[1].get(0));
+	}
+
+	@Test
+	public void notSerializableRunsOwnQuery() throws Exception {
+		QueryCoalescer coalescer = new QueryCoalescer("user\\..*");
+		List<?>[] results = coalesce(coalescer, new Object());
+		assertEquals("second", results[1].get(0));
+		assertEquals(2, coalescer.getExecutions());
+	}
+
+	/**
+	 * 第一个查询阻塞到第二个请求进入等待后才返回；第二个请求自己执行查询时返回的list只包含"second"
+	 * @return 两个请求得到的结果
+	 */
+	private static List<?>[] coalesce(final QueryCoalescer coalescer, Object row) throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Object> first = executor.submit(execute(coalescer, query(row, started, release), null));
+			started.await(10, TimeUnit.SECONDS);
+			Future<Object> second = executor.submit(execute(coalescer, query("second", new CountDownLatch(1), new CountDownLatch(0)), waiter));
+			long deadline = System.currentTimeMillis() + 10000;
+			while ((waiter.get() == null || waiter.get().getState() != Thread.State.WAITING) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			return new List<?>[] { (List<?>) first.get(10, TimeUnit.SECONDS), (List<?>) second.get(10, TimeUnit.SECONDS) };
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Callable<Object> execute(final QueryCoalescer coalescer, final QueryCoalescer.Query query, final AtomicReference<Thread> thread) {
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				if (thread != null) {
+					thread.set(Thread.currentThread());
+				}
+				return coalescer.execute("key", query);
+			}
+		};
+	}
+
+	private static QueryCoalescer.Query query(final Object row, final CountDownLatch started, final CountDownLatch release) {
+		return new QueryCoalescer.Query() {
+			public Object execute() throws SQLException {
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new SQLException(e);
+				}
+				List<Object> list = new ArrayList<Object>();
+				list.add(row);
+				return list;
+			}
+		};
+	}
+
+	private static Map<String, Object> user(String name) {
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", name);
+		user.put("age", 1);
+		return user;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * skipCount时多查询的一行只用来回填hasNext，绑定参数与拼接两种方式相同
+ * @author fanwt7236@163.com
+ */
+public class SkipCountTest {
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void bindParameters() throws Exception {
+		assertPages(client("skipCountBind", "true"));
+	}
+
+	@Test
+	public void concatenate() throws Exception {
+		assertPages(client("skipCountConcat", "false"));
+	}
+
+	private SqlMapClient client(String name, String bindParameters) throws Exception {
+		DataSource dataSource = TestDatabase.dataSource(name);
+		TestDatabase.createUsers(dataSource, "user", 25);
+		Properties props = new Properties();
+		props.setProperty("pagingBindParameters", bindParameters);
+		return TestDatabase.newClient(dataSource, props);
+	}
+
+	private void assertPages(SqlMapClient client) throws Exception {
+		Page page = query(client, 1);
+		assertTrue(page.getHasNext());
+		assertEquals(Integer.valueOf(2), page.getNextPage());
+		page = query(client, 2);
+		assertTrue(page.getHasNext());
+		page = query(client, 3);
+		assertFalse(page.getHasNext());
+		assertEquals(Integer.valueOf(3), page.getNextPage());
+		assertNull(page.getTotalRows());
+	}
+
+	private Page query(SqlMapClient client, int pageNum) throws Exception {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		page.setSkipCount(true);
+		PageSection.put(page);
+		List<?> rows;
+		try {
+			rows = client.queryForList("user.selectListUser", 0);
+		} finally {
+			PageSection.clear();
+		}
+		//多查询的一行不出现在结果中
+		assertEquals(pageNum < 3 ? 10 : 5, rows.size());
+		assertEquals((long) (pageNum - 1) * 10 + 1, ((Number) ((Map<?, ?>) rows.get(0)).get("ID")).longValue());
+		return page;
+	}
+
+}
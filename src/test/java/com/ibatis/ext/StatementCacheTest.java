@@ -0,0 +1,82 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class StatementCacheTest {
+
+	private DataSource dataSource;
+	private SqlMapClient client;
+	private StatementCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		this.dataSource = TestDatabase.dataSource("statementCache");
+		TestDatabase.createUsers(this.dataSource, "user", 10);
+		Properties props = new Properties();
+		props.setProperty("statementCacheSize", "16");
+		this.client = TestDatabase.newClient(this.dataSource, props);
+		this.cache = ((SqlExecutorExt) ((SqlMapClientImpl) this.client).delegate.getSqlExecutor()).getStatementCache();
+	}
+
+	@Test
+	public void unwrapsTransactionAwareProxy() throws Exception {
+		Connection conn = new TransactionAwareDataSourceProxy(this.dataSource).getConnection();
+		try {
+			Connection physical = StatementCache.physical(conn);
+			assertTrue(physical != conn);
+			assertSame(physical, StatementCache.physical(physical));
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Test
+	public void hitsThroughTransactionAwareProxy() throws Exception {
+		new TransactionTemplate(new DataSourceTransactionManager(this.dataSource)).execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					//同一事务中每次查询都从TransactionAwareDataSourceProxy取得新的代理连接，物理连接相同
+					for (int i = 0; i < 3; i++) {
+						assertEquals(10, client.queryForList("user.selectListUser", 0).size());
+					}
+					return null;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		assertTrue(this.cache.getHits() > 0);
+	}
+
+	@Test
+	public void physicalOfPlainConnection() throws Exception {
+		Connection conn = this.dataSource.getConnection();
+		try {
+			assertSame(conn, StatementCache.physical(conn));
+		} finally {
+			conn.close();
+		}
+	}
+
+}
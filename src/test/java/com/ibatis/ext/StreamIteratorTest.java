@@ -0,0 +1,81 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class StreamIteratorTest {
+
+	private SqlMapClient client;
+	private ThreadPoolExecutor executor;
+
+	@Before
+	public void setUp() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("stream");
+		TestDatabase.createUsers(dataSource, "user", 100);
+		Properties props = new Properties();
+		props.setProperty("streamThreads", "2");
+		props.setProperty("streamIdleTimeout", "200");
+		this.client = TestDatabase.newClient(dataSource, props);
+		this.executor = (ThreadPoolExecutor) ((SqlExecutorExt) ((SqlMapClientImpl) this.client).delegate.getSqlExecutor()).getStreamExecutor();
+	}
+
+	@Test
+	public void readAll() throws Exception {
+		StreamIterator<Object> it = new StreamIterator<Object>(this.client, "user.selectListUser", 0, 4);
+		int rows = 0;
+		while (it.hasNext()) {
+			it.next();
+			rows++;
+		}
+		assertEquals(100, rows);
+	}
+
+	@Test
+	public void abandonedIteratorReleasesThread() throws Exception {
+		//线程池只有2个线程，不关闭的迭代器超时后线程被释放，后面的查询仍能执行
+		for (int i = 0; i < 4; i++) {
+			StreamIterator<Object> it = new StreamIterator<Object>(this.client, "user.selectListUser", 0, 4);
+			assertTrue(it.hasNext());
+			it.next();
+		}
+		StreamIterator<Object> it = new StreamIterator<Object>(this.client, "user.selectListUser", 0, 4);
+		Thread.sleep(1000);
+		assertEquals(0, this.executor.getActiveCount());
+		try {
+			while (it.hasNext()) {
+				it.next();
+			}
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	@Test
+	public void close() throws Exception {
+		StreamIterator<Object> it = new StreamIterator<Object>(this.client, "user.selectListUser", 0, 4);
+		it.next();
+		it.close();
+		assertFalse(it.hasNext());
+		Thread.sleep(300);
+		assertEquals(0, this.executor.getActiveCount());
+	}
+
+}
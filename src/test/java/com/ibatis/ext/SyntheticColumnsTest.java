@@ -0,0 +1,55 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.ibatis.ext.paging.dialect.AbstractPageSqlBuilder;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+import com.ibatis.sqlmap.engine.impl.SqlMapExecutorDelegate;
+import com.ibatis.sqlmap.engine.mapping.result.AutoResultMap;
+import com.ibatis.sqlmap.engine.mapping.result.ResultMap;
+
+/**
+ * 只有自动结果映射需要初始化、且sql中追加了分页列时才包装连接
+ * @author fanwt7236@163.com
+ */
+public class SyntheticColumnsTest {
+
+	private static final String WINDOW_SQL = "select id, count(*) over() " + AbstractPageSqlBuilder.TOTAL_COLUMN + " from t_user limit ? offset ?";
+
+	@Test
+	public void onlyWhenSqlHasSyntheticColumns() {
+		AutoResultMap resultMap = new AutoResultMap(new SqlMapExecutorDelegate(), false);
+		assertTrue(SyntheticColumns.isExposed(resultMap, WINDOW_SQL));
+		assertTrue(SyntheticColumns.isExposed(resultMap, "select * from (select temp.*, rownum rn__ from (select id from t_user) temp where rownum <= ?) where rn__ > ?"));
+		assertFalse(SyntheticColumns.isExposed(resultMap, "select id from t_user limit ? offset ?"));
+	}
+
+	@Test
+	public void notForExplicitResultMap() {
+		assertFalse(SyntheticColumns.isExposed(new ResultMap(new SqlMapExecutorDelegate()), WINDOW_SQL));
+	}
+
+	@Test
+	public void remapResults() {
+		assertTrue(SyntheticColumns.isExposed(new AutoResultMap(new SqlMapExecutorDelegate(), true), WINDOW_SQL));
+	}
+
+	@Test
+	public void notAfterInitialized() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("syntheticColumns");
+		TestDatabase.createUsers(dataSource, "user", 3);
+		SqlMapClientImpl client = (SqlMapClientImpl) TestDatabase.newClient(dataSource, new Properties());
+		ResultMap resultMap = client.getMappedStatement("user.selectListUser").getResultMap();
+		assertTrue(SyntheticColumns.isExposed(resultMap, WINDOW_SQL));
+		client.queryForList("user.selectListUser", 0);
+		assertFalse(SyntheticColumns.isExposed(resultMap, WINDOW_SQL));
+	}
+
+}
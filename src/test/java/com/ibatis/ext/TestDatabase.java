@@ -0,0 +1,72 @@
+package com.ibatis.ext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 测试使用的h2内存库(mysql模式)，t_user表中的name为"名称前缀 + 序号"，age为序号 % 100。
+ * sqlMapClient与README中的spring配置相同，通过SqlMapClientFactoryBean创建，连接由TransactionAwareDataSourceProxy提供
+ * @author fanwt7236@163.com
+ */
+public class TestDatabase {
+
+	public static DataSource dataSource(String name) {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		return dataSource;
+	}
+
+	/**
+	 * 重建t_user表并插入rows行数据
+	 */
+	public static void createUsers(DataSource dataSource, String namePrefix, int rows) throws SQLException {
+		Connection conn = dataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			try {
+				st.execute("drop table if exists t_user");
+				st.execute("create table t_user(id bigint auto_increment primary key, name varchar(32), age int)");
+			} finally {
+				st.close();
+			}
+			PreparedStatement ps = conn.prepareStatement("insert into t_user(name, age) values(?, ?)");
+			try {
+				for (int i = 1; i <= rows; i++) {
+					ps.setString(1, namePrefix + i);
+					ps.setInt(2, i % 100);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			} finally {
+				ps.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * 使用SqlExecutorExt的sqlMapClient，overrides中的配置覆盖test/ext.properties
+	 */
+	public static SqlMapClient newClient(DataSource dataSource, Properties overrides) throws Exception {
+		SqlMapClientFactoryBean factoryBean = new SqlMapClientFactoryBean();
+		factoryBean.setConfigLocation(new ClassPathResource("test/sql-map-config.xml"));
+		factoryBean.setDataSource(dataSource);
+		factoryBean.setSqlMapClientProperties(overrides);
+		factoryBean.afterPropertiesSet();
+		return factoryBean.getObject();
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.ibatis.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * count(*) over()追加的total__列不出现在结果中，开启与否结果映射相同
+ * @author fanwt7236@163.com
+ */
+public class WindowCountTest {
+
+	private SqlMapClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("windowCount");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		this.client = TestDatabase.newClient(dataSource, new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		PageSection.clear();
+	}
+
+	@Test
+	public void toggleWindowCount() throws Exception {
+		Page page = page(true);
+		List<?> first = query(page);
+		assertEquals(Long.valueOf(30), page.getTotalRows());
+		//自动结果映射按第一次查询初始化，之后不带total__列的查询也要能映射
+		List<?> second = query(page(false));
+		List<?> third = query(page(true));
+		assertEquals(((Map<?, ?>) first.get(0)).keySet(), ((Map<?, ?>) second.get(0)).keySet());
+		assertEquals(((Map<?, ?>) second.get(0)).keySet(), ((Map<?, ?>) third.get(0)).keySet());
+	}
+
+	@Test
+	public void noTotalKey() throws Exception {
+		for (Object row : query(page(true))) {
+			assertFalse(((Map<?, ?>) row).containsKey("TOTAL__"));
+			assertFalse(((Map<?, ?>) row).containsKey("total__"));
+		}
+	}
+
+	private Page page(boolean windowCount) {
+		Page page = new Page();
+		page.setPageNum(1);
+		page.setPageSize(10);
+		page.setWindowCount(windowCount);
+		return page;
+	}
+
+	private List<?> query(Page page) throws Exception {
+		PageSection.put(page);
+		try {
+			return this.client.queryForList("user.selectListUser", 0);
+		} finally {
+			PageSection.clear();
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.ibatis.ext.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void linearBuckets() {
+		for (int i = 0; i < 16; i++) {
+			assertEquals(i, LatencyHistogram.bucket(i));
+			assertEquals(i, LatencyHistogram.upperBound(i));
+		}
+		//16微秒开始每个桶宽度为2
+		assertEquals(16, LatencyHistogram.bucket(16));
+		assertEquals(16, LatencyHistogram.bucket(17));
+		assertEquals(17, LatencyHistogram.bucket(18));
+		assertEquals(17, LatencyHistogram.upperBound(16));
+	}
+
+	@Test
+	public void bucketBoundaries() {
+		long lower = 0;
+		for (int i = 0; i < 311; i++) {
+			long upper = LatencyHistogram.upperBound(i);
+			//每个桶覆盖[上一个桶的上界 + 1, upper]
+			assertEquals(i, LatencyHistogram.bucket(lower));
+			assertEquals(i, LatencyHistogram.bucket(upper));
+			assertEquals(i + 1, LatencyHistogram.bucket(upper + 1));
+			assertTrue("bucket " + i, upper - lower <= lower / 8);
+			lower = upper + 1;
+		}
+	}
+
+	@Test
+	public void overflowToLastBucket() {
+		int last = LatencyHistogram.bucket(1L << 41);
+		assertEquals(last, LatencyHistogram.bucket(Long.MAX_VALUE));
+		assertEquals(last, LatencyHistogram.bucket((1L << 41) - 1));
+		assertEquals((1L << 41) - 1, LatencyHistogram.upperBound(last));
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.percentile(50));
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1, histogram.percentile(0));
+		assertEquals(1, histogram.percentile(1));
+		//50所在的桶为[48, 51]
+		assertEquals(51, histogram.percentile(50));
+		//95所在的桶为[88, 95]，99和100所在的桶为[96, 103]
+		assertEquals(95, histogram.percentile(95));
+		assertEquals(103, histogram.percentile(99));
+		assertEquals(103, histogram.percentile(100));
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(100, histogram.getMax());
+	}
+
+	@Test
+	public void percentileRankRoundsUp() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1);
+		histogram.record(2);
+		histogram.record(3);
+		//3个值的p50为第2个
+		assertEquals(2, histogram.percentile(50));
+		assertEquals(3, histogram.percentile(67));
+	}
+
+	@Test
+	public void negativeAndReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(0, histogram.percentile(100));
+		assertEquals(0, histogram.getSum());
+		histogram.record(1000);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.percentile(99));
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.ibatis.ext.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.ibatis.ext.SqlExecutorExt;
+import com.ibatis.ext.TestDatabase;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.engine.impl.SqlMapClientImpl;
+import com.ibatis.sqlmap.engine.mapping.statement.MappedStatement;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class SlowQueryLogTest {
+
+	@Test
+	public void enabledByAnyThreshold() {
+		assertFalse(SlowQueryLog.isEnabled(new Properties()));
+		assertFalse(SlowQueryLog.isEnabled(props("slowQueryThreshold", "-1")));
+		assertTrue(SlowQueryLog.isEnabled(props("slowQueryThreshold", "0")));
+		assertTrue(SlowQueryLog.isEnabled(props("slowQueryThreshold.user.getName", "10")));
+	}
+
+	@Test
+	public void statementThresholdOverridesDefault() {
+		Properties props = props("slowQueryThreshold", "100");
+		props.setProperty("slowQueryThreshold.fast", "5");
+		props.setProperty("slowQueryThreshold.ignored", "-1");
+		SlowQueryLog slowQueryLog = new SlowQueryLog(props);
+		try {
+			assertEquals(100000000L, slowQueryLog.threshold(statement("other")));
+			assertEquals(5000000L, slowQueryLog.threshold(statement("fast")));
+			assertEquals(Long.MAX_VALUE, slowQueryLog.threshold(statement("ignored")));
+		} finally {
+			slowQueryLog.shutdown();
+		}
+	}
+
+	@Test
+	public void recordsAtThreshold() {
+		SlowQueryLog slowQueryLog = new SlowQueryLog(props("slowQueryThreshold", "5"));
+		try {
+			MappedStatement statement = statement("query");
+			slowQueryLog.record(statement, "query", "select 1", null, 4999999L, 1, false, null);
+			assertEquals(0, slowQueryLog.getLogged());
+			//耗时等于阈值时记录
+			slowQueryLog.record(statement, "query", "select 1", null, 5000000L, 1, false, null);
+			slowQueryLog.record(statement, "query", "select 1", new Object[] { 1 }, 6000000L, 0, true, null);
+			assertEquals(2, slowQueryLog.getLogged());
+			assertEquals(0, slowQueryLog.getDropped());
+		} finally {
+			slowQueryLog.shutdown();
+		}
+	}
+
+	@Test
+	public void dropsWhenQueueIsFull() {
+		Properties props = props("slowQueryThreshold", "0");
+		props.setProperty("slowQueryQueueSize", "2");
+		SlowQueryLog slowQueryLog = new SlowQueryLog(props);
+		//停止输出线程，队列中的记录不再被取走
+		slowQueryLog.shutdown();
+		MappedStatement statement = statement("query");
+		for (int i = 0; i < 5; i++) {
+			slowQueryLog.record(statement, "query", "select 1", null, 1000000L, 1, false, null);
+		}
+		assertEquals(2, slowQueryLog.getLogged());
+		assertEquals(3, slowQueryLog.getDropped());
+	}
+
+	@Test
+	public void recordsSlowStatementsOfClient() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("slowQuery");
+		TestDatabase.createUsers(dataSource, "user", 10);
+		Properties props = props("slowQueryThreshold.user.getName", "0");
+		SqlMapClient client = TestDatabase.newClient(dataSource, props);
+		SlowQueryLog slowQueryLog = ((SqlExecutorExt) ((SqlMapClientImpl) client).delegate.getSqlExecutor()).getSlowQueryLog();
+		try {
+			client.queryForObject("user.countUser");
+			assertEquals(0, slowQueryLog.getLogged());
+			client.queryForObject("user.getName", 1L);
+			assertEquals(1, slowQueryLog.getLogged());
+		} finally {
+			slowQueryLog.shutdown();
+		}
+	}
+
+	private static Properties props(String name, String value) {
+		Properties props = new Properties();
+		props.setProperty(name, value);
+		return props;
+	}
+
+	private static MappedStatement statement(String id) {
+		MappedStatement statement = new MappedStatement();
+		statement.setId(id);
+		return statement;
+	}
+
+}
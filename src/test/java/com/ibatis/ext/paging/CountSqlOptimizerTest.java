@@ -0,0 +1,141 @@
+package com.ibatis.ext.paging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.TestDatabase;
+
+/**
+ * 在h2(mysql模式)上验证count语句的改写，改写后的count与包装方式的count结果相同
+ * @author fanwt7236@163.com
+ */
+public class CountSqlOptimizerTest {
+
+	private Connection conn;
+	private CountSqlOptimizer optimizer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.conn = TestDatabase.dataSource("count").getConnection();
+		Statement st = this.conn.createStatement();
+		try {
+			st.execute("drop table if exists t_emp");
+			st.execute("drop table if exists t_dept");
+			st.execute("drop table if exists t_emp_role");
+			st.execute("drop table if exists t_badge");
+			st.execute("create table t_dept(id bigint primary key, name varchar(32))");
+			st.execute("create table t_emp(id bigint primary key, dept_id bigint, name varchar(32), age int)");
+			st.execute("create table t_emp_role(emp_id bigint, role_id bigint)");
+			st.execute("create table t_badge(emp_id bigint, kind int, code varchar(16), unique(emp_id, kind))");
+			st.execute("insert into t_dept values (1, 'a'), (2, 'b')");
+			st.execute("insert into t_emp values (1, 1, 'x', 20), (2, 1, 'y', 30), (3, 2, 'z', 30), (4, null, 'w', 40)");
+			//一个员工有多个角色/徽章，join这些表会使行数翻倍
+			st.execute("insert into t_emp_role values (1, 1), (1, 2), (2, 1)");
+			st.execute("insert into t_badge values (1, 1, 'a'), (1, 2, 'b')");
+		} finally {
+			st.close();
+		}
+		this.optimizer = new CountSqlOptimizer();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.conn.close();
+	}
+
+	@Test
+	public void removeLeftJoinOnPrimaryKey() throws Exception {
+		String sql = "select e.*, d.name dept_name from t_emp e left join t_dept d on e.dept_id = d.id where e.age >= ? order by e.id";
+		assertCount("select count(*) from t_emp e where e.age >= ?", sql, 30);
+	}
+
+	@Test
+	public void keepLeftJoinOnNonUniqueColumn() throws Exception {
+		String sql = "select e.*, r.role_id from t_emp e left join t_emp_role r on r.emp_id = e.id where e.age >= ?";
+		assertCount("select count(*) from t_emp e left join t_emp_role r on r.emp_id = e.id where e.age >= ?", sql, 0);
+	}
+
+	@Test
+	public void keepLeftJoinOnPartOfUniqueKey() throws Exception {
+		String sql = "select e.*, b.code from t_emp e left join t_badge b on b.emp_id = e.id where e.age >= ?";
+		assertCount("select count(*) from t_emp e left join t_badge b on b.emp_id = e.id where e.age >= ?", sql, 0);
+		//唯一索引的所有列都在on条件中时可以去掉
+		sql = "select e.*, b.code from t_emp e left join t_badge b on b.emp_id = e.id and b.kind = 1 where e.age >= ?";
+		assertCount("select count(*) from t_emp e where e.age >= ?", sql, 0);
+	}
+
+	@Test
+	public void keepLeftJoinReferencedInWhere() throws Exception {
+		String sql = "select e.* from t_emp e left join t_dept d on e.dept_id = d.id where d.name = ?";
+		assertCount("select count(*) from t_emp e left join t_dept d on e.dept_id = d.id where d.name = ?", sql, "a");
+	}
+
+	@Test
+	public void keepInnerJoin() throws Exception {
+		String sql = "select e.* from t_emp e join t_dept d on e.dept_id = d.id where e.age >= ?";
+		assertCount("select count(*) from t_emp e join t_dept d on e.dept_id = d.id where e.age >= ?", sql, 0);
+	}
+
+	@Test
+	public void distinct() throws Exception {
+		String sql = "select distinct e.dept_id from t_emp e where e.age >= ? order by e.dept_id";
+		assertCount("select count(*) from (select distinct e.dept_id from t_emp e where e.age >= ?) temp", sql, 0);
+		sql = "select distinct e.dept_id from t_emp e where e.age >= ?";
+		assertCount(CountSqlOptimizer.wrap(sql), sql, 0);
+	}
+
+	@Test
+	public void groupBy() throws Exception {
+		String sql = "select e.age, count(*) c from t_emp e where e.age >= ? group by e.age having count(*) > 0 order by e.age";
+		assertCount("select count(*) from (select e.age, count(*) c from t_emp e where e.age >= ? group by e.age having count(*) > 0) temp", sql, 0);
+	}
+
+	@Test
+	public void aggregate() throws Exception {
+		String sql = "select max(e.age) from t_emp e where e.age >= ?";
+		assertCount(CountSqlOptimizer.wrap(sql), sql, 0);
+	}
+
+	@Test
+	public void quotedTextCommentsAndSubqueries() throws Exception {
+		String sql = "select e.id, 'order by' label, (select count(*) from t_emp_role r where r.emp_id = e.id) roles -- from t_dept\n"
+				+ "from t_emp e /* where e.age > 100 */ where e.name <> 'where ?' and e.dept_id in (select id from t_dept where name = ?) order by e.id";
+		assertCount("select count(*) from t_emp e where e.name <> 'where ?' and e.dept_id in (select id from t_dept where name = ?)", sql, "a");
+	}
+
+	@Test
+	public void withoutConnectionKeepsJoins() {
+		String sql = "select e.* from t_emp e left join t_dept d on e.dept_id = d.id order by e.id";
+		assertEquals("select count(*) from t_emp e left join t_dept d on e.dept_id = d.id", this.optimizer.buildCountSql(sql, null));
+	}
+
+	/**
+	 * 改写的结果与预期相同，且与包装方式的count结果一致
+	 */
+	private void assertCount(String expected, String sql, Object parameter) throws Exception {
+		String countSql = this.optimizer.buildCountSql(sql, this.conn);
+		assertEquals(expected, countSql);
+		assertEquals(count(CountSqlOptimizer.wrap(sql), parameter), count(countSql, parameter));
+	}
+
+	private long count(String sql, Object parameter) throws Exception {
+		PreparedStatement ps = this.conn.prepareStatement(sql);
+		try {
+			ps.setObject(1, parameter);
+			ResultSet rs = ps.executeQuery();
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			ps.close();
+		}
+	}
+
+}
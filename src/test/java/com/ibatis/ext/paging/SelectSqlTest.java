@@ -0,0 +1,114 @@
+package com.ibatis.ext.paging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class SelectSqlTest {
+
+	@Test
+	public void clauses() {
+		SelectSql select = SelectSql.parse("select id, name from t_user u where age > ? group by id, name having count(*) > 1 order by id desc limit 10");
+		assertEquals("id, name", select.getSelectList());
+		assertEquals("t_user u", select.getFrom());
+		assertEquals("age > ?", select.getWhere());
+		assertEquals("id, name", select.getGroupBy());
+		assertEquals("count(*) > 1", select.getHaving());
+		assertEquals("id desc", select.getOrderBy());
+		assertEquals("limit 10", select.getTail());
+		assertFalse(select.isDistinct());
+	}
+
+	@Test
+	public void keywordsInQuotedText() {
+		String sql = "select id, 'order by x' note, \"from\" from t_user where name = 'it''s where' and `group` = ? and memo = 'a\\' limit' order by id";
+		SelectSql select = SelectSql.parse(sql);
+		assertEquals("id, 'order by x' note, \"from\"", select.getSelectList());
+		assertEquals("t_user", select.getFrom());
+		assertEquals("name = 'it''s where' and `group` = ? and memo = 'a\\' limit'", select.getWhere());
+		assertNull(select.getGroupBy());
+		assertNull(select.getTail());
+		assertEquals("id", select.getOrderBy());
+		assertArrayEquals(new String[] { "t_user", "t_user" }, select.getSingleTable());
+	}
+
+	@Test
+	public void placeholdersInQuotedTextAndComments() {
+		assertEquals(1, SelectSql.countPlaceholders("name = '?' and age > ? /* ? */ -- ?\n"));
+		assertEquals(0, SelectSql.countPlaceholders("memo like '%?%'"));
+	}
+
+	@Test
+	public void keywordsInComments() {
+		String sql = "select id -- from t_admin\n from t_user /* where deleted = 0 */ where age > ? /* order by name */ order by id";
+		SelectSql select = SelectSql.parse(sql);
+		assertEquals("t_user", select.getFrom());
+		assertEquals("age > ?", select.getWhere());
+		assertEquals("id", select.getOrderBy());
+		assertEquals(1, SelectSql.countPlaceholders(select.getWhere()));
+		assertEquals("select id -- from t_admin\n from t_user /* where deleted = 0 */ where age > ?", select.getSqlWithoutOrderBy());
+	}
+
+	@Test
+	public void subqueries() {
+		String sql = "select u.id, (select count(*) from t_role r where r.user_id = u.id order by r.id) roles from t_user u "
+				+ "where u.dept_id in (select id from t_dept where name = ? union select id from t_dept2) order by u.id";
+		SelectSql select = SelectSql.parse(sql);
+		assertEquals("u.id, (select count(*) from t_role r where r.user_id = u.id order by r.id) roles", select.getSelectList());
+		assertEquals("t_user u", select.getFrom());
+		assertEquals("u.dept_id in (select id from t_dept where name = ? union select id from t_dept2)", select.getWhere());
+		assertEquals("u.id", select.getOrderBy());
+		assertArrayEquals(new String[] { "t_user", "u" }, select.getSingleTable());
+		//子查询中的聚合函数不影响行数
+		assertFalse(CountSqlOptimizer.hasAggregate(select.getSelectList()));
+	}
+
+	@Test
+	public void derivedTable() {
+		SelectSql select = SelectSql.parse("select t.* from (select id from t_user where age > ? order by id) t where t.id > 10");
+		assertEquals("(select id from t_user where age > ? order by id) t", select.getFrom());
+		assertEquals("t.id > 10", select.getWhere());
+		assertNull(select.getOrderBy());
+		assertNull(select.getSingleTable());
+	}
+
+	@Test
+	public void distinctAndJoin() {
+		SelectSql select = SelectSql.parse("select distinct u.name from t_user u left join t_dept d on u.dept_id = d.id");
+		assertTrue(select.isDistinct());
+		assertEquals("u.name", select.getSelectList());
+		assertNull(select.getSingleTable());
+	}
+
+	@Test
+	public void unparseable() {
+		assertNull(SelectSql.parse("select id from t_user union select id from t_admin"));
+		assertNull(SelectSql.parse("update t_user set age = 1"));
+		assertNull(SelectSql.parse("select top 10 id from t_user"));
+		assertNull(SelectSql.parse("select 1"));
+	}
+
+	@Test
+	public void tail() {
+		assertEquals("for update", SelectSql.parse("select id from t_user where id = ? for update").getTail());
+		assertEquals("offset 10 rows fetch next 10 rows only", SelectSql.parse("select id from t_user order by id offset 10 rows fetch next 10 rows only").getTail());
+	}
+
+	@Test
+	public void splitOrderBy() {
+		String[] split = SelectSql.splitOrderBy("select id from t_user union select id from t_admin order by id desc");
+		assertEquals("select id from t_user union select id from t_admin", split[0]);
+		assertEquals("id desc", split[1]);
+		//子查询及union之前的order by不在末尾
+		assertNull(SelectSql.splitOrderBy("select id from (select id from t_user order by id) t union select id from t_admin"));
+		assertNull(SelectSql.splitOrderBy("select id from t_user union select id from t_admin order by id limit 10"));
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.ibatis.ext.paging.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+
+/**
+ * @author fanwt7236@163.com
+ */
+public class KeysetPageSqlTest {
+
+	private final H2PageSqlBuilder builder = new H2PageSqlBuilder();
+
+	@Test
+	public void seekInWhere() {
+		PageSql pageSql = this.builder.buildKeysetSql("select u.id, u.name from t_user u where u.age >= ? or u.age is null order by u.name", page("u.id", 10L));
+		assertEquals("select u.id, u.name from t_user u where (u.age >= ? or u.age is null) and ((u.id > ?)) order by u.id asc limit ? offset ?", pageSql.getSql());
+		assertArrayEquals(new Object[] { 10L, 21, 0L }, pageSql.getParameters());
+		assertArrayEquals(new String[] { "id" }, pageSql.getCursorColumns());
+	}
+
+	@Test
+	public void firstPageWithoutWhere() {
+		Page page = page("id", null);
+		page.setSortType("desc");
+		assertEquals("select * from t_user order by id desc limit ? offset ?", this.builder.buildKeysetSql("select * from t_user", page).getSql());
+	}
+
+	@Test
+	public void multipleFields() {
+		Page page = page("age, id", null);
+		page.setCursor(new Object[] { 3, 7L });
+		PageSql pageSql = this.builder.buildKeysetSql("select id, age from t_user", page);
+		assertEquals("select id, age from t_user where ((age > ?) or (age = ? and id > ?)) order by age asc, id asc limit ? offset ?", pageSql.getSql());
+		assertArrayEquals(new Object[] { 3, 3, 7L, 21, 0L }, pageSql.getParameters());
+	}
+
+	@Test
+	public void wrapUnparseable() {
+		String sql = "select id from t_user union all select id from t_admin";
+		PageSql pageSql = this.builder.buildKeysetSql(sql, page("id", 10L));
+		assertEquals("select * from (" + sql + ") temp where (id > ?) order by id asc limit ? offset ?", pageSql.getSql());
+	}
+
+	@Test
+	public void wrapGroupByAndAlias() {
+		assertTrue(this.builder.buildKeysetSql("select age, count(*) c from t_user group by age", page("age", 1)).getSql().startsWith("select * from ("));
+		assertTrue(this.builder.buildKeysetSql("select id, age + 1 as next_age from t_user", page("next_age", 1)).getSql().startsWith("select * from ("));
+	}
+
+	@Test
+	public void keysetSkipsCountByDefault() {
+		Page page = page("id", null);
+		assertTrue(page.isSkipCount());
+		page.setKeysetCount(true);
+		assertEquals(false, page.isSkipCount());
+	}
+
+	private Page page(String sortField, Object cursor) {
+		Page page = new Page();
+		page.setPageSize(20);
+		page.setKeyset(true);
+		page.setSortField(sortField);
+		page.setSortType("asc");
+		if (cursor != null) {
+			page.setCursor(new Object[] { cursor });
+		}
+		return page;
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.ibatis.ext.paging.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.TestDatabase;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+
+/**
+ * 简单的select语句直接追加limit，不包装为派生表；在h2的mysql模式下执行分页sql检查结果
+ * @author fanwt7236@163.com
+ */
+public class MySqlPageSqlBuilderTest {
+
+	private final MySqlPageSqlBuilder builder = new MySqlPageSqlBuilder();
+	private Connection conn;
+
+	@Before
+	public void setUp() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource("mysqlPaging");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		this.conn = dataSource.getConnection();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.conn.close();
+	}
+
+	@Test
+	public void appendLimit() throws Exception {
+		PageSql pageSql = this.builder.buildPreparedSql("select id, name from t_user where age >= ? order by id", page(2, null));
+		assertEquals("select id, name from t_user where age >= ? order by id limit ?,?", pageSql.getSql());
+		assertArrayEquals(new Object[] { 10L, 10 }, pageSql.getParameters());
+		assertEquals(Arrays.asList(15L, 16L, 17L), ids(pageSql, 5, 3));
+	}
+
+	@Test
+	public void sortFieldBeforeOrderBy() throws Exception {
+		Page page = page(1, "age");
+		page.setSortType("desc");
+		PageSql pageSql = this.builder.buildPreparedSql("select u.id, u.age from t_user u where u.age >= ? order by u.id", page);
+		assertEquals("select u.id, u.age from t_user u where u.age >= ? order by age desc, u.id limit ?,?", pageSql.getSql());
+		assertEquals(Arrays.asList(30L, 29L, 28L), ids(pageSql, 0, 3));
+	}
+
+	@Test
+	public void concatenate() throws Exception {
+		assertEquals("select id from t_user order by id limit 10,10", this.builder.buildSql("select id from t_user order by id", page(2, null)));
+	}
+
+	@Test
+	public void wrapUnion() throws Exception {
+		String union = "select id, name from t_user where id <= 5 union all select id, name from t_user where id > 25";
+		Page page = page(2, null);
+		page.setPageSize(3);
+		PageSql pageSql = this.builder.buildPreparedSql(union + " order by id", page);
+		assertEquals("select * from (" + union + ") temp order by id limit ?,?", pageSql.getSql());
+		assertEquals(Arrays.asList(4L, 5L, 26L), ids(pageSql, null, 3));
+	}
+
+	@Test
+	public void wrapLimitTail() throws Exception {
+		String sql = "select id from t_user order by id limit 15";
+		PageSql pageSql = this.builder.buildPreparedSql(sql, page(2, "id"));
+		assertEquals("select * from (" + sql + ") temp order by id desc limit ?,?", pageSql.getSql());
+		//原语句的limit先截取前15行
+		assertEquals(Arrays.asList(5L, 4L, 3L), ids(pageSql, null, 3));
+	}
+
+	private static Page page(int pageNum, String sortField) {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		page.setSortField(sortField);
+		return page;
+	}
+
+	/**
+	 * 执行分页sql，返回前count行的id
+	 * @param minAge 原语句的参数，没有参数时为null
+	 */
+	private List<Long> ids(PageSql pageSql, Integer minAge, int count) throws Exception {
+		PreparedStatement ps = this.conn.prepareStatement(pageSql.getSql());
+		try {
+			int index = 1;
+			if (minAge != null) {
+				ps.setInt(index++, minAge);
+			}
+			for (Object parameter : pageSql.getParameters()) {
+				ps.setObject(index++, parameter);
+			}
+			ResultSet rs = ps.executeQuery();
+			List<Long> ids = new ArrayList<Long>();
+			while (rs.next() && ids.size() < count) {
+				ids.add(rs.getLong(1));
+			}
+			return ids;
+		} finally {
+			ps.close();
+		}
+	}
+
+}
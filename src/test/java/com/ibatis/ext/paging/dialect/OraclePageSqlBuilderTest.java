@@ -0,0 +1,97 @@
+package com.ibatis.ext.paging.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibatis.ext.TestDatabase;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSql;
+
+/**
+ * 在h2的oracle模式下执行分页sql
+ * @author fanwt7236@163.com
+ */
+public class OraclePageSqlBuilderTest {
+
+	private Connection conn;
+
+	@Before
+	public void setUp() throws Exception {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:oracle;MODE=Oracle;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		TestDatabase.createUsers(dataSource, "user", 30);
+		this.conn = dataSource.getConnection();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.conn.close();
+	}
+
+	@Test
+	public void sameColumnsOnEveryPage() throws Exception {
+		List<String> first = columns(page(1));
+		List<String> second = columns(page(2));
+		assertEquals(first, second);
+	}
+
+	@Test
+	public void pageRows() throws Exception {
+		assertEquals(11L, firstId(page(2)));
+		assertEquals(1L, firstId(page(1)));
+	}
+
+	private PageSql page(int pageNum) {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		return new OraclePageSqlBuilder().buildPreparedSql("select id, name from t_user order by id", page);
+	}
+
+	private List<String> columns(PageSql pageSql) throws Exception {
+		PreparedStatement ps = prepare(pageSql);
+		try {
+			ResultSetMetaData meta = ps.executeQuery().getMetaData();
+			List<String> columns = new ArrayList<String>();
+			for (int i = 1; i <= meta.getColumnCount(); i++) {
+				columns.add(meta.getColumnLabel(i).toLowerCase());
+			}
+			return columns;
+		} finally {
+			ps.close();
+		}
+	}
+
+	private long firstId(PageSql pageSql) throws Exception {
+		PreparedStatement ps = prepare(pageSql);
+		try {
+			ResultSet rs = ps.executeQuery();
+			rs.next();
+			return rs.getLong("id");
+		} finally {
+			ps.close();
+		}
+	}
+
+	private PreparedStatement prepare(PageSql pageSql) throws Exception {
+		PreparedStatement ps = this.conn.prepareStatement(pageSql.getSql());
+		Object[] parameters = pageSql.getParameters();
+		for (int i = 0; i < parameters.length; i++) {
+			ps.setObject(i + 1, parameters[i]);
+		}
+		return ps;
+	}
+
+}
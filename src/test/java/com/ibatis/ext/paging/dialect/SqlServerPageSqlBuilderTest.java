@@ -0,0 +1,63 @@
+package com.ibatis.ext.paging.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.ibatis.ext.paging.Page;
+
+/**
+ * sql server不允许派生表中出现order by(除非同时有top或offset)，包装为select * from (sql) temp时内层的排序移到外层
+ * @author fanwt7236@163.com
+ */
+public class SqlServerPageSqlBuilderTest {
+
+	private final SqlServerPageSqlBuilder builder = new SqlServerPageSqlBuilder();
+
+	private static final String UNION = "select id, name from t_user union all select id, name from t_admin";
+
+	@Test
+	public void unionOrderByMovedOutside() {
+		String sql = UNION + " order by id desc";
+		assertEquals("select top 10 * from (" + UNION + ") temp order by id desc", this.builder.buildSql(sql, page(1, null)));
+		assertEquals("select * from (" + UNION + ") temp order by id desc offset 10 rows fetch next 10 rows only", this.builder.buildSql(sql, page(2, null)));
+	}
+
+	@Test
+	public void sortFieldBeforeInnerOrderBy() {
+		assertEquals("select * from (" + UNION + ") temp order by name asc, id offset 10 rows fetch next 10 rows only",
+				this.builder.buildSql(UNION + " order by u.id", page(2, "u.name")));
+	}
+
+	@Test
+	public void windowCountWithDistinct() {
+		Page page = page(2, null);
+		page.setWindowCount(true);
+		assertEquals("select temp.*, count(*) over() total__ from (select distinct u.age, [u].[name] from t_user u) temp order by age, [name] desc"
+				+ " offset ? rows fetch next ? rows only", this.builder.buildPreparedSql("select distinct u.age, [u].[name] from t_user u order by u.age, [u].[name] desc", page).getSql());
+	}
+
+	@Test
+	public void keepExpressionOrderBy() {
+		//表达式在外层无法引用，保持原样
+		String sql = UNION + " order by len(name)";
+		assertEquals("select * from (" + sql + ") temp order by (select null) offset 10 rows fetch next 10 rows only", this.builder.buildSql(sql, page(2, null)));
+	}
+
+	@Test
+	public void keepOrderByWithOffset() {
+		//截取依赖内层的顺序，sql server允许与offset同时出现的order by
+		String sql = "select id from t_user order by id offset 5 rows";
+		assertEquals("select * from (" + sql + ") temp order by (select null) offset 10 rows fetch next 10 rows only", this.builder.buildSql(sql, page(2, null)));
+	}
+
+	private static Page page(int pageNum, String sortField) {
+		Page page = new Page();
+		page.setPageNum(pageNum);
+		page.setPageSize(10);
+		page.setSortField(sortField);
+		page.setSortType("asc");
+		return page;
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.ibatis.ext.routing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ibatis.ext.TestDatabase;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 主库和从库中的t_user分别以primary、replica作为name的前缀，根据查询到的name判断语句在哪个库上执行
+ * @author fanwt7236@163.com
+ */
+public class ReplicaDataSourcesTest {
+
+	private DataSource primary;
+	private ReplicaDataSources replicas;
+	private SqlMapClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.primary = TestDatabase.dataSource("routing_primary");
+		DataSource replica = TestDatabase.dataSource("routing_replica");
+		TestDatabase.createUsers(this.primary, "primary", 10);
+		TestDatabase.createUsers(replica, "replica", 10);
+		this.client = TestDatabase.newClient(this.primary, new Properties());
+		this.replicas = new ReplicaDataSources();
+		this.replicas.setSqlMapClient(this.client);
+		this.replicas.addDataSource(replica, 1);
+		this.replicas.setHealthCheckInterval(0);
+		this.replicas.setPrimaryAfterWrite(0);
+		this.replicas.init();
+	}
+
+	@After
+	public void tearDown() {
+		this.replicas.shutdown();
+		ReadWriteRouting.clearWrite();
+	}
+
+	@Test
+	public void selectOutsideTransactionUsesReplica() throws Exception {
+		assertEquals("replica1", this.client.queryForObject("user.getName", 1L));
+		assertEquals(1, this.replicas.getSelected(0));
+	}
+
+	@Test
+	public void selectInSpringTransactionUsesPrimary() throws Exception {
+		TransactionTemplate template = new TransactionTemplate(new DataSourceTransactionManager(this.primary));
+		Object name = template.execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					return client.queryForObject("user.getName", 1L);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		assertEquals("primary1", name);
+		assertEquals(0, this.replicas.getSelected(0));
+	}
+
+	@Test
+	public void readOwnWriteInSpringTransaction() throws Exception {
+		TransactionTemplate template = new TransactionTemplate(new DataSourceTransactionManager(this.primary));
+		Object count = template.execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					Map<String, Object> user = new HashMap<String, Object>();
+					user.put("name", "new");
+					user.put("age", 1);
+					client.insert("user.insertUser", user);
+					Object count = client.queryForObject("user.countUser");
+					status.setRollbackOnly();
+					return count;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		assertEquals(11, count);
+	}
+
+	@Test
+	public void forcePrimary() throws Exception {
+		ReadWriteRouting.forcePrimary();
+		try {
+			assertEquals("primary1", this.client.queryForObject("user.getName", 1L));
+		} finally {
+			ReadWriteRouting.clearForcePrimary();
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.ibatis.ext.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ibatis.ext.TestDatabase;
+import com.ibatis.ext.paging.Page;
+import com.ibatis.ext.paging.PageSection;
+import com.ibatis.ext.transaction.DataSourcesTransactionManager;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * 两个分片库，每个库2张分表：user_id为u的订单位于分片u % 4，即第(u % 4) / 2个库的t_order_(u % 4)表。
+ * 每个库中只创建自己的分表，路由或表名改写错误时语句会因为表不存在而失败
+ * @author fanwt7236@163.com
+ */
+public class ShardDataSourcesTest {
+
+	private DataSource[] shards;
+	private ShardDataSources shardDataSources;
+	private SqlMapClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.shards = new DataSource[] { TestDatabase.dataSource("shard0"), TestDatabase.dataSource("shard1") };
+		createTables(this.shards[0], 0, 1);
+		createTables(this.shards[1], 2, 3);
+		this.client = TestDatabase.newClient(TestDatabase.dataSource("shard_main"), new Properties());
+		ShardRule rule = new ShardRule();
+		rule.setStatementRegEx("order\\..*");
+		rule.setShardKey("userId");
+		rule.setTables("t_order");
+		rule.setTablesPerShard(2);
+		this.shardDataSources = new ShardDataSources();
+		this.shardDataSources.setSqlMapClient(this.client);
+		this.shardDataSources.setDataSources(Arrays.asList(this.shards));
+		this.shardDataSources.addRule(rule);
+		this.shardDataSources.init();
+	}
+
+	@After
+	public void tearDown() {
+		this.shardDataSources.shutdown();
+		PageSection.clear();
+	}
+
+	@Test
+	public void routeByShardKey() throws Exception {
+		insertOrders(8);
+		assertEquals(Arrays.asList(1L, 5L), ids(this.shards[0], "t_order_0"));
+		assertEquals(Arrays.asList(2L, 6L), ids(this.shards[0], "t_order_1"));
+		assertEquals(Arrays.asList(3L, 7L), ids(this.shards[1], "t_order_2"));
+		assertEquals(Arrays.asList(4L, 8L), ids(this.shards[1], "t_order_3"));
+		List<?> rows = this.client.queryForList("order.selectListOrder", order(5));
+		assertEquals(1, rows.size());
+		assertEquals(6L, id(rows.get(0)));
+	}
+
+	@Test
+	public void insertWithoutShardKey() throws Exception {
+		Map<String, Object> order = order(1);
+		order.remove("userId");
+		try {
+			this.client.insert("order.insertOrder", order);
+			fail();
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("userId"));
+		}
+	}
+
+	@Test
+	public void fanOutMergesInSqlOrder() throws Exception {
+		insertOrders(8);
+		List<?> rows = this.client.queryForList("order.selectListOrder", new HashMap<String, Object>());
+		assertEquals(8, rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			assertEquals(i + 1L, id(rows.get(i)));
+		}
+		//只有一个分片有结果的queryForObject
+		Map<String, Object> param = new HashMap<String, Object>();
+		param.put("id", 3);
+		assertEquals(10, this.client.queryForObject("order.getAmount", param));
+	}
+
+	@Test
+	public void fanOutPaging() throws Exception {
+		insertOrders(8);
+		Page page = new Page();
+		page.setPageNum(2);
+		page.setPageSize(3);
+		PageSection.put(page);
+		List<?> rows;
+		try {
+			rows = this.client.queryForList("order.selectListOrder", new HashMap<String, Object>());
+		} finally {
+			PageSection.clear();
+		}
+		assertEquals(3, rows.size());
+		assertEquals(4L, id(rows.get(0)));
+		assertEquals(6L, id(rows.get(2)));
+		assertEquals(Long.valueOf(8), page.getTotalRows());
+		assertEquals(Integer.valueOf(3), page.getTotalPage());
+	}
+
+	@Test
+	public void updateAllShards() throws Exception {
+		insertOrders(8);
+		Map<String, Object> param = new HashMap<String, Object>();
+		param.put("amount", 1);
+		assertEquals(8, this.client.update("order.addAmount", param));
+		param.put("userId", 2);
+		assertEquals(1, this.client.update("order.addAmount", param));
+		param.put("id", 3);
+		assertEquals(12, this.client.queryForObject("order.getAmount", param));
+	}
+
+	@Test
+	public void springTransactionSpansShards() throws Exception {
+		TransactionTemplate template = new TransactionTemplate(new DataSourcesTransactionManager(Arrays.asList(this.shards)));
+		template.execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					//分片0和分片2位于不同的库
+					client.insert("order.insertOrder", order(0));
+					client.insert("order.insertOrder", order(2));
+					//事务中的查询能读到未提交的写入
+					assertEquals(2, client.queryForList("order.selectListOrder", new HashMap<String, Object>()).size());
+				} catch (SQLException e) {
+					throw new RuntimeException(e);
+				}
+				status.setRollbackOnly();
+				return null;
+			}
+		});
+		assertEquals(0, ids(this.shards[0], "t_order_0").size());
+		assertEquals(0, ids(this.shards[1], "t_order_2").size());
+		template.execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				try {
+					client.insert("order.insertOrder", order(0));
+					client.insert("order.insertOrder", order(2));
+				} catch (SQLException e) {
+					throw new RuntimeException(e);
+				}
+				return null;
+			}
+		});
+		assertEquals(1, ids(this.shards[0], "t_order_0").size());
+		assertEquals(1, ids(this.shards[1], "t_order_2").size());
+	}
+
+	@Test
+	public void rejectWriteInIbatisTransaction() throws Exception {
+		insertOrders(4);
+		this.client.startTransaction();
+		try {
+			try {
+				this.client.insert("order.insertOrder", order(4));
+				fail();
+			} catch (SQLException e) {
+				assertTrue(e.getMessage().contains("startTransaction"));
+			}
+			try {
+				this.client.update("order.addAmount", order(1));
+				fail();
+			} catch (SQLException e) {
+				assertTrue(e.getMessage().contains("startTransaction"));
+			}
+			//读操作不受影响
+			assertEquals(4, this.client.queryForList("order.selectListOrder", new HashMap<String, Object>()).size());
+		} finally {
+			this.client.endTransaction();
+		}
+		assertEquals(1, ids(this.shards[0], "t_order_0").size());
+	}
+
+	private void insertOrders(int count) throws SQLException {
+		for (int userId = 0; userId < count; userId++) {
+			this.client.insert("order.insertOrder", order(userId));
+		}
+	}
+
+	private static Map<String, Object> order(int userId) {
+		Map<String, Object> order = new HashMap<String, Object>();
+		order.put("id", userId + 1);
+		order.put("userId", userId);
+		order.put("amount", 10);
+		return order;
+	}
+
+	private static long id(Object row) {
+		return ((Number) ((Map<?, ?>) row).get("ID")).longValue();
+	}
+
+	private static void createTables(DataSource dataSource, int... shards) throws SQLException {
+		Connection conn = dataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			try {
+				for (int shard : shards) {
+					st.execute("drop table if exists t_order_" + shard);
+					st.execute("create table t_order_" + shard + "(id bigint primary key, user_id bigint, amount int)");
+				}
+			} finally {
+				st.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	private static List<Long> ids(DataSource dataSource, String table) throws SQLException {
+		Connection conn = dataSource.getConnection();
+		try {
+			Statement st = conn.createStatement();
+			try {
+				ResultSet rs = st.executeQuery("select id from " + table + " order by id");
+				List<Long> ids = new ArrayList<Long>();
+				while (rs.next()) {
+					ids.add(rs.getLong(1));
+				}
+				return ids;
+			} finally {
+				st.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+}